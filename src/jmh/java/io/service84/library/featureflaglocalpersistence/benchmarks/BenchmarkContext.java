@@ -0,0 +1,98 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import io.service84.library.featureflaglocalpersistence.BenchmarkApplication;
+import io.service84.library.featureflaglocalpersistence.services.FeatureFlagLocalPersistence;
+import io.service84.library.featureflaglocalpersistence.services.FlagStateCache;
+
+/*
+ * An application context over its own embedded H2 database, seeded with flags named flag-N
+ * that are all set to true. The flag named by FLAG has overrides for users named user-N.
+ */
+final class BenchmarkContext implements AutoCloseable {
+  static final String FLAG = "flag-0";
+  static final String UNSET_FLAG = "unset";
+  static final String PREFIX = "io.service84.library.featureflaglocalpersistence.";
+
+  private final ConfigurableApplicationContext context;
+
+  BenchmarkContext(String... properties) {
+    List<String> all = new ArrayList<>();
+    all.add("spring.main.banner-mode=off");
+    all.add("logging.level.root=WARN");
+    all.add("spring.datasource.url=jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+    all.add("spring.jpa.properties.hibernate.jdbc.batch_size=100");
+    all.add("spring.jpa.properties.hibernate.order_inserts=true");
+    all.add("spring.jpa.properties.hibernate.order_updates=true");
+    all.addAll(List.of(properties));
+    context =
+        new SpringApplicationBuilder(BenchmarkApplication.class)
+            .web(WebApplicationType.NONE)
+            .properties(all.toArray(new String[0]))
+            .run();
+  }
+
+  FeatureFlagLocalPersistence getService() {
+    return context.getBean(FeatureFlagLocalPersistence.class);
+  }
+
+  void seed(int flagCount, int overrideCount) {
+    FeatureFlagLocalPersistence service = getService();
+    Map<String, Boolean> flagValues = new HashMap<>();
+
+    for (int index = 0; index < flagCount; index++) {
+      flagValues.put(flagName(index), Boolean.TRUE);
+    }
+
+    service.setValues(flagValues);
+    service.createFlag(UNSET_FLAG);
+    seedUserValues(FLAG, overrideCount);
+    context.getBean(FlagStateCache.class).refresh();
+  }
+
+  void seedUserValues(String flagName, int overrideCount) {
+    Map<String, Boolean> userValues = new HashMap<>();
+
+    for (int index = 0; index < overrideCount; index++) {
+      userValues.put(userName(index), Boolean.FALSE);
+    }
+
+    getService().setValues(flagName, userValues);
+  }
+
+  static String flagName(int index) {
+    return "flag-" + index;
+  }
+
+  static String userName(int index) {
+    return "user-" + index;
+  }
+
+  @Override
+  public void close() {
+    context.close();
+  }
+}
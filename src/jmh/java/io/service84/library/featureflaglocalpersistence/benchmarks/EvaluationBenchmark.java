@@ -0,0 +1,102 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.benchmarks;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.service84.library.featureflaglocalpersistence.services.FeatureFlagLocalPersistence;
+
+/*
+ * getValue for a user with an override, for a user that gets the FlagValue and for a flag
+ * with neither, which gets the default
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EvaluationBenchmark {
+  @Param({"10", "1000"})
+  public int flagCount;
+
+  @Param({"100", "100000"})
+  public int overrideCount;
+
+  @Param({"false", "true"})
+  public boolean cache;
+
+  private BenchmarkContext context;
+  private FeatureFlagLocalPersistence service;
+  private String[] overrideUsers;
+  private String[] defaultUsers;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    context = new BenchmarkContext(BenchmarkContext.PREFIX + "cache.enabled=" + cache);
+    context.seed(flagCount, overrideCount);
+    service = context.getService();
+    overrideUsers = new String[overrideCount];
+    defaultUsers = new String[1024];
+
+    for (int index = 0; index < overrideUsers.length; index++) {
+      overrideUsers[index] = BenchmarkContext.userName(index);
+    }
+
+    for (int index = 0; index < defaultUsers.length; index++) {
+      defaultUsers[index] = UUID.randomUUID().toString();
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  public Boolean getValueOverride() {
+    return service.getValue(BenchmarkContext.FLAG, pick(overrideUsers));
+  }
+
+  @Benchmark
+  public Boolean getValueDefault() {
+    return service.getValue(BenchmarkContext.FLAG, pick(defaultUsers));
+  }
+
+  @Benchmark
+  public Boolean getValueMiss() {
+    return service.getValue(BenchmarkContext.UNSET_FLAG, pick(defaultUsers), Boolean.FALSE);
+  }
+
+  private static String pick(String[] users) {
+    return users[ThreadLocalRandom.current().nextInt(users.length)];
+  }
+}
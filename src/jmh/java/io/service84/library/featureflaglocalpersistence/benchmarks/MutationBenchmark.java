@@ -0,0 +1,105 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.benchmarks;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.service84.library.featureflaglocalpersistence.services.FeatureFlagLocalPersistence;
+
+/*
+ * setValue of a FlagValue and of FlagUserValues, and clearAllUserValues of a flag that has
+ * overrideCount FlagUserValues
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MutationBenchmark {
+  /*
+   * A flag of its own per thread, refilled before every clearAllUserValues
+   */
+  @State(Scope.Thread)
+  public static class ClearState {
+    private final String flagName = "clear-" + UUID.randomUUID();
+
+    @Setup(Level.Invocation)
+    public void fill(MutationBenchmark benchmark) {
+      benchmark.context.seedUserValues(flagName, benchmark.overrideCount);
+    }
+  }
+
+  @Param({"10", "1000"})
+  public int flagCount;
+
+  @Param({"100", "10000"})
+  public int overrideCount;
+
+  @Param({"false", "true"})
+  public boolean cache;
+
+  private BenchmarkContext context;
+  private FeatureFlagLocalPersistence service;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    context = new BenchmarkContext(BenchmarkContext.PREFIX + "cache.enabled=" + cache);
+    context.seed(flagCount, overrideCount);
+    service = context.getService();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  public void setValue() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    service.setValue(BenchmarkContext.flagName(random.nextInt(flagCount)), random.nextBoolean());
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  public void setUserValue() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    String user = BenchmarkContext.userName(random.nextInt(overrideCount));
+    service.setValue(BenchmarkContext.FLAG, user, random.nextBoolean());
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @Measurement(iterations = 20)
+  public Long clearAllUserValues(ClearState state) {
+    return service.clearAllUserValues(state.flagName, deleted -> {});
+  }
+}
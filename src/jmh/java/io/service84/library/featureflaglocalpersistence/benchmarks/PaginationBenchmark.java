@@ -0,0 +1,84 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.service84.library.featureflag.model.FlagPage;
+import io.service84.library.featureflaglocalpersistence.services.FeatureFlagLocalPersistence;
+
+/*
+ * getFlags paging through every flag, with offset and with keyset cursors
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PaginationBenchmark {
+  @Param({"100", "10000"})
+  public int flagCount;
+
+  @Param({"100"})
+  public int pageSize;
+
+  @Param({"false", "true"})
+  public boolean keyset;
+
+  private BenchmarkContext context;
+  private FeatureFlagLocalPersistence service;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    context = new BenchmarkContext(BenchmarkContext.PREFIX + "pagination.keyset=" + keyset);
+    context.seed(flagCount, 0);
+    service = context.getService();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  public int getFlags() {
+    int read = 0;
+    String cursor = null;
+
+    // The bound stops a cursor that never runs out
+    do {
+      FlagPage page = service.getFlags(cursor, pageSize);
+      read += page.getFlags().size();
+      cursor = page.getNextCursor();
+    } while (cursor != null && read <= flagCount);
+
+    return read;
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.persistence.models;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+/*
+ * One entry of the change log, it names what changed and never the new value.
+ * Readers of the log load the current value from the repositories.
+ */
+@Entity
+@Table(indexes = {@Index(name = "flag_change_created_idx", columnList = "createdDate")})
+public class FlagChange {
+  public enum Type {
+    VALUE,
+    USER_VALUE,
+    // The FlagUserValues of many users of the flag changed, readers reload them all
+    USER_VALUES,
+    SEGMENT_VALUE,
+    // The flag name of a segment change is the name of the segment
+    SEGMENT,
+    // Every FlagUserValue of the flag was deleted
+    ALL_USER_VALUES
+  }
+
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  private Long sequenceNumber;
+
+  @Column(nullable = false)
+  private LocalDateTime createdDate;
+
+  @Enumerated(EnumType.STRING)
+  @Column(nullable = false, columnDefinition = "VARCHAR(16)")
+  private Type type;
+
+  @Column(nullable = false, columnDefinition = "VARCHAR(512)")
+  private String flagName;
+
+  @Column(columnDefinition = "VARCHAR(512)")
+  private String userIdentity;
+
+  protected FlagChange() {}
+
+  public FlagChange(Type type, String flagName, String user) {
+    this.createdDate = LocalDateTime.now(ZoneOffset.UTC);
+    this.type = type;
+    this.flagName = flagName;
+    this.userIdentity = user;
+  }
+
+  public Long getSequenceNumber() {
+    return sequenceNumber;
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public String getFlagName() {
+    return flagName;
+  }
+
+  public String getUser() {
+    return userIdentity;
+  }
+}
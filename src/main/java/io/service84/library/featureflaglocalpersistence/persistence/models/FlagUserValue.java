@@ -22,7 +22,10 @@ import javax.persistence.Entity;
 import javax.persistence.EntityListeners;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
 
 import org.hibernate.annotations.GenericGenerator;
 import org.hibernate.envers.Audited;
@@ -35,6 +38,15 @@ import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 @Entity
 @Audited
 @EntityListeners(AuditingEntityListener.class)
+@Table(
+    uniqueConstraints = {
+      @UniqueConstraint(
+          name = "flag_user_value_flag_user_uk",
+          columnNames = {"flag_id", "userIdentity"})
+    },
+    indexes = {
+      @Index(name = "flag_user_value_user_idx", columnList = "userIdentity, flag_id, value")
+    })
 public class FlagUserValue {
   @CreatedBy private String createdBy;
   @CreatedDate private LocalDateTime createdDate;
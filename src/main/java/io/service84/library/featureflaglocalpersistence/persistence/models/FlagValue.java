@@ -22,7 +22,10 @@ import javax.persistence.Entity;
 import javax.persistence.EntityListeners;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
 
 import org.hibernate.annotations.GenericGenerator;
 import org.hibernate.envers.Audited;
@@ -35,6 +38,13 @@ import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 @Entity
 @Audited
 @EntityListeners(AuditingEntityListener.class)
+@Table(
+    uniqueConstraints = {
+      @UniqueConstraint(
+          name = "flag_value_flag_uk",
+          columnNames = {"flag_id"})
+    },
+    indexes = {@Index(name = "flag_value_resolution_idx", columnList = "flag_id, value")})
 public class FlagValue {
   @CreatedBy private String createdBy;
   @CreatedDate private LocalDateTime createdDate;
@@ -0,0 +1,78 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.persistence.models;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EntityListeners;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.envers.Audited;
+import org.springframework.data.annotation.CreatedBy;
+import org.springframework.data.annotation.CreatedDate;
+import org.springframework.data.annotation.LastModifiedBy;
+import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.data.jpa.domain.support.AuditingEntityListener;
+
+@Entity
+@Audited
+@EntityListeners(AuditingEntityListener.class)
+@Table(
+    uniqueConstraints = {
+      @UniqueConstraint(
+          name = "segment_member_segment_user_uk",
+          columnNames = {"segment_id", "userIdentity"})
+    },
+    indexes = {@Index(name = "segment_member_user_idx", columnList = "userIdentity, segment_id")})
+public class SegmentMember {
+  @CreatedBy private String createdBy;
+  @CreatedDate private LocalDateTime createdDate;
+  @LastModifiedBy private String modifiedBy;
+  @LastModifiedDate private LocalDateTime modifiedDate;
+
+  @Id
+  @GeneratedValue(generator = "UUID")
+  @GenericGenerator(name = "UUID", strategy = "org.hibernate.id.UUIDGenerator")
+  private UUID id;
+
+  @ManyToOne private Segment segment;
+
+  @Column(nullable = false, columnDefinition = "VARCHAR(512)")
+  private String userIdentity;
+
+  protected SegmentMember() {}
+
+  public SegmentMember(Segment segment, String user) {
+    this.segment = segment;
+    this.userIdentity = user;
+  }
+
+  public Segment getSegment() {
+    return segment;
+  }
+
+  public String getUser() {
+    return userIdentity;
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.persistence.repositories;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import io.service84.library.featureflaglocalpersistence.persistence.models.FlagChange;
+
+@Repository("6C0B8F0E-2E7A-4C55-A4E3-3B7E2F1D9A52")
+public interface FlagChangeRepository extends JpaRepository<FlagChange, Long> {
+  @Query("SELECT MAX(fc.sequenceNumber) FROM FlagChange fc")
+  Optional<Long> findMaxSequenceNumber();
+
+  List<FlagChange> findBySequenceNumberGreaterThanOrderBySequenceNumber(
+      Long sequenceNumber, Pageable pageable);
+
+  List<FlagChange> findBySequenceNumberBetweenOrderBySequenceNumber(Long low, Long high);
+
+  @Modifying
+  @Query("DELETE FROM FlagChange fc WHERE fc.createdDate < :before")
+  Integer deleteByCreatedDateBefore(@Param("before") LocalDateTime before);
+}
@@ -14,16 +14,102 @@
 
 package io.service84.library.featureflaglocalpersistence.persistence.repositories;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Stream;
 
+import javax.persistence.QueryHint;
+
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import io.service84.library.featureflaglocalpersistence.persistence.models.Flag;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagValueRepository.FlagNameValue;
 
 @Repository("A7980B33-07F8-438E-BE19-6E25E0988467")
 public interface FlagRepository extends JpaRepository<Flag, UUID>, JpaSpecificationExecutor<Flag> {
+  /*
+   * The FlagUserValue, FlagSegmentValues, FlagValue and FlagRollout of a flag for one user
+   */
+  public interface FlagResolution {
+    Boolean getUserValue();
+
+    /*
+     * 1 when every segment of the user with a FlagSegmentValue enables the flag, 0 when one
+     * disables it, null when there is none
+     */
+    Integer getSegmentValue();
+
+    Boolean getFlagValue();
+
+    Double getRolloutPercentage();
+
+    String getRolloutSalt();
+  }
+
+  /*
+   * The FlagValue and FlagRollout of a flag
+   */
+  public interface FlagExport {
+    String getFlagName();
+
+    Boolean getFlagValue();
+
+    Double getRolloutPercentage();
+
+    String getRolloutSalt();
+  }
+
   Optional<Flag> getByName(String name);
+
+  List<Flag> findByNameIn(Collection<String> names);
+
+  @Query(
+      "SELECT"
+          + " (SELECT fuv.value FROM FlagUserValue fuv"
+          + " WHERE fuv.flag = f AND fuv.userIdentity = :user) AS userValue,"
+          + " (SELECT MIN(CASE WHEN fsv.value = TRUE THEN 1 ELSE 0 END)"
+          + " FROM FlagSegmentValue fsv, SegmentMember sm"
+          + " WHERE fsv.flag = f AND sm.segment = fsv.segment AND sm.userIdentity = :user)"
+          + " AS segmentValue,"
+          + " (SELECT fv.value FROM FlagValue fv WHERE fv.flag = f) AS flagValue,"
+          + " (SELECT fr.percentage FROM FlagRollout fr WHERE fr.flag = f) AS rolloutPercentage,"
+          + " (SELECT fr.salt FROM FlagRollout fr WHERE fr.flag = f) AS rolloutSalt"
+          + " FROM Flag f WHERE f.name = :name")
+  Optional<FlagResolution> resolveByNameAndUser(
+      @Param("name") String name, @Param("user") String user);
+
+  @Query("SELECT f.name FROM Flag f")
+  List<String> findAllNames();
+
+  @Query("SELECT f.name FROM Flag f ORDER BY f.name")
+  List<String> findNames(Pageable pageable);
+
+  @Query("SELECT f.name FROM Flag f WHERE f.name > :after ORDER BY f.name")
+  List<String> findNamesAfter(@Param("after") String after, Pageable pageable);
+
+  @Query(
+      "SELECT f.name AS flagName,"
+          + " (SELECT fv.value FROM FlagValue fv WHERE fv.flag = f) AS flagValue"
+          + " FROM Flag f")
+  List<FlagNameValue> findAllWithFlagValues();
+
+  /*
+   * Streams from a forward-only cursor, the caller closes the stream within its transaction
+   */
+  @QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "1000"))
+  @Query(
+      "SELECT f.name AS flagName,"
+          + " (SELECT fv.value FROM FlagValue fv WHERE fv.flag = f) AS flagValue,"
+          + " (SELECT fr.percentage FROM FlagRollout fr WHERE fr.flag = f) AS rolloutPercentage,"
+          + " (SELECT fr.salt FROM FlagRollout fr WHERE fr.flag = f) AS rolloutSalt"
+          + " FROM Flag f")
+  Stream<FlagExport> streamAllForExport();
 }
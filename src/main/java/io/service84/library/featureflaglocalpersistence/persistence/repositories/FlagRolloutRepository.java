@@ -0,0 +1,64 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.persistence.repositories;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import javax.persistence.LockModeType;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import io.service84.library.featureflaglocalpersistence.persistence.models.Flag;
+import io.service84.library.featureflaglocalpersistence.persistence.models.FlagRollout;
+
+@Repository("8D2E6B1A-5C47-4F93-B0A8-71E3C9D4F265")
+public interface FlagRolloutRepository
+    extends JpaRepository<FlagRollout, UUID>, JpaSpecificationExecutor<FlagRollout> {
+  public interface FlagNameRollout {
+    String getFlagName();
+
+    Double getPercentage();
+
+    String getSalt();
+  }
+
+  Optional<FlagRollout> getByFlag(Flag flag);
+
+  @Lock(LockModeType.PESSIMISTIC_WRITE)
+  @Query("SELECT fr FROM FlagRollout fr WHERE fr.flag = :flag")
+  Optional<FlagRollout> lockByFlag(@Param("flag") Flag flag);
+
+  @Lock(LockModeType.PESSIMISTIC_WRITE)
+  @Query("SELECT fr FROM FlagRollout fr WHERE fr.flag IN :flags")
+  List<FlagRollout> lockByFlagIn(@Param("flags") Collection<Flag> flags);
+
+  @Query(
+      "SELECT fr.flag.name AS flagName, fr.percentage AS percentage, fr.salt AS salt"
+          + " FROM FlagRollout fr")
+  List<FlagNameRollout> findAllFlagNameRollouts();
+
+  @Query(
+      "SELECT fr.flag.name AS flagName, fr.percentage AS percentage, fr.salt AS salt"
+          + " FROM FlagRollout fr WHERE fr.flag.name = :flagName")
+  Optional<FlagNameRollout> findRolloutByFlagName(@Param("flagName") String flagName);
+}
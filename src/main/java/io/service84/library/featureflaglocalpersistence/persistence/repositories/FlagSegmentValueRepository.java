@@ -0,0 +1,99 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.persistence.repositories;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import io.service84.library.featureflaglocalpersistence.persistence.models.Flag;
+import io.service84.library.featureflaglocalpersistence.persistence.models.FlagSegmentValue;
+import io.service84.library.featureflaglocalpersistence.persistence.models.Segment;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagUserValueRepository.FlagNameUserValue;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagUserValueRepository.UserValue;
+
+@Repository("E8A35C19-6D2F-4B7E-9F04-3C1B7A6D2E58")
+public interface FlagSegmentValueRepository
+    extends JpaRepository<FlagSegmentValue, UUID>, JpaSpecificationExecutor<FlagSegmentValue> {
+  public interface FlagSegmentNameValue {
+    String getFlagName();
+
+    String getSegmentName();
+
+    Boolean getSegmentValue();
+  }
+
+  Optional<FlagSegmentValue> getByFlagAndSegment(Flag flag, Segment segment);
+
+  @Lock(LockModeType.PESSIMISTIC_WRITE)
+  @Query("SELECT fsv FROM FlagSegmentValue fsv WHERE fsv.flag = :flag AND fsv.segment = :segment")
+  Optional<FlagSegmentValue> lockByFlagAndSegment(
+      @Param("flag") Flag flag, @Param("segment") Segment segment);
+
+  @Lock(LockModeType.PESSIMISTIC_WRITE)
+  @Query("SELECT fsv FROM FlagSegmentValue fsv WHERE fsv.segment = :segment AND fsv.flag IN :flags")
+  List<FlagSegmentValue> lockBySegmentAndFlagIn(
+      @Param("segment") Segment segment, @Param("flags") Collection<Flag> flags);
+
+  @Query(
+      "SELECT fsv.flag.name AS flagName, fsv.segment.name AS segmentName,"
+          + " fsv.value AS segmentValue FROM FlagSegmentValue fsv")
+  List<FlagSegmentNameValue> findAllFlagSegmentValues();
+
+  /*
+   * Streams from a forward-only cursor, the caller closes the stream within its transaction
+   */
+  @QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "1000"))
+  @Query(
+      "SELECT fsv.flag.name AS flagName, fsv.segment.name AS segmentName,"
+          + " fsv.value AS segmentValue FROM FlagSegmentValue fsv")
+  Stream<FlagSegmentNameValue> streamAllForExport();
+
+  @Query(
+      "SELECT fsv.flag.name AS flagName, fsv.segment.name AS segmentName,"
+          + " fsv.value AS segmentValue FROM FlagSegmentValue fsv"
+          + " WHERE fsv.flag.name = :flagName")
+  List<FlagSegmentNameValue> findFlagSegmentValuesByFlagName(@Param("flagName") String flagName);
+
+  /*
+   * The values of every segment of the user, by flag name, a flag appears once per segment
+   */
+  @Query(
+      "SELECT fsv.flag.name AS flagName, fsv.value AS userValue"
+          + " FROM FlagSegmentValue fsv, SegmentMember sm"
+          + " WHERE sm.segment = fsv.segment AND sm.userIdentity = :user")
+  List<FlagNameUserValue> findSegmentValuesByUserIdentity(@Param("user") String user);
+
+  @Query(
+      "SELECT sm.userIdentity AS userIdentity, fsv.value AS userValue"
+          + " FROM FlagSegmentValue fsv, SegmentMember sm"
+          + " WHERE sm.segment = fsv.segment AND fsv.flag.name = :flagName"
+          + " AND sm.userIdentity IN :users")
+  List<UserValue> findSegmentValuesByFlagNameAndUserIdentityIn(
+      @Param("flagName") String flagName, @Param("users") Collection<String> users);
+}
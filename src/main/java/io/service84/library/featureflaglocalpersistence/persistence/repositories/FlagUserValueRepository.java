@@ -14,11 +14,22 @@
 
 package io.service84.library.featureflaglocalpersistence.persistence.repositories;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Stream;
 
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
+
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import io.service84.library.featureflaglocalpersistence.persistence.models.Flag;
@@ -27,7 +38,90 @@ import io.service84.library.featureflaglocalpersistence.persistence.models.FlagU
 @Repository("3FDAD111-5D35-4E5A-9C07-53EC70C83BED")
 public interface FlagUserValueRepository
     extends JpaRepository<FlagUserValue, UUID>, JpaSpecificationExecutor<FlagUserValue> {
+  public interface FlagNameCount {
+    String getFlagName();
+
+    Long getUserValueCount();
+  }
+
+  public interface FlagNameUserValue {
+    String getFlagName();
+
+    Boolean getUserValue();
+  }
+
+  public interface UserValue {
+    String getUserIdentity();
+
+    Boolean getUserValue();
+  }
+
+  public interface FlagNameUserIdentityValue {
+    String getFlagName();
+
+    String getUserIdentity();
+
+    Boolean getUserValue();
+  }
+
   Optional<FlagUserValue> getByFlagAndUserIdentity(Flag flag, String user);
 
-  void deleteByFlag(Flag flag);
+  Optional<FlagUserValue> getByFlagNameAndUserIdentity(String flagName, String user);
+
+  @Lock(LockModeType.PESSIMISTIC_WRITE)
+  @Query("SELECT fuv FROM FlagUserValue fuv WHERE fuv.flag = :flag AND fuv.userIdentity = :user")
+  Optional<FlagUserValue> lockByFlagAndUserIdentity(
+      @Param("flag") Flag flag, @Param("user") String user);
+
+  @Lock(LockModeType.PESSIMISTIC_WRITE)
+  @Query(
+      "SELECT fuv FROM FlagUserValue fuv"
+          + " WHERE fuv.flag = :flag AND fuv.userIdentity IN :users")
+  List<FlagUserValue> lockByFlagAndUserIdentityIn(
+      @Param("flag") Flag flag, @Param("users") Collection<String> users);
+
+  @Query(
+      "SELECT fuv.flag.name AS flagName, COUNT(fuv) AS userValueCount"
+          + " FROM FlagUserValue fuv GROUP BY fuv.flag.name")
+  List<FlagNameCount> countGroupByFlagName();
+
+  @Query(
+      "SELECT fuv.userIdentity AS userIdentity, fuv.value AS userValue"
+          + " FROM FlagUserValue fuv WHERE fuv.flag.name = :flagName")
+  List<UserValue> findUserValuesByFlagName(@Param("flagName") String flagName);
+
+  @Query(
+      "SELECT fuv.flag.name AS flagName, fuv.value AS userValue"
+          + " FROM FlagUserValue fuv WHERE fuv.userIdentity = :user")
+  List<FlagNameUserValue> findUserValuesByUserIdentity(@Param("user") String user);
+
+  @Query(
+      "SELECT fuv.userIdentity AS userIdentity, fuv.value AS userValue"
+          + " FROM FlagUserValue fuv"
+          + " WHERE fuv.flag.name = :flagName AND fuv.userIdentity IN :users")
+  List<UserValue> findUserValuesByFlagNameAndUserIdentityIn(
+      @Param("flagName") String flagName, @Param("users") Collection<String> users);
+
+  @Query(
+      "SELECT fuv.userIdentity FROM FlagUserValue fuv"
+          + " WHERE fuv.flag.name = :flagName ORDER BY fuv.userIdentity")
+  List<String> findUserIdentitiesByFlagName(@Param("flagName") String flagName, Pageable pageable);
+
+  @Query(
+      "SELECT fuv.userIdentity FROM FlagUserValue fuv"
+          + " WHERE fuv.flag.name = :flagName AND fuv.userIdentity > :after"
+          + " ORDER BY fuv.userIdentity")
+  List<String> findUserIdentitiesByFlagNameAfter(
+      @Param("flagName") String flagName, @Param("after") String after, Pageable pageable);
+
+  /*
+   * Streams from a forward-only cursor, the FlagUserValues of a flag are adjacent
+   */
+  @QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "1000"))
+  @Query(
+      "SELECT fuv.flag.name AS flagName, fuv.userIdentity AS userIdentity,"
+          + " fuv.value AS userValue FROM FlagUserValue fuv ORDER BY fuv.flag.id")
+  Stream<FlagNameUserIdentityValue> streamAllForExport();
+
+  List<FlagUserValue> findByFlag(Flag flag, Pageable pageable);
 }
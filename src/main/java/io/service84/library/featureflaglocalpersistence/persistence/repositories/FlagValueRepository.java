@@ -14,11 +14,18 @@
 
 package io.service84.library.featureflaglocalpersistence.persistence.repositories;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
+import javax.persistence.LockModeType;
+
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import io.service84.library.featureflaglocalpersistence.persistence.models.Flag;
@@ -27,5 +34,25 @@ import io.service84.library.featureflaglocalpersistence.persistence.models.FlagV
 @Repository("F44398EB-73D0-49FB-929C-5C1F69974130")
 public interface FlagValueRepository
     extends JpaRepository<FlagValue, UUID>, JpaSpecificationExecutor<FlagValue> {
+  public interface FlagNameValue {
+    String getFlagName();
+
+    Boolean getFlagValue();
+  }
+
   Optional<FlagValue> getByFlag(Flag flag);
+
+  @Lock(LockModeType.PESSIMISTIC_WRITE)
+  @Query("SELECT fv FROM FlagValue fv WHERE fv.flag = :flag")
+  Optional<FlagValue> lockByFlag(@Param("flag") Flag flag);
+
+  @Lock(LockModeType.PESSIMISTIC_WRITE)
+  @Query("SELECT fv FROM FlagValue fv WHERE fv.flag IN :flags")
+  List<FlagValue> lockByFlagIn(@Param("flags") Collection<Flag> flags);
+
+  @Query("SELECT fv.flag.name AS flagName, fv.value AS flagValue FROM FlagValue fv")
+  List<FlagNameValue> findAllFlagNameValues();
+
+  @Query("SELECT fv.value FROM FlagValue fv WHERE fv.flag.name = :flagName")
+  Optional<Boolean> findValueByFlagName(@Param("flagName") String flagName);
 }
@@ -0,0 +1,63 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.persistence.repositories;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import io.service84.library.featureflaglocalpersistence.persistence.models.Segment;
+import io.service84.library.featureflaglocalpersistence.persistence.models.SegmentMember;
+
+@Repository("5B9E3D70-1A6C-4F28-8E43-D7C20A9B5F16")
+public interface SegmentMemberRepository
+    extends JpaRepository<SegmentMember, UUID>, JpaSpecificationExecutor<SegmentMember> {
+  public interface SegmentNameUserIdentity {
+    String getSegmentName();
+
+    String getUserIdentity();
+  }
+
+  @Lock(LockModeType.PESSIMISTIC_WRITE)
+  @Query(
+      "SELECT sm FROM SegmentMember sm"
+          + " WHERE sm.segment = :segment AND sm.userIdentity IN :users")
+  List<SegmentMember> lockBySegmentAndUserIdentityIn(
+      @Param("segment") Segment segment, @Param("users") Collection<String> users);
+
+  @Query("SELECT sm.userIdentity FROM SegmentMember sm WHERE sm.segment.name = :segmentName")
+  List<String> findUserIdentitiesBySegmentName(@Param("segmentName") String segmentName);
+
+  /*
+   * Streams from a forward-only cursor, the SegmentMembers of a segment are adjacent
+   */
+  @QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "1000"))
+  @Query(
+      "SELECT sm.segment.name AS segmentName, sm.userIdentity AS userIdentity"
+          + " FROM SegmentMember sm ORDER BY sm.segment.id")
+  Stream<SegmentNameUserIdentity> streamAllForExport();
+}
@@ -0,0 +1,35 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.persistence.repositories;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import io.service84.library.featureflaglocalpersistence.persistence.models.Segment;
+
+@Repository("C41F7A2E-93B8-4D65-A0E7-2B5D8F1C6E94")
+public interface SegmentRepository
+    extends JpaRepository<Segment, UUID>, JpaSpecificationExecutor<Segment> {
+  Optional<Segment> getByName(String name);
+
+  @Query("SELECT s.name FROM Segment s")
+  List<String> findAllNames();
+}
@@ -14,42 +14,172 @@
 
 package io.service84.library.featureflaglocalpersistence.services;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import io.service84.library.featureflag.model.FlagPage;
 import io.service84.library.featureflag.services.FeatureFlagAPIBase;
 import io.service84.library.featureflaglocalpersistence.persistence.models.Flag;
+import io.service84.library.featureflaglocalpersistence.persistence.models.FlagRollout;
+import io.service84.library.featureflaglocalpersistence.persistence.models.FlagSegmentValue;
 import io.service84.library.featureflaglocalpersistence.persistence.models.FlagUserValue;
 import io.service84.library.featureflaglocalpersistence.persistence.models.FlagValue;
+import io.service84.library.featureflaglocalpersistence.persistence.models.Segment;
+import io.service84.library.featureflaglocalpersistence.persistence.models.SegmentMember;
 import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagRepository;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagRepository.FlagResolution;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagRolloutRepository;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagSegmentValueRepository;
 import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagUserValueRepository;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagUserValueRepository.UserValue;
 import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagValueRepository;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.SegmentMemberRepository;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.SegmentRepository;
+import io.service84.library.featureflaglocalpersistence.services.FlagStateCache.FlagSnapshot;
+import io.service84.library.featureflaglocalpersistence.services.FlagStateCache.FlagState;
+import io.service84.library.featureflaglocalpersistence.services.FlagWriteBehind.Key;
+import io.service84.library.featureflaglocalpersistence.services.FlagWriteBehind.Write;
 
 @Service("2A94DE64-B0EE-4BD2-B4D0-F845F469C373")
-public class FeatureFlagLocalPersistence extends FeatureFlagAPIBase {
+public class FeatureFlagLocalPersistence extends FeatureFlagAPIBase
+    implements InitializingBean, DisposableBean {
   private static final Logger logger = LoggerFactory.getLogger(FeatureFlagLocalPersistence.class);
 
   @Autowired private Translator translator;
   @Autowired private FlagRepository flagRepository;
   @Autowired private FlagValueRepository fvRepository;
   @Autowired private FlagUserValueRepository fuvRepository;
+  @Autowired private FlagRolloutRepository frRepository;
+  @Autowired private SegmentRepository segmentRepository;
+  @Autowired private SegmentMemberRepository smRepository;
+  @Autowired private FlagSegmentValueRepository fsvRepository;
+  @Autowired private FlagRegistrar flagRegistrar;
+  @Autowired private UserValueCache userValueCache;
+  @Autowired private FlagExecutor flagExecutor;
+  @Autowired private PlatformTransactionManager transactionManager;
+
+  // Optional collaborators, a feature whose bean is not declared stays disabled
+  @Autowired(required = false)
+  private FlagStateCache flagStateCache = FlagStateCache.DISABLED;
+
+  @Autowired(required = false)
+  private FlagChangeLog flagChangeLog = FlagChangeLog.DISABLED;
+
+  @Autowired(required = false)
+  private FlagWriteBehind flagWriteBehind = FlagWriteBehind.DISABLED;
+
+  @Autowired(required = false)
+  private FlagReadRouting flagReadRouting = FlagReadRouting.DISABLED;
+
+  @Autowired(required = false)
+  private FlagLatencyBudget flagLatencyBudget = FlagLatencyBudget.DISABLED;
+
+  @Autowired(required = false)
+  private FlagMetrics flagMetrics = FlagMetrics.NOOP;
+
+  @Value("${io.service84.library.featureflaglocalpersistence.registrar.asynchronous:false}")
+  private Boolean asynchronousRegistration;
+
+  @Value("${io.service84.library.featureflaglocalpersistence.clear.chunk-size:1000}")
+  private Integer clearChunkSize;
+
+  @Value("${io.service84.library.featureflaglocalpersistence.batch.chunk-size:1000}")
+  private Integer batchChunkSize;
+
+  @Value("${io.service84.library.featureflaglocalpersistence.pagination.keyset:false}")
+  private Boolean keysetPagination;
+
+  @PersistenceContext private EntityManager entityManager;
+
+  // True from a failed repository read of a cached evaluation until the next one succeeds
+  private final AtomicBoolean repositoriesUnavailable = new AtomicBoolean();
+
+  @Override
+  public void afterPropertiesSet() throws Exception {
+    flagWriteBehind.setFlusher(this::flushWrites);
+
+    if (entityManager.getEntityManagerFactory().getProperties().get("hibernate.jdbc.batch_size")
+        == null) {
+      logger.warn(
+          "hibernate.jdbc.batch_size is not set, bulk mutations and clearAllUserValues write"
+              + " one statement per row");
+    }
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    // The queued writes are drained here, while the repositories are still available
+    flagWriteBehind.drain();
+  }
 
   @Override
   public void createFlag(String flagName) {
     logger.debug("createFlag");
     getFlagObject(flagName);
+    flagStateCache.applyFlag(flagName);
+    userValueCache.invalidateFlagValues();
+    flagLatencyBudget.invalidateFlags(Collections.singleton(flagName));
   }
 
   @Override
   public FlagPage getFlags(String cursor, Integer limit) {
     logger.debug("getFlags");
+    long started = System.nanoTime();
+    long statements = FlagStatementInspector.getStatementCount();
+
+    try {
+      return read(() -> getFlagsHelper(cursor, limit));
+    } finally {
+      record("getFlags", started, statements);
+    }
+  }
+
+  private FlagPage getFlagsHelper(String cursor, Integer limit) {
+    if (keysetPagination) {
+      // The limit is defaulted or rejected as the offset path does
+      int size = translator.getPageable(null, limit).getPageSize();
+      String after = cursor == null ? null : translator.decodeKeysetCursor(cursor);
+      // One extra name tells whether a next page exists, no count query is needed
+      Pageable window = PageRequest.of(0, (int) Math.min(size + 1L, Integer.MAX_VALUE));
+      List<String> names =
+          after == null
+              ? flagRepository.findNames(window)
+              : flagRepository.findNamesAfter(after, window);
+      return translator.translateFlagPage(cursor, names, size);
+    }
+
     Pageable pageable = translator.getPageable(cursor, limit);
     Page<Flag> flagPage = flagRepository.findAll(pageable);
     return translator.translateFlagPage(flagPage);
@@ -74,107 +204,1539 @@ public class FeatureFlagLocalPersistence extends FeatureFlagAPIBase {
   @Override
   public Boolean getValue(String flagName, String user, Boolean defaultValue) {
     logger.debug("getValue");
-    Flag flag = getFlagObject(flagName);
-    Optional<FlagUserValue> flagUserValue = fuvRepository.getByFlagAndUserIdentity(flag, user);
+    long started = System.nanoTime();
+    long statements = FlagStatementInspector.getStatementCount();
+
+    try {
+      // Queued writes are overlaid on the cached or stored state of the flag
+      Write userWrite = flagWriteBehind.getPending(flagName, user);
+
+      if (userWrite != null && userWrite.getValue() != null) {
+        return userWrite.getValue();
+      }
+
+      Write flagWrite = flagWriteBehind.getPending(flagName, null);
+      FlagSnapshot snapshot = flagStateCache.getSnapshot();
+
+      if (snapshot != null) {
+        return getCachedValue(snapshot, flagName, user, defaultValue, userWrite, flagWrite);
+      }
+
+      if (flagLatencyBudget.isEnabled()) {
+        return flagLatencyBudget.evaluate(
+            flagName,
+            user,
+            defaultValue,
+            () -> getStoredValue(flagName, user, defaultValue, userWrite, flagWrite));
+      }
+
+      return getStoredValue(flagName, user, defaultValue, userWrite, flagWrite);
+    } finally {
+      record("getValue", started, statements);
+    }
+  }
+
+  /*
+   * A queued write of the user clears its FlagUserValue, since a queued value is returned before
+   */
+  private Boolean getStoredValue(
+      String flagName, String user, Boolean defaultValue, Write userWrite, Write flagWrite) {
+    Optional<FlagResolution> resolution =
+        read(() -> flagRepository.resolveByNameAndUser(flagName, user));
+
+    if (resolution.isEmpty()) {
+      if (userWrite != null || flagWrite != null) {
+        // The flag is created by the flush
+        return getPendingValue(flagWrite, defaultValue);
+      }
+
+      registerFlag(flagName);
+      return defaultValue;
+    }
+
+    if (userWrite == null && resolution.get().getUserValue() != null) {
+      return resolution.get().getUserValue();
+    }
+
+    if (resolution.get().getSegmentValue() != null) {
+      return resolution.get().getSegmentValue() == 1;
+    }
+
+    if (RolloutRule.includes(
+        resolution.get().getRolloutPercentage(), resolution.get().getRolloutSalt(), user)) {
+      return Boolean.TRUE;
+    }
+
+    if (flagWrite != null) {
+      return getPendingValue(flagWrite, defaultValue);
+    }
+
+    if (resolution.get().getFlagValue() != null) {
+      return resolution.get().getFlagValue();
+    }
+
+    return defaultValue;
+  }
+
+  /*
+   * The value of a flag that only exists as queued writes
+   */
+  private Boolean getPendingValue(String flagName, String user, Boolean defaultValue) {
+    Write userWrite = flagWriteBehind.getPending(flagName, user);
+
+    if (userWrite != null && userWrite.getValue() != null) {
+      return userWrite.getValue();
+    }
+
+    return getPendingValue(flagWriteBehind.getPending(flagName, null), defaultValue);
+  }
+
+  /*
+   * The value of a flag whose FlagValue is replaced by a queued write
+   */
+  private static Boolean getPendingValue(Write flagWrite, Boolean defaultValue) {
+    return flagWrite != null && flagWrite.getValue() != null ? flagWrite.getValue() : defaultValue;
+  }
+
+  /*
+   * Warns once when cached evaluations can no longer reach the repositories, every failure is
+   * only logged at debug, so that an outage does not log at the rate of evaluations
+   */
+  private void repositoriesFailed(String operation, Exception e) {
+    if (repositoriesUnavailable.compareAndSet(false, true)) {
+      logger.warn("{} failed, serving the flag state snapshot: {}", operation, e.toString());
+    }
+
+    logger.debug("{} failed", operation, e);
+  }
 
-    if (flagUserValue.isPresent()) {
-      return flagUserValue.get().getValue();
+  private void repositoriesRecovered() {
+    if (repositoriesUnavailable.get() && repositoriesUnavailable.compareAndSet(true, false)) {
+      logger.info("Flag repositories are available again");
+    }
+  }
+
+  private Boolean getCachedValue(
+      FlagSnapshot snapshot,
+      String flagName,
+      String user,
+      Boolean defaultValue,
+      Write userWrite,
+      Write flagWrite) {
+    FlagState flagState = snapshot.getFlagState(flagName);
+
+    if (flagState == null && (userWrite != null || flagWrite != null)) {
+      // The flag is created by the flush
+      return getPendingValue(flagWrite, defaultValue);
+    }
+
+    if (flagState == null) {
+      flagMetrics.recordCacheMiss(FlagMetrics.FLAG_STATE_CACHE);
+
+      try {
+        registerFlag(flagName);
+        repositoriesRecovered();
+      } catch (Exception e) {
+        // This is a catch all, the repositories are unavailable and the flag is registered
+        // by a later evaluation
+        repositoriesFailed("Flag registration", e);
+      }
+
+      flagStateCache.applyFlag(flagName);
+      return defaultValue;
     }
 
-    Optional<FlagValue> flagValue = fvRepository.getByFlag(flag);
+    Boolean userValue = userWrite != null ? null : flagState.getUserValue(user);
 
-    if (flagValue.isPresent()) {
-      return flagValue.get().getValue();
+    if (userValue != null) {
+      flagMetrics.recordCacheHit(FlagMetrics.FLAG_STATE_CACHE);
+      return userValue;
+    }
+
+    if (userWrite != null || !flagState.isUserValueUnknown(user)) {
+      flagMetrics.recordCacheHit(FlagMetrics.FLAG_STATE_CACHE);
+    } else {
+      flagMetrics.recordCacheMiss(FlagMetrics.FLAG_STATE_CACHE);
+
+      try {
+        Optional<FlagUserValue> flagUserValue =
+            read(() -> fuvRepository.getByFlagNameAndUserIdentity(flagName, user));
+
+        repositoriesRecovered();
+
+        if (flagUserValue.isPresent()) {
+          return flagUserValue.get().getValue();
+        }
+      } catch (Exception e) {
+        // This is a catch all, the repositories are unavailable and the snapshot is served
+        repositoriesFailed("FlagUserValue lookup", e);
+      }
+    }
+
+    Boolean segmentValue = snapshot.getSegmentValue(flagState, user);
+
+    if (segmentValue != null) {
+      return segmentValue;
+    }
+
+    if (flagState.isRolledOut(user)) {
+      return Boolean.TRUE;
+    }
+
+    if (flagWrite != null) {
+      return getPendingValue(flagWrite, defaultValue);
+    }
+
+    if (flagState.getValue() != null) {
+      return flagState.getValue();
     }
 
     return defaultValue;
   }
 
+  public CompletableFuture<FlagPage> getFlagsAsync(String cursor, Integer limit) {
+    logger.debug("getFlagsAsync");
+    return flagExecutor.submit(() -> getFlags(cursor, limit));
+  }
+
+  public CompletableFuture<Boolean> getValueAsync(String flagName, String user) {
+    logger.debug("getValueAsync");
+    return getValueAsync(flagName, user, Boolean.TRUE);
+  }
+
+  /*
+   * Runs getValue on the FlagExecutor, see FlagExecutor for capacity and timeouts
+   */
+  public CompletableFuture<Boolean> getValueAsync(
+      String flagName, String user, Boolean defaultValue) {
+    logger.debug("getValueAsync");
+    return flagExecutor.submit(() -> getValue(flagName, user, defaultValue));
+  }
+
+  public CompletableFuture<Void> setValueAsync(String flagName, Boolean value) {
+    logger.debug("setValueAsync");
+    return flagExecutor.submit(
+        () -> {
+          setValue(flagName, value);
+          return null;
+        });
+  }
+
+  public CompletableFuture<Void> setValueAsync(String flagName, String user, Boolean value) {
+    logger.debug("setValueAsync");
+    return flagExecutor.submit(
+        () -> {
+          setValue(flagName, user, value);
+          return null;
+        });
+  }
+
+  public CompletableFuture<Void> clearValueAsync(String flagName) {
+    logger.debug("clearValueAsync");
+    return flagExecutor.submit(
+        () -> {
+          clearValue(flagName);
+          return null;
+        });
+  }
+
+  public CompletableFuture<Void> clearValueAsync(String flagName, String user) {
+    logger.debug("clearValueAsync");
+    return flagExecutor.submit(
+        () -> {
+          clearValue(flagName, user);
+          return null;
+        });
+  }
+
+  public FlagHandle handle(String flagName) {
+    logger.debug("handle");
+    return handle(flagName, Boolean.TRUE);
+  }
+
+  /*
+   * Resolves a flag for repeated evaluation, see FlagHandle
+   */
+  public FlagHandle handle(String flagName, Boolean defaultValue) {
+    logger.debug("handle");
+    return new FlagHandle(
+        this, flagStateCache, flagWriteBehind, flagMetrics, flagName, defaultValue);
+  }
+
+  public BitSet getValues(String flagName, List<String> users) {
+    logger.debug("getValues");
+    return getValues(flagName, users, Boolean.TRUE);
+  }
+
+  /*
+   * Evaluates a flag for many users, bit i of the result is the value for users.get(i)
+   */
+  public BitSet getValues(String flagName, List<String> users, Boolean defaultValue) {
+    logger.debug("getValues");
+    long started = System.nanoTime();
+    long statements = FlagStatementInspector.getStatementCount();
+
+    try {
+      BitSet values = read(() -> getValuesHelper(flagName, users, defaultValue));
+
+      if (values == null) {
+        // The flag is registered outside of the read-only transaction
+        registerFlag(flagName);
+        flagStateCache.applyFlag(flagName);
+        values = new BitSet(users.size());
+        values.set(0, users.size(), defaultValue);
+      }
+
+      return values;
+    } finally {
+      record("getValues", started, statements);
+    }
+  }
+
+  /*
+   * Null when the flag does not exist
+   */
+  private BitSet getValuesHelper(String flagName, List<String> users, Boolean defaultValue) {
+    BitSet values = new BitSet(users.size());
+    boolean pending = flagWriteBehind.hasPending(flagName);
+    Write flagWrite = pending ? flagWriteBehind.getPending(flagName, null) : null;
+    FlagSnapshot snapshot = flagStateCache.getSnapshot();
+    FlagState flagState = null;
+    Boolean flagValue;
+    RolloutRule rollout;
+
+    if (snapshot != null) {
+      flagState = snapshot.getFlagState(flagName);
+
+      if (flagState == null) {
+        return pending ? getPendingValues(flagName, users, defaultValue) : null;
+      }
+
+      flagValue = flagState.getValue();
+      rollout = flagState.getRollout();
+    } else {
+      Optional<Flag> flag = flagRepository.getByName(flagName);
+
+      if (flag.isEmpty()) {
+        return pending ? getPendingValues(flagName, users, defaultValue) : null;
+      }
+
+      flagValue = fvRepository.getByFlag(flag.get()).map(FlagValue::getValue).orElse(null);
+      rollout =
+          frRepository
+              .getByFlag(flag.get())
+              .map(
+                  flagRollout -> RolloutRule.of(flagRollout.getPercentage(), flagRollout.getSalt()))
+              .orElse(null);
+    }
+
+    if (flagWrite != null) {
+      flagValue = flagWrite.getValue();
+    }
+
+    Map<String, Boolean> userValues = new HashMap<>();
+    List<String> lookups = new ArrayList<>();
+
+    for (String user : users) {
+      Write userWrite = pending ? flagWriteBehind.getPending(flagName, user) : null;
+      Boolean userValue = flagState == null ? null : flagState.getUserValue(user);
+
+      if (userWrite != null) {
+        // A queued clear hides the stored FlagUserValue
+        if (userWrite.getValue() != null) {
+          userValues.put(user, userWrite.getValue());
+        }
+      } else if (userValue != null) {
+        userValues.put(user, userValue);
+      } else if (flagState == null || flagState.isUserValueUnknown(user)) {
+        lookups.add(user);
+      }
+    }
+
+    for (List<String> chunk : chunk(lookups)) {
+      for (UserValue userValue :
+          fuvRepository.findUserValuesByFlagNameAndUserIdentityIn(flagName, chunk)) {
+        userValues.put(userValue.getUserIdentity(), userValue.getUserValue());
+      }
+    }
+
+    Map<String, Boolean> segmentValues =
+        snapshot == null ? getSegmentValues(flagName, users) : null;
+    boolean fallback = flagValue != null ? flagValue : defaultValue;
+
+    for (int index = 0; index < users.size(); index++) {
+      Boolean userValue = userValues.get(users.get(index));
+
+      if (userValue == null) {
+        userValue =
+            segmentValues == null
+                ? snapshot.getSegmentValue(flagState, users.get(index))
+                : segmentValues.get(users.get(index));
+      }
+
+      if (userValue == null && rollout != null && rollout.includes(users.get(index))) {
+        userValue = Boolean.TRUE;
+      }
+
+      values.set(index, userValue != null ? userValue : fallback);
+    }
+
+    return values;
+  }
+
+  /*
+   * The values of a flag that only exists as queued writes
+   */
+  private BitSet getPendingValues(String flagName, List<String> users, Boolean defaultValue) {
+    BitSet values = new BitSet(users.size());
+
+    for (int index = 0; index < users.size(); index++) {
+      values.set(index, getPendingValue(flagName, users.get(index), defaultValue));
+    }
+
+    return values;
+  }
+
+  public Map<String, Boolean> getAllValues(String user) {
+    logger.debug("getAllValues");
+    return getAllValues(user, Boolean.TRUE);
+  }
+
+  /*
+   * Evaluates every flag for one user
+   */
+  public Map<String, Boolean> getAllValues(String user, Boolean defaultValue) {
+    logger.debug("getAllValues");
+    long started = System.nanoTime();
+    long statements = FlagStatementInspector.getStatementCount();
+
+    try {
+      Map<String, Boolean> values = read(() -> getAllValuesHelper(user, defaultValue));
+
+      // Flags whose creation is still queued are included as well
+      for (String flagName : flagWriteBehind.getPendingFlagNames()) {
+        if (!values.containsKey(flagName)) {
+          values.put(flagName, getPendingValue(flagName, user, defaultValue));
+        }
+      }
+
+      return values;
+    } finally {
+      record("getAllValues", started, statements);
+    }
+  }
+
+  private Map<String, Boolean> getAllValuesHelper(String user, Boolean defaultValue) {
+    FlagSnapshot snapshot = flagStateCache.getSnapshot();
+    Map<String, Boolean> values = new HashMap<>();
+
+    if (snapshot == null) {
+      Map<String, Boolean> userValues = userValueCache.getUserValues(user);
+      Map<String, Boolean> segmentValues = userValueCache.getSegmentValues(user);
+      Map<String, RolloutRule> rollouts = userValueCache.getRollouts();
+
+      for (Map.Entry<String, Boolean> flagValue : userValueCache.getFlagValues().entrySet()) {
+        Write userWrite = flagWriteBehind.getPending(flagValue.getKey(), user);
+        Write flagWrite = flagWriteBehind.getPending(flagValue.getKey(), null);
+        Boolean value =
+            userWrite != null ? userWrite.getValue() : userValues.get(flagValue.getKey());
+        RolloutRule rollout = rollouts.get(flagValue.getKey());
+
+        if (value == null) {
+          value = segmentValues.get(flagValue.getKey());
+        }
+
+        if (value == null && rollout != null && rollout.includes(user)) {
+          value = Boolean.TRUE;
+        }
+
+        if (value == null) {
+          value = flagWrite != null ? flagWrite.getValue() : flagValue.getValue();
+        }
+
+        values.put(flagValue.getKey(), value != null ? value : defaultValue);
+      }
+
+      return values;
+    }
+
+    Map<String, Boolean> userValues = null;
+
+    for (String flagName : snapshot.getFlagNames()) {
+      FlagState flagState = snapshot.getFlagState(flagName);
+      Write userWrite = flagWriteBehind.getPending(flagName, user);
+      Write flagWrite = flagWriteBehind.getPending(flagName, null);
+      Boolean value = userWrite != null ? userWrite.getValue() : flagState.getUserValue(user);
+
+      if (value == null && userWrite == null && flagState.isUserValueUnknown(user)) {
+        userValues = userValues != null ? userValues : userValueCache.getUserValues(user);
+        value = userValues.get(flagName);
+      }
+
+      if (value == null) {
+        value = snapshot.getSegmentValue(flagState, user);
+      }
+
+      if (value == null && flagState.isRolledOut(user)) {
+        value = Boolean.TRUE;
+      }
+
+      if (value == null) {
+        value = flagWrite != null ? flagWrite.getValue() : flagState.getValue();
+      }
+
+      values.put(flagName, value != null ? value : defaultValue);
+    }
+
+    return values;
+  }
+
   @Override
   public void setValue(String flagName, Boolean value) {
     logger.debug("setValue");
-    Flag flag = getFlagObject(flagName);
+    long started = System.nanoTime();
+    long statements = FlagStatementInspector.getStatementCount();
 
     try {
-      setValueHelper(flag, value);
-    } catch (Exception e) {
-      // This is a catch all, Transaction issues, Unique Violation, and others
-      // We should catch specific Exceptions.
-      // Final Attempt
-      setValueHelper(flag, value);
+      if (flagWriteBehind.enqueue(flagName, null, value)) {
+        flagLatencyBudget.invalidateFlags(Collections.singleton(flagName));
+        return;
+      }
+
+      Flag flag = getFlagObject(flagName);
+
+      try {
+        setValueHelper(flag, value);
+      } catch (DataIntegrityViolationException e) {
+        // A concurrent writer inserted the FlagValue first, it is now locked and updated
+        retryOutsideTransaction("setValue", e);
+        setValueHelper(flag, value);
+      }
+
+      flagStateCache.applyValue(flagName, value);
+      userValueCache.invalidateFlagValues();
+      flagLatencyBudget.invalidateFlags(Collections.singleton(flagName));
+    } finally {
+      record("setValue", started, statements);
     }
   }
 
   private void setValueHelper(Flag flag, Boolean value) {
-    FlagValue flagValue = fvRepository.getByFlag(flag).orElse(new FlagValue(flag));
-    flagValue.setValue(value);
-    fvRepository.saveAndFlush(flagValue);
+    getTransactionTemplate()
+        .execute(
+            status -> {
+              FlagValue flagValue = fvRepository.lockByFlag(flag).orElse(new FlagValue(flag));
+              flagValue.setValue(value);
+              flagChangeLog.appendValue(flag.getName());
+              return fvRepository.saveAndFlush(flagValue);
+            });
   }
 
   @Override
   public void setValue(String flagName, String user, Boolean value) {
     logger.debug("setValue");
-    Flag flag = getFlagObject(flagName);
+    long started = System.nanoTime();
+    long statements = FlagStatementInspector.getStatementCount();
 
     try {
-      setValueHelper(flag, user, value);
-    } catch (Exception e) {
-      // This is a catch all, Transaction issues, Unique Violation, and others
-      // We should catch specific Exceptions.
-      // Final Attempt
-      setValueHelper(flag, user, value);
+      if (flagWriteBehind.enqueue(flagName, user, value)) {
+        flagLatencyBudget.invalidateUsers(flagName, Collections.singleton(user));
+        return;
+      }
+
+      Flag flag = getFlagObject(flagName);
+
+      try {
+        setValueHelper(flag, user, value);
+      } catch (DataIntegrityViolationException e) {
+        // A concurrent writer inserted the FlagUserValue first, it is now locked and updated
+        retryOutsideTransaction("setValue", e);
+        setValueHelper(flag, user, value);
+      }
+
+      flagStateCache.applyUserValue(flagName, user, value);
+      userValueCache.invalidateUser(user);
+      flagLatencyBudget.invalidateUsers(flagName, Collections.singleton(user));
+    } finally {
+      record("setValue", started, statements);
     }
   }
 
   private void setValueHelper(Flag flag, String user, Boolean value) {
-    FlagUserValue flagUserValue =
-        fuvRepository.getByFlagAndUserIdentity(flag, user).orElse(new FlagUserValue(flag, user));
-    flagUserValue.setValue(value);
-    fuvRepository.saveAndFlush(flagUserValue);
+    getTransactionTemplate()
+        .execute(
+            status -> {
+              FlagUserValue flagUserValue =
+                  fuvRepository
+                      .lockByFlagAndUserIdentity(flag, user)
+                      .orElse(new FlagUserValue(flag, user));
+              flagUserValue.setValue(value);
+              flagChangeLog.appendUserValue(flag.getName(), user);
+              return fuvRepository.saveAndFlush(flagUserValue);
+            });
+  }
+
+  public void setRollout(String flagName, Double percentage) {
+    logger.debug("setRollout");
+    setRollout(flagName, percentage, flagName);
+  }
+
+  /*
+   * Enables a flag for a percentage, from 0 to 100, of users, chosen by the salt. A
+   * FlagUserValue takes precedence over the rollout, users outside of it get the FlagValue.
+   */
+  public void setRollout(String flagName, Double percentage, String salt) {
+    logger.debug("setRollout");
+    long started = System.nanoTime();
+    long statements = FlagStatementInspector.getStatementCount();
+
+    try {
+      if (percentage == null || percentage < 0 || percentage > 100 || salt == null) {
+        throw new IllegalArgumentException("A rollout needs a percentage from 0 to 100 and a salt");
+      }
+
+      Flag flag = getFlagObject(flagName);
+
+      try {
+        setRolloutHelper(flag, percentage, salt);
+      } catch (DataIntegrityViolationException e) {
+        // A concurrent writer inserted the FlagRollout first, it is now locked and updated
+        retryOutsideTransaction("setRollout", e);
+        setRolloutHelper(flag, percentage, salt);
+      }
+
+      flagStateCache.applyRollout(flagName, percentage, salt);
+      userValueCache.invalidateFlagValues();
+      flagLatencyBudget.invalidateFlags(Collections.singleton(flagName));
+    } finally {
+      record("setRollout", started, statements);
+    }
+  }
+
+  private void setRolloutHelper(Flag flag, Double percentage, String salt) {
+    getTransactionTemplate()
+        .execute(
+            status -> {
+              FlagRollout flagRollout = frRepository.lockByFlag(flag).orElse(new FlagRollout(flag));
+              flagRollout.setPercentage(percentage);
+              flagRollout.setSalt(salt);
+              flagChangeLog.appendValue(flag.getName());
+              return frRepository.saveAndFlush(flagRollout);
+            });
+  }
+
+  /*
+   * Sets the rollout of many flags in one transaction, a null rule clears it
+   */
+  void setRollouts(Map<String, RolloutRule> rollouts) {
+    logger.debug("setRollouts");
+    long started = System.nanoTime();
+    long statements = FlagStatementInspector.getStatementCount();
+
+    try {
+      for (RolloutRule rollout : rollouts.values()) {
+        if (rollout != null
+            && (rollout.getPercentage() < 0
+                || rollout.getPercentage() > 100
+                || rollout.getSalt() == null)) {
+          throw new IllegalArgumentException(
+              "A rollout needs a percentage from 0 to 100 and a salt");
+        }
+      }
+
+      Map<String, Flag> flags = getFlagObjects(rollouts.keySet());
+
+      try {
+        setRolloutsHelper(flags, rollouts);
+      } catch (DataIntegrityViolationException e) {
+        // A concurrent writer inserted a FlagRollout first, it is now locked and updated
+        retryOutsideTransaction("setRollouts", e);
+        setRolloutsHelper(flags, rollouts);
+      }
+
+      flagStateCache.applyRollouts(rollouts);
+      userValueCache.invalidateFlagValues();
+      flagLatencyBudget.invalidateFlags(rollouts.keySet());
+    } finally {
+      record("setRollouts", started, statements);
+    }
+  }
+
+  private void setRolloutsHelper(Map<String, Flag> flags, Map<String, RolloutRule> rollouts) {
+    getTransactionTemplate()
+        .execute(
+            status -> {
+              for (List<Flag> chunk : chunk(flags.values())) {
+                Map<String, FlagRollout> existing = new HashMap<>();
+
+                for (FlagRollout flagRollout : frRepository.lockByFlagIn(chunk)) {
+                  existing.put(flagRollout.getFlag().getName(), flagRollout);
+                }
+
+                List<FlagRollout> changed = new ArrayList<>(chunk.size());
+                List<FlagRollout> removed = new ArrayList<>();
+                List<String> flagNames = new ArrayList<>(chunk.size());
+
+                for (Flag flag : chunk) {
+                  RolloutRule rollout = rollouts.get(flag.getName());
+                  FlagRollout flagRollout = existing.get(flag.getName());
+
+                  if (rollout == null) {
+                    if (flagRollout != null) {
+                      removed.add(flagRollout);
+                      flagNames.add(flag.getName());
+                    }
+
+                    continue;
+                  }
+
+                  flagRollout = flagRollout == null ? new FlagRollout(flag) : flagRollout;
+                  flagRollout.setPercentage(rollout.getPercentage());
+                  flagRollout.setSalt(rollout.getSalt());
+                  changed.add(flagRollout);
+                  flagNames.add(flag.getName());
+                }
+
+                frRepository.deleteAll(removed);
+                frRepository.saveAll(changed);
+                flagChangeLog.appendValues(flagNames);
+                flushChunk(status);
+              }
+
+              return null;
+            });
+  }
+
+  public void clearRollout(String flagName) {
+    logger.debug("clearRollout");
+    long started = System.nanoTime();
+    long statements = FlagStatementInspector.getStatementCount();
+
+    try {
+      Flag flag = getFlagObject(flagName);
+      getTransactionTemplate()
+          .execute(
+              status -> {
+                Optional<FlagRollout> flagRollout = frRepository.getByFlag(flag);
+
+                if (flagRollout.isPresent()) {
+                  frRepository.delete(flagRollout.get());
+                  flagChangeLog.appendValue(flagName);
+                }
+
+                return null;
+              });
+
+      flagStateCache.applyRollout(flagName, null, null);
+      userValueCache.invalidateFlagValues();
+      flagLatencyBudget.invalidateFlags(Collections.singleton(flagName));
+    } finally {
+      record("clearRollout", started, statements);
+    }
+  }
+
+  /*
+   * Adds users to a segment, the segment is created when it does not exist
+   */
+  public void addSegmentMembers(String segmentName, Collection<String> users) {
+    logger.debug("addSegmentMembers");
+    long started = System.nanoTime();
+    long statements = FlagStatementInspector.getStatementCount();
+
+    try {
+      Segment segment = getSegmentObject(segmentName);
+
+      try {
+        addSegmentMembersHelper(segment, users);
+      } catch (DataIntegrityViolationException e) {
+        // A concurrent writer added one of the users first, the members are read again
+        retryOutsideTransaction("addSegmentMembers", e);
+        addSegmentMembersHelper(segment, users);
+      }
+
+      flagStateCache.applySegmentMembers(segmentName, users, Collections.emptySet());
+      userValueCache.invalidateSegmentValues();
+      flagLatencyBudget.invalidateUsers(users);
+    } finally {
+      record("addSegmentMembers", started, statements);
+    }
+  }
+
+  private void addSegmentMembersHelper(Segment segment, Collection<String> users) {
+    getTransactionTemplate()
+        .execute(
+            status -> {
+              flagChangeLog.appendSegment(segment.getName());
+
+              for (List<String> chunk : chunk(users)) {
+                Set<String> added = new HashSet<>(chunk);
+
+                for (SegmentMember member :
+                    smRepository.lockBySegmentAndUserIdentityIn(segment, chunk)) {
+                  added.remove(member.getUser());
+                }
+
+                List<SegmentMember> members = new ArrayList<>(added.size());
+                added.forEach(user -> members.add(new SegmentMember(segment, user)));
+                smRepository.saveAll(members);
+                flushChunk(status);
+              }
+
+              return null;
+            });
+  }
+
+  public void removeSegmentMembers(String segmentName, Collection<String> users) {
+    logger.debug("removeSegmentMembers");
+    long started = System.nanoTime();
+    long statements = FlagStatementInspector.getStatementCount();
+
+    try {
+      Segment segment = getSegmentObject(segmentName);
+      getTransactionTemplate()
+          .execute(
+              status -> {
+                flagChangeLog.appendSegment(segmentName);
+
+                for (List<String> chunk : chunk(users)) {
+                  smRepository.deleteAll(
+                      smRepository.lockBySegmentAndUserIdentityIn(segment, chunk));
+                  flushChunk(status);
+                }
+
+                return null;
+              });
+
+      flagStateCache.applySegmentMembers(segmentName, Collections.emptySet(), users);
+      userValueCache.invalidateSegmentValues();
+      flagLatencyBudget.invalidateUsers(users);
+    } finally {
+      record("removeSegmentMembers", started, statements);
+    }
+  }
+
+  /*
+   * Sets a flag for every member of a segment. A FlagUserValue takes precedence over it, and it
+   * takes precedence over the rollout and the FlagValue. A user in several segments of the flag
+   * gets false when any of them is false.
+   */
+  public void setSegmentValue(String flagName, String segmentName, Boolean value) {
+    logger.debug("setSegmentValue");
+    long started = System.nanoTime();
+    long statements = FlagStatementInspector.getStatementCount();
+
+    try {
+      Flag flag = getFlagObject(flagName);
+      Segment segment = getSegmentObject(segmentName);
+
+      try {
+        setSegmentValueHelper(flag, segment, value);
+      } catch (DataIntegrityViolationException e) {
+        // A concurrent writer inserted the FlagSegmentValue first, it is now locked and updated
+        retryOutsideTransaction("setSegmentValue", e);
+        setSegmentValueHelper(flag, segment, value);
+      }
+
+      flagStateCache.applySegmentValue(flagName, segmentName, value);
+      userValueCache.invalidateSegmentValues();
+      flagLatencyBudget.invalidateFlags(Collections.singleton(flagName));
+    } finally {
+      record("setSegmentValue", started, statements);
+    }
+  }
+
+  /*
+   * Sets the FlagSegmentValue of many flags for one segment in one transaction
+   */
+  public void setSegmentValues(String segmentName, Map<String, Boolean> flagValues) {
+    logger.debug("setSegmentValues");
+    long started = System.nanoTime();
+    long statements = FlagStatementInspector.getStatementCount();
+
+    try {
+      Map<String, Flag> flags = getFlagObjects(flagValues.keySet());
+      Segment segment = getSegmentObject(segmentName);
+
+      try {
+        setSegmentValuesHelper(flags, segment, flagValues);
+      } catch (DataIntegrityViolationException e) {
+        // A concurrent writer inserted a FlagSegmentValue first, it is now locked and updated
+        retryOutsideTransaction("setSegmentValues", e);
+        setSegmentValuesHelper(flags, segment, flagValues);
+      }
+
+      flagStateCache.applySegmentValues(segmentName, flagValues);
+      userValueCache.invalidateSegmentValues();
+      flagLatencyBudget.invalidateFlags(flagValues.keySet());
+    } finally {
+      record("setSegmentValues", started, statements);
+    }
+  }
+
+  private void setSegmentValuesHelper(
+      Map<String, Flag> flags, Segment segment, Map<String, Boolean> flagValues) {
+    getTransactionTemplate()
+        .execute(
+            status -> {
+              for (List<Flag> chunk : chunk(flags.values())) {
+                Map<String, FlagSegmentValue> existing = new HashMap<>();
+
+                for (FlagSegmentValue flagSegmentValue :
+                    fsvRepository.lockBySegmentAndFlagIn(segment, chunk)) {
+                  existing.put(flagSegmentValue.getFlag().getName(), flagSegmentValue);
+                }
+
+                List<FlagSegmentValue> changed = new ArrayList<>(chunk.size());
+                List<String> flagNames = new ArrayList<>(chunk.size());
+
+                for (Flag flag : chunk) {
+                  FlagSegmentValue flagSegmentValue =
+                      existing.getOrDefault(flag.getName(), new FlagSegmentValue(flag, segment));
+                  flagSegmentValue.setValue(flagValues.get(flag.getName()));
+                  changed.add(flagSegmentValue);
+                  flagNames.add(flag.getName());
+                }
+
+                fsvRepository.saveAll(changed);
+                flagChangeLog.appendSegmentValues(flagNames);
+                flushChunk(status);
+              }
+
+              return null;
+            });
+  }
+
+  private void setSegmentValueHelper(Flag flag, Segment segment, Boolean value) {
+    getTransactionTemplate()
+        .execute(
+            status -> {
+              FlagSegmentValue flagSegmentValue =
+                  fsvRepository
+                      .lockByFlagAndSegment(flag, segment)
+                      .orElse(new FlagSegmentValue(flag, segment));
+              flagSegmentValue.setValue(value);
+              flagChangeLog.appendSegmentValue(flag.getName());
+              return fsvRepository.saveAndFlush(flagSegmentValue);
+            });
+  }
+
+  public void clearSegmentValue(String flagName, String segmentName) {
+    logger.debug("clearSegmentValue");
+    long started = System.nanoTime();
+    long statements = FlagStatementInspector.getStatementCount();
+
+    try {
+      Flag flag = getFlagObject(flagName);
+      Segment segment = getSegmentObject(segmentName);
+      getTransactionTemplate()
+          .execute(
+              status -> {
+                Optional<FlagSegmentValue> flagSegmentValue =
+                    fsvRepository.getByFlagAndSegment(flag, segment);
+
+                if (flagSegmentValue.isPresent()) {
+                  fsvRepository.delete(flagSegmentValue.get());
+                  flagChangeLog.appendSegmentValue(flagName);
+                }
+
+                return null;
+              });
+
+      flagStateCache.applySegmentValue(flagName, segmentName, null);
+      userValueCache.invalidateSegmentValues();
+      flagLatencyBudget.invalidateFlags(Collections.singleton(flagName));
+    } finally {
+      record("clearSegmentValue", started, statements);
+    }
+  }
+
+  /*
+   * Sets the FlagValue of many flags in one transaction
+   */
+  public void setValues(Map<String, Boolean> flagValues) {
+    logger.debug("setValues");
+    long started = System.nanoTime();
+    long statements = FlagStatementInspector.getStatementCount();
+
+    try {
+      flagWriteBehind.writeThrough(
+          () -> flagWriteBehind.discardValues(flagValues.keySet()),
+          () -> {
+            setFlagValues(flagValues);
+            return null;
+          });
+    } finally {
+      record("setValues", started, statements);
+    }
+  }
+
+  private void setFlagValues(Map<String, Boolean> flagValues) {
+    Map<String, Flag> flags = getFlagObjects(flagValues.keySet());
+
+    try {
+      setValuesHelper(flags, flagValues);
+    } catch (DataIntegrityViolationException e) {
+      // A concurrent writer inserted a FlagValue first, it is now locked and updated
+      retryOutsideTransaction("setValues", e);
+      setValuesHelper(flags, flagValues);
+    }
+
+    flagStateCache.applyValues(flagValues);
+    userValueCache.invalidateFlagValues();
+    flagLatencyBudget.invalidateFlags(flagValues.keySet());
+  }
+
+  private void setValuesHelper(Map<String, Flag> flags, Map<String, Boolean> flagValues) {
+    getTransactionTemplate()
+        .execute(
+            status -> {
+              for (List<Flag> chunk : chunk(flags.values())) {
+                Map<String, FlagValue> existing = new HashMap<>();
+
+                for (FlagValue flagValue : fvRepository.lockByFlagIn(chunk)) {
+                  existing.put(flagValue.getFlag().getName(), flagValue);
+                }
+
+                List<FlagValue> changed = new ArrayList<>(chunk.size());
+                List<String> flagNames = new ArrayList<>(chunk.size());
+
+                for (Flag flag : chunk) {
+                  FlagValue flagValue = existing.getOrDefault(flag.getName(), new FlagValue(flag));
+                  flagValue.setValue(flagValues.get(flag.getName()));
+                  changed.add(flagValue);
+                  flagNames.add(flag.getName());
+                }
+
+                fvRepository.saveAll(changed);
+                flagChangeLog.appendValues(flagNames);
+                flushChunk(status);
+              }
+
+              return null;
+            });
+  }
+
+  /*
+   * Sets the FlagUserValue of many users of one flag in one transaction
+   */
+  public void setValues(String flagName, Map<String, Boolean> userValues) {
+    logger.debug("setValues");
+    long started = System.nanoTime();
+    long statements = FlagStatementInspector.getStatementCount();
+
+    try {
+      flagWriteBehind.writeThrough(
+          () -> flagWriteBehind.discardUserValues(flagName, userValues.keySet()),
+          () -> {
+            setUserValues(flagName, userValues);
+            return null;
+          });
+    } finally {
+      record("setValues", started, statements);
+    }
+  }
+
+  /*
+   * Clears the FlagValue of many flags in one transaction
+   */
+  public void clearValues(Collection<String> flagNames) {
+    logger.debug("clearValues");
+    long started = System.nanoTime();
+    long statements = FlagStatementInspector.getStatementCount();
+
+    try {
+      flagWriteBehind.writeThrough(
+          () -> flagWriteBehind.discardValues(flagNames),
+          () -> {
+            clearFlagValues(flagNames);
+            return null;
+          });
+    } finally {
+      record("clearValues", started, statements);
+    }
+  }
+
+  private void clearFlagValues(Collection<String> flagNames) {
+    Map<String, Flag> flags = getFlagObjects(flagNames);
+    getTransactionTemplate()
+        .execute(
+            status -> {
+              for (List<Flag> chunk : chunk(flags.values())) {
+                List<FlagValue> flagValues = fvRepository.lockByFlagIn(chunk);
+                List<String> cleared = new ArrayList<>(flagValues.size());
+                flagValues.forEach(flagValue -> cleared.add(flagValue.getFlag().getName()));
+                fvRepository.deleteAll(flagValues);
+                flagChangeLog.appendValues(cleared);
+                flushChunk(status);
+              }
+
+              return null;
+            });
+
+    flagStateCache.applyClearValues(flagNames);
+    userValueCache.invalidateFlagValues();
+    flagLatencyBudget.invalidateFlags(flagNames);
+  }
+
+  private void setUserValues(String flagName, Map<String, Boolean> userValues) {
+    Flag flag = getFlagObject(flagName);
+
+    try {
+      setValuesHelper(flag, userValues);
+    } catch (DataIntegrityViolationException e) {
+      // A concurrent writer inserted a FlagUserValue first, it is now locked and updated
+      retryOutsideTransaction("setValues", e);
+      setValuesHelper(flag, userValues);
+    }
+
+    flagStateCache.applyUserValues(flagName, userValues);
+    userValues.keySet().forEach(userValueCache::invalidateUser);
+    flagLatencyBudget.invalidateUsers(flagName, userValues.keySet());
+  }
+
+  private void setValuesHelper(Flag flag, Map<String, Boolean> userValues) {
+    getTransactionTemplate()
+        .execute(
+            status -> {
+              for (List<String> chunk : chunk(userValues.keySet())) {
+                flagChangeLog.appendUserValues(flag.getName());
+                Map<String, FlagUserValue> existing = new HashMap<>();
+
+                for (FlagUserValue flagUserValue :
+                    fuvRepository.lockByFlagAndUserIdentityIn(flag, chunk)) {
+                  existing.put(flagUserValue.getUser(), flagUserValue);
+                }
+
+                List<FlagUserValue> changed = new ArrayList<>(chunk.size());
+
+                for (String user : chunk) {
+                  FlagUserValue flagUserValue =
+                      existing.getOrDefault(user, new FlagUserValue(flag, user));
+                  flagUserValue.setValue(userValues.get(user));
+                  changed.add(flagUserValue);
+                }
+
+                fuvRepository.saveAll(changed);
+                flushChunk(status);
+              }
+
+              return null;
+            });
+  }
+
+  /*
+   * Clears the FlagUserValue of many users of one flag in one transaction
+   */
+  public void clearValues(String flagName, Collection<String> users) {
+    logger.debug("clearValues");
+    long started = System.nanoTime();
+    long statements = FlagStatementInspector.getStatementCount();
+
+    try {
+      flagWriteBehind.writeThrough(
+          () -> flagWriteBehind.discardUserValues(flagName, users),
+          () -> {
+            clearUserValues(flagName, users);
+            return null;
+          });
+    } finally {
+      record("clearValues", started, statements);
+    }
+  }
+
+  private void clearUserValues(String flagName, Collection<String> users) {
+    Flag flag = getFlagObject(flagName);
+    getTransactionTemplate()
+        .execute(
+            status -> {
+              for (List<String> chunk : chunk(users)) {
+                flagChangeLog.appendUserValues(flagName);
+                fuvRepository.deleteAll(fuvRepository.lockByFlagAndUserIdentityIn(flag, chunk));
+                flushChunk(status);
+              }
+
+              return null;
+            });
+    flagStateCache.applyClearUserValues(flagName, users);
+    users.forEach(userValueCache::invalidateUser);
+    flagLatencyBudget.invalidateUsers(flagName, users);
   }
 
   @Override
   public void clearAllUserValues(String flagName) {
     logger.debug("clearAllUserValues");
+    clearAllUserValues(flagName, deleted -> {});
+  }
+
+  /*
+   * Deletes the FlagUserValues of a flag in chunks, each chunk commits on its own unless the
+   * caller is already in a transaction. The progress listener receives the running total.
+   *
+   * Each FlagUserValue is deleted as an entity so that Envers audits it, a chunk is one read and
+   * one delete and one audit insert per row, batched only when hibernate.jdbc.batch_size is set.
+   * A failure part way leaves the chunks before it deleted and the flag partly cleared, calling
+   * again deletes the rest. Other nodes are told of the clear with the final chunk, until then
+   * this node reads the FlagUserValues of the flag from the repository.
+   */
+  public Long clearAllUserValues(String flagName, LongConsumer progressListener) {
+    logger.debug("clearAllUserValues");
+    long started = System.nanoTime();
+    long statements = FlagStatementInspector.getStatementCount();
+
+    try {
+      return flagWriteBehind.writeThrough(
+          () -> flagWriteBehind.discardAllUserValues(flagName),
+          () -> clearAllUserValuesHelper(flagName, progressListener));
+    } finally {
+      record("clearAllUserValues", started, statements);
+    }
+  }
+
+  private Long clearAllUserValuesHelper(String flagName, LongConsumer progressListener) {
     Flag flag = getFlagObject(flagName);
-    fuvRepository.deleteByFlag(flag);
+    Pageable chunk = PageRequest.of(0, clearChunkSize);
+    long deleted = 0;
+    int chunkDeleted;
+    // The flag is partly cleared once a chunk commits, its held values are no longer trusted
+    flagStateCache.applyAllUserValuesUnknown(flagName);
+
+    do {
+      long before = deleted;
+      chunkDeleted =
+          getTransactionTemplate()
+              .execute(
+                  status -> {
+                    // Entities are removed one by one so that Envers writes their DEL revisions
+                    List<FlagUserValue> flagUserValues = fuvRepository.findByFlag(flag, chunk);
+                    fuvRepository.deleteAll(flagUserValues);
+                    fuvRepository.flush();
+
+                    // Appended with the final chunk, so that no node treats the flag as cleared
+                    // while FlagUserValues remain
+                    if (flagUserValues.size() < clearChunkSize
+                        && before + flagUserValues.size() > 0) {
+                      flagChangeLog.appendClearAllUserValues(flagName);
+                    }
+
+                    return flagUserValues.size();
+                  });
+      deleted += chunkDeleted;
+      progressListener.accept(deleted);
+      logger.debug("clearAllUserValues deleted {}", deleted);
+    } while (chunkDeleted == clearChunkSize);
+
+    flagStateCache.applyClearAllUserValues(flagName);
+    userValueCache.invalidateAllUsers();
+    flagLatencyBudget.invalidateFlags(Collections.singleton(flagName));
+    return deleted;
   }
 
   @Override
   public void clearValue(String flagName) {
     logger.debug("clearValue");
-    Flag flag = getFlagObject(flagName);
-    Optional<FlagValue> flagValue = fvRepository.getByFlag(flag);
+    long started = System.nanoTime();
+    long statements = FlagStatementInspector.getStatementCount();
+
+    try {
+      if (flagWriteBehind.enqueue(flagName, null, null)) {
+        flagLatencyBudget.invalidateFlags(Collections.singleton(flagName));
+        return;
+      }
 
-    if (flagValue.isPresent()) {
-      fvRepository.delete(flagValue.get());
+      clearFlagValue(flagName);
+    } finally {
+      record("clearValue", started, statements);
     }
   }
 
+  private void clearFlagValue(String flagName) {
+    Flag flag = getFlagObject(flagName);
+    getTransactionTemplate()
+        .execute(
+            status -> {
+              Optional<FlagValue> flagValue = fvRepository.getByFlag(flag);
+
+              if (flagValue.isPresent()) {
+                fvRepository.delete(flagValue.get());
+                flagChangeLog.appendValue(flagName);
+              }
+
+              return null;
+            });
+
+    flagStateCache.applyClearValue(flagName);
+    userValueCache.invalidateFlagValues();
+    flagLatencyBudget.invalidateFlags(Collections.singleton(flagName));
+  }
+
   @Override
   public void clearValue(String flagName, String user) {
     logger.debug("clearValue");
-    Flag flag = getFlagObject(flagName);
-    Optional<FlagUserValue> flagUserValue = fuvRepository.getByFlagAndUserIdentity(flag, user);
+    long started = System.nanoTime();
+    long statements = FlagStatementInspector.getStatementCount();
+
+    try {
+      if (flagWriteBehind.enqueue(flagName, user, null)) {
+        flagLatencyBudget.invalidateUsers(flagName, Collections.singleton(user));
+        return;
+      }
+
+      Flag flag = getFlagObject(flagName);
+      getTransactionTemplate()
+          .execute(
+              status -> {
+                Optional<FlagUserValue> flagUserValue =
+                    fuvRepository.getByFlagAndUserIdentity(flag, user);
+
+                if (flagUserValue.isPresent()) {
+                  fuvRepository.delete(flagUserValue.get());
+                  flagChangeLog.appendUserValue(flagName, user);
+                }
 
-    if (flagUserValue.isPresent()) {
-      fuvRepository.delete(flagUserValue.get());
+                return null;
+              });
+
+      flagStateCache.applyClearUserValue(flagName, user);
+      userValueCache.invalidateUser(user);
+      flagLatencyBudget.invalidateUsers(flagName, Collections.singleton(user));
+    } finally {
+      record("clearValue", started, statements);
     }
   }
 
+  /*
+   * Writes a batch of queued writes with the bulk methods, a transaction per flag and kind
+   */
+  private void flushWrites(Map<Key, Write> writes) {
+    Map<String, Boolean> flagValues = new HashMap<>();
+    List<String> clearedFlags = new ArrayList<>();
+    Map<String, Map<String, Boolean>> userValues = new HashMap<>();
+    Map<String, List<String>> clearedUsers = new HashMap<>();
+
+    writes.forEach(
+        (key, write) -> {
+          if (key.getUser() == null && write.getValue() != null) {
+            flagValues.put(key.getFlagName(), write.getValue());
+          } else if (key.getUser() == null) {
+            clearedFlags.add(key.getFlagName());
+          } else if (write.getValue() != null) {
+            userValues
+                .computeIfAbsent(key.getFlagName(), flagName -> new HashMap<>())
+                .put(key.getUser(), write.getValue());
+          } else {
+            clearedUsers
+                .computeIfAbsent(key.getFlagName(), flagName -> new ArrayList<>())
+                .add(key.getUser());
+          }
+        });
+
+    if (!flagValues.isEmpty()) {
+      setFlagValues(flagValues);
+    }
+
+    if (!clearedFlags.isEmpty()) {
+      clearFlagValues(clearedFlags);
+    }
+
+    userValues.forEach(this::setUserValues);
+    clearedUsers.forEach(this::clearUserValues);
+  }
+
+  /*
+   * The FlagSegmentValue of the segments of each user that is in one
+   */
+  private Map<String, Boolean> getSegmentValues(String flagName, List<String> users) {
+    Map<String, Boolean> segmentValues = new HashMap<>();
+
+    for (List<String> chunk : chunk(users)) {
+      for (UserValue segmentValue :
+          fsvRepository.findSegmentValuesByFlagNameAndUserIdentityIn(flagName, chunk)) {
+        // A user in several segments of the flag gets false when any of them is false
+        segmentValues.merge(
+            segmentValue.getUserIdentity(), segmentValue.getUserValue(), Boolean::logicalAnd);
+      }
+    }
+
+    return segmentValues;
+  }
+
+  private void record(String operation, long started, long statements) {
+    flagMetrics.recordLatency(operation, System.nanoTime() - started);
+
+    if (FlagStatementInspector.isInstalled()) {
+      flagMetrics.recordStatements(
+          operation, FlagStatementInspector.getStatementCount() - statements);
+    }
+  }
+
+  private <T> List<List<T>> chunk(Collection<T> items) {
+    List<List<T>> chunks = new ArrayList<>();
+    List<T> chunk = new ArrayList<>(batchChunkSize);
+
+    for (T item : items) {
+      chunk.add(item);
+
+      if (chunk.size() == batchChunkSize) {
+        chunks.add(chunk);
+        chunk = new ArrayList<>(batchChunkSize);
+      }
+    }
+
+    if (!chunk.isEmpty()) {
+      chunks.add(chunk);
+    }
+
+    return chunks;
+  }
+
+  private void flushChunk(TransactionStatus status) {
+    entityManager.flush();
+
+    // Entities of a caller's transaction are left attached
+    if (status.isNewTransaction()) {
+      entityManager.clear();
+    }
+  }
+
+  /*
+   * Runs a read in a read-only transaction, on the replica when FlagReadRouting allows it
+   */
+  private <T> T read(Supplier<T> reader) {
+    TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+    transactionTemplate.setReadOnly(true);
+    return flagReadRouting.route(() -> transactionTemplate.execute(status -> reader.get()));
+  }
+
+  private TransactionTemplate getTransactionTemplate() {
+    return new TransactionTemplate(transactionManager) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      public <T> T execute(TransactionCallback<T> action) {
+        try {
+          return super.execute(action);
+        } finally {
+          // This node reads its own writes from the primary until the replica has them
+          flagReadRouting.pin();
+        }
+      }
+    };
+  }
+
+  private void registerFlag(String flagName) {
+    if (asynchronousRegistration) {
+      flagRegistrar.register(flagName);
+    } else {
+      getFlagObject(flagName);
+      userValueCache.invalidateFlagValues();
+    }
+  }
+
+  /*
+   * A unique violation marks a transaction of the caller rollback-only, and on PostgreSQL
+   * aborts it, so an upsert is only retried when it ran in a transaction of its own
+   */
+  private void retryOutsideTransaction(String operation, DataIntegrityViolationException e) {
+    if (TransactionSynchronizationManager.isActualTransactionActive()) {
+      throw e;
+    }
+
+    flagMetrics.recordRetry(operation);
+  }
+
+  private Map<String, Flag> getFlagObjects(Collection<String> flagNames) {
+    try {
+      return getFlagObjectsHelper(flagNames);
+    } catch (DataIntegrityViolationException e) {
+      // A concurrent writer created one of the flags first
+      retryOutsideTransaction("createFlag", e);
+      return getFlagObjectsHelper(flagNames);
+    }
+  }
+
+  private Map<String, Flag> getFlagObjectsHelper(Collection<String> flagNames) {
+    Map<String, Flag> flags = new HashMap<>();
+
+    for (List<String> chunk : chunk(flagNames)) {
+      for (Flag flag : flagRepository.findByNameIn(chunk)) {
+        flags.put(flag.getName(), flag);
+      }
+    }
+
+    List<Flag> missing = new ArrayList<>();
+
+    for (String flagName : flagNames) {
+      if (!flags.containsKey(flagName)) {
+        missing.add(new Flag(flagName));
+      }
+    }
+
+    if (missing.isEmpty()) {
+      return flags;
+    }
+
+    getTransactionTemplate()
+        .execute(
+            status -> {
+              for (Flag flag : flagRepository.saveAll(missing)) {
+                flags.put(flag.getName(), flag);
+              }
+
+              for (List<Flag> chunk : chunk(missing)) {
+                List<String> created = new ArrayList<>(chunk.size());
+                chunk.forEach(flag -> created.add(flag.getName()));
+                flagChangeLog.appendValues(created);
+              }
+
+              return null;
+            });
+
+    return flags;
+  }
+
+  private Segment getSegmentObject(String segmentName) {
+    try {
+      return getSegmentObjectHelper(segmentName);
+    } catch (DataIntegrityViolationException e) {
+      // A concurrent writer created the segment first
+      retryOutsideTransaction("createSegment", e);
+      return getSegmentObjectHelper(segmentName);
+    }
+  }
+
+  private Segment getSegmentObjectHelper(String segmentName) {
+    Optional<Segment> segment = segmentRepository.getByName(segmentName);
+
+    if (segment.isPresent()) {
+      return segment.get();
+    }
+
+    return getTransactionTemplate()
+        .execute(status -> segmentRepository.saveAndFlush(new Segment(segmentName)));
+  }
+
   private Flag getFlagObject(String flagName) {
     try {
       return getFlagObjectHelper(flagName);
-    } catch (Exception e) {
-      // This is a catch all, Transaction issues, Unique Violation, and others
-      // We should catch specific Exceptions.
-      // Final Attempt
+    } catch (DataIntegrityViolationException e) {
+      // A concurrent writer created the flag first
+      retryOutsideTransaction("createFlag", e);
       return getFlagObjectHelper(flagName);
     }
   }
 
   private Flag getFlagObjectHelper(String flagName) {
-    Flag flag = flagRepository.getByName(flagName).orElse(new Flag(flagName));
-    return flagRepository.saveAndFlush(flag);
+    Optional<Flag> flag = flagRepository.getByName(flagName);
+
+    if (flag.isPresent()) {
+      return flag.get();
+    }
+
+    return getTransactionTemplate()
+        .execute(
+            status -> {
+              flagChangeLog.appendValue(flagName);
+              return flagRepository.saveAndFlush(new Flag(flagName));
+            });
   }
 }
@@ -0,0 +1,522 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.service84.library.featureflaglocalpersistence.persistence.models.FlagChange;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagChangeRepository;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagRolloutRepository;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagSegmentValueRepository;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagSegmentValueRepository.FlagSegmentNameValue;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagRolloutRepository.FlagNameRollout;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagUserValueRepository;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagUserValueRepository.UserValue;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagValueRepository;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.SegmentMemberRepository;
+import io.service84.library.featureflaglocalpersistence.services.FlagStateCache.FlagState;
+
+/*
+ * Appends every mutation to a change log in the mutating transaction, and polls the log for
+ * the mutations of other nodes. Each polled change is applied to the local caches by reading
+ * the current state of what changed, so a change may be applied more than once. A clear of
+ * every FlagUserValue of a flag is applied without reading, and the FlagUserValues of flags
+ * evicted from the FlagStateCache are never read.
+ */
+@Service("5E3A7C21-9B4D-4F6E-8A1C-2D7B9E0F4C63")
+public class FlagChangeLog implements InitializingBean, DisposableBean {
+  private static final Logger logger = LoggerFactory.getLogger(FlagChangeLog.class);
+
+  /*
+   * Stands in for an undeclared bean, it neither appends nor polls changes
+   */
+  public static final FlagChangeLog DISABLED = new FlagChangeLog();
+
+  @Autowired private FlagChangeRepository fcRepository;
+  @Autowired private FlagValueRepository fvRepository;
+  @Autowired private FlagRolloutRepository frRepository;
+  @Autowired private FlagUserValueRepository fuvRepository;
+  @Autowired private FlagSegmentValueRepository fsvRepository;
+  @Autowired private SegmentMemberRepository smRepository;
+  @Autowired private UserValueCache userValueCache;
+  @Autowired private PlatformTransactionManager transactionManager;
+  @PersistenceContext private EntityManager entityManager;
+
+  @Autowired(required = false)
+  private FlagStateCache flagStateCache = FlagStateCache.DISABLED;
+
+  @Value("${io.service84.library.featureflaglocalpersistence.change-log.enabled:false}")
+  private Boolean enabled = Boolean.FALSE;
+
+  @Value("${io.service84.library.featureflaglocalpersistence.change-log.poll-interval:1000}")
+  private Long pollInterval;
+
+  @Value("${io.service84.library.featureflaglocalpersistence.change-log.batch-size:1000}")
+  private Integer batchSize;
+
+  @Value("${io.service84.library.featureflaglocalpersistence.change-log.max-read:10000}")
+  private Integer maxRead;
+
+  @Value("${io.service84.library.featureflaglocalpersistence.change-log.gap-timeout:60000}")
+  private Long gapTimeout;
+
+  @Value("${io.service84.library.featureflaglocalpersistence.change-log.retention:86400000}")
+  private Long retention;
+
+  @Value("${io.service84.library.featureflaglocalpersistence.change-log.prune-interval:3600000}")
+  private Long pruneInterval;
+
+  /*
+   * Sequence numbers from low to high, inclusive, that were missing when a later one was read
+   */
+  private static final class Gap {
+    private final long low;
+    private final long high;
+    private final long since;
+
+    private Gap(long low, long high, long since) {
+      this.low = low;
+      this.high = high;
+      this.since = since;
+    }
+  }
+
+  private List<Gap> gaps = new ArrayList<>();
+  private long lastSequenceNumber;
+  private long lastPolled;
+  private long lastPruned;
+  private ScheduledExecutorService scheduler;
+
+  @Override
+  public void afterPropertiesSet() throws Exception {
+    if (!enabled) {
+      return;
+    }
+
+    // Earlier changes are part of the state the caches load themselves
+    lastSequenceNumber = fcRepository.findMaxSequenceNumber().orElse(0L);
+    lastPolled = System.nanoTime();
+    lastPruned = lastPolled;
+    scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "FlagChangeLog");
+              thread.setDaemon(true);
+              return thread;
+            });
+    scheduler.scheduleWithFixedDelay(this::poll, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+
+  public Boolean isEnabled() {
+    return enabled;
+  }
+
+  /*
+   * The FlagValue of a flag changed, or the flag was created.
+   * Must be called in the transaction of the mutation.
+   */
+  public void appendValue(String flagName) {
+    append(FlagChange.Type.VALUE, flagName, null);
+  }
+
+  /*
+   * The FlagValues of many flags changed, must be called in the transaction of the mutation.
+   * The IDENTITY sequence number turns off insert batching, so the changes are inserted with
+   * one statement.
+   */
+  public void appendValues(Collection<String> flagNames) {
+    append(FlagChange.Type.VALUE, flagNames);
+  }
+
+  /*
+   * The FlagSegmentValues of many flags changed, must be called in the transaction of the
+   * mutation
+   */
+  public void appendSegmentValues(Collection<String> flagNames) {
+    append(FlagChange.Type.SEGMENT_VALUE, flagNames);
+  }
+
+  private void append(FlagChange.Type type, Collection<String> flagNames) {
+    if (!enabled || flagNames.isEmpty()) {
+      return;
+    }
+
+    StringBuilder sql =
+        new StringBuilder("INSERT INTO flag_change (created_date, type, flag_name) VALUES ");
+
+    for (int index = 0; index < flagNames.size(); index++) {
+      sql.append(index == 0 ? "(?, ?, ?)" : ", (?, ?, ?)");
+    }
+
+    Query query = entityManager.createNativeQuery(sql.toString());
+    LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+    int position = 1;
+
+    for (String flagName : flagNames) {
+      query.setParameter(position++, now);
+      query.setParameter(position++, type.name());
+      query.setParameter(position++, flagName);
+    }
+
+    query.executeUpdate();
+  }
+
+  /*
+   * The FlagUserValue of one user changed, must be called in the transaction of the mutation
+   */
+  public void appendUserValue(String flagName, String user) {
+    append(FlagChange.Type.USER_VALUE, flagName, user);
+  }
+
+  /*
+   * The FlagUserValues of many users changed, must be called in the transaction of the mutation.
+   * One change is appended for all of them, other nodes reload every FlagUserValue of the flag.
+   */
+  public void appendUserValues(String flagName) {
+    append(FlagChange.Type.USER_VALUES, flagName, null);
+  }
+
+  /*
+   * Every FlagUserValue of a flag was deleted, must be called in the transaction of the mutation
+   */
+  public void appendClearAllUserValues(String flagName) {
+    append(FlagChange.Type.ALL_USER_VALUES, flagName, null);
+  }
+
+  /*
+   * The FlagSegmentValues of a flag changed, must be called in the transaction of the mutation
+   */
+  public void appendSegmentValue(String flagName) {
+    append(FlagChange.Type.SEGMENT_VALUE, flagName, null);
+  }
+
+  /*
+   * The members of a segment changed, must be called in the transaction of the mutation
+   */
+  public void appendSegment(String segmentName) {
+    append(FlagChange.Type.SEGMENT, segmentName, null);
+  }
+
+  private void append(FlagChange.Type type, String flagName, String user) {
+    if (!enabled) {
+      return;
+    }
+
+    fcRepository.save(new FlagChange(type, flagName, user));
+  }
+
+  public synchronized void poll() {
+    logger.debug("poll");
+
+    if (!enabled) {
+      return;
+    }
+
+    try {
+      long now = System.nanoTime();
+
+      if (now - lastPolled > TimeUnit.MILLISECONDS.toNanos(retention)) {
+        // Changes may have been pruned while this node could not poll
+        logger.warn("Flag change log fell behind its retention, reloading");
+        lastSequenceNumber = fcRepository.findMaxSequenceNumber().orElse(0L);
+        gaps.clear();
+        flagStateCache.invalidateUserFilters();
+        flagStateCache.refresh();
+        userValueCache.invalidateFlagValues();
+        userValueCache.invalidateAllUsers();
+        userValueCache.invalidateSegmentValues();
+        lastPolled = now;
+        return;
+      }
+
+      apply(readGaps(now));
+      List<FlagChange> changes;
+
+      // Changes are read and applied at most maxRead at a time
+      do {
+        changes = readNext(now);
+        apply(changes);
+      } while (changes.size() >= maxRead);
+
+      lastPolled = now;
+
+      if (now - lastPruned > TimeUnit.MILLISECONDS.toNanos(pruneInterval)) {
+        prune();
+        lastPruned = now;
+      }
+    } catch (Exception e) {
+      // This is a catch all, unread changes are read by the next poll
+      logger.warn("Flag change poll failed", e);
+      // Changes read before the failure are not read again, the next refresh reloads them
+      flagStateCache.invalidateUserFilters();
+    }
+  }
+
+  /*
+   * The changes that committed late into a gap
+   */
+  private List<FlagChange> readGaps(long now) {
+    List<FlagChange> changes = new ArrayList<>();
+
+    if (!gaps.isEmpty()) {
+      List<Gap> open = new ArrayList<>();
+
+      for (Gap gap : gaps) {
+        long low = gap.low;
+
+        // A change that committed late splits its gap
+        for (FlagChange change :
+            fcRepository.findBySequenceNumberBetweenOrderBySequenceNumber(gap.low, gap.high)) {
+          if (change.getSequenceNumber() > low) {
+            open.add(new Gap(low, change.getSequenceNumber() - 1, gap.since));
+          }
+
+          low = change.getSequenceNumber() + 1;
+          changes.add(change);
+        }
+
+        if (low <= gap.high) {
+          open.add(new Gap(low, gap.high, gap.since));
+        }
+      }
+
+      // A sequence number missing for this long belongs to a rolled back transaction
+      long timeout = TimeUnit.MILLISECONDS.toNanos(gapTimeout);
+      if (open.removeIf(gap -> now - gap.since > timeout)) {
+        // A change may yet commit into a gap given up on
+        flagStateCache.invalidateUserFilters();
+      }
+
+      gaps = open;
+    }
+
+    return changes;
+  }
+
+  /*
+   * The next changes after the last one read, at most maxRead of them
+   */
+  private List<FlagChange> readNext(long now) {
+    List<FlagChange> changes = new ArrayList<>();
+    List<FlagChange> batch;
+    int size;
+
+    do {
+      size = Math.min(batchSize, maxRead - changes.size());
+      batch =
+          fcRepository.findBySequenceNumberGreaterThanOrderBySequenceNumber(
+              lastSequenceNumber, PageRequest.of(0, size));
+
+      for (FlagChange change : batch) {
+        // Sequence numbers are taken before commit, a lower one can become visible later
+        if (change.getSequenceNumber() > lastSequenceNumber + 1) {
+          gaps.add(new Gap(lastSequenceNumber + 1, change.getSequenceNumber() - 1, now));
+        }
+
+        lastSequenceNumber = change.getSequenceNumber();
+        changes.add(change);
+      }
+    } while (batch.size() == size && changes.size() < maxRead);
+
+    return changes;
+  }
+
+  private void apply(List<FlagChange> changes) {
+    Set<String> values = new HashSet<>();
+    Set<String> userValues = new HashSet<>();
+    Set<String> clearedUserValues = new HashSet<>();
+    Map<String, Set<String>> users = new HashMap<>();
+    Set<String> segmentValues = new HashSet<>();
+    Set<String> segments = new HashSet<>();
+
+    for (FlagChange change : changes) {
+      switch (change.getType()) {
+        case VALUE:
+          values.add(change.getFlagName());
+          break;
+        case USER_VALUE:
+          users
+              .computeIfAbsent(change.getFlagName(), flagName -> new HashSet<>())
+              .add(change.getUser());
+          break;
+        case USER_VALUES:
+          userValues.add(change.getFlagName());
+          break;
+        case ALL_USER_VALUES:
+          clearedUserValues.add(change.getFlagName());
+          break;
+        case SEGMENT_VALUE:
+          segmentValues.add(change.getFlagName());
+          break;
+        case SEGMENT:
+          segments.add(change.getFlagName());
+          break;
+      }
+    }
+
+    users.keySet().removeAll(userValues);
+
+    if (!values.isEmpty()) {
+      userValueCache.invalidateFlagValues();
+    }
+
+    if (!segmentValues.isEmpty() || !segments.isEmpty()) {
+      userValueCache.invalidateSegmentValues();
+    }
+
+    if (!userValues.isEmpty() || !clearedUserValues.isEmpty()) {
+      userValueCache.invalidateAllUsers();
+    } else {
+      users.values().forEach(flagUsers -> flagUsers.forEach(userValueCache::invalidateUser));
+    }
+
+    if (!flagStateCache.isEnabled()) {
+      return;
+    }
+
+    for (String flagName : values) {
+      flagStateCache.applyValue(flagName, fvRepository.findValueByFlagName(flagName).orElse(null));
+      Optional<FlagNameRollout> rollout = frRepository.findRolloutByFlagName(flagName);
+      flagStateCache.applyRollout(
+          flagName,
+          rollout.map(FlagNameRollout::getPercentage).orElse(null),
+          rollout.map(FlagNameRollout::getSalt).orElse(null));
+    }
+
+    for (String flagName : segmentValues) {
+      Map<String, Boolean> flagSegmentValues = new HashMap<>();
+
+      for (FlagSegmentNameValue segmentValue :
+          fsvRepository.findFlagSegmentValuesByFlagName(flagName)) {
+        flagSegmentValues.put(segmentValue.getSegmentName(), segmentValue.getSegmentValue());
+      }
+
+      flagStateCache.applyReplaceSegmentValues(flagName, flagSegmentValues);
+    }
+
+    for (String segmentName : segments) {
+      flagStateCache.applyReplaceSegmentMembers(
+          segmentName, smRepository.findUserIdentitiesBySegmentName(segmentName));
+    }
+
+    // Cleared before the users below are read, which may have been set after the clear
+    clearedUserValues.forEach(flagStateCache::applyClearAllUserValues);
+
+    for (String flagName : userValues) {
+      if (isEvicted(flagName)) {
+        flagStateCache.applyAllUserValuesUnknown(flagName);
+        continue;
+      }
+
+      Map<String, Boolean> flagUserValues = new HashMap<>();
+
+      for (UserValue userValue : fuvRepository.findUserValuesByFlagName(flagName)) {
+        flagUserValues.put(userValue.getUserIdentity(), userValue.getUserValue());
+      }
+
+      flagStateCache.applyReplaceUserValues(flagName, flagUserValues);
+    }
+
+    for (Map.Entry<String, Set<String>> flagUsers : users.entrySet()) {
+      // The FlagUserValues of an evicted flag are not held, they are only marked as unknown
+      if (isEvicted(flagUsers.getKey())) {
+        flagStateCache.applyUnknownUserValues(flagUsers.getKey(), flagUsers.getValue());
+        continue;
+      }
+
+      for (List<String> chunk : chunk(flagUsers.getValue())) {
+        Map<String, Boolean> flagUserValues = new HashMap<>();
+
+        for (UserValue userValue :
+            fuvRepository.findUserValuesByFlagNameAndUserIdentityIn(flagUsers.getKey(), chunk)) {
+          flagUserValues.put(userValue.getUserIdentity(), userValue.getUserValue());
+        }
+
+        Set<String> cleared = new HashSet<>(chunk);
+        cleared.removeAll(flagUserValues.keySet());
+        flagStateCache.applyUserValues(flagUsers.getKey(), flagUserValues);
+        flagStateCache.applyClearUserValues(flagUsers.getKey(), cleared);
+      }
+    }
+  }
+
+  private boolean isEvicted(String flagName) {
+    FlagState flagState = flagStateCache.getFlagState(flagName);
+    return flagState != null && !flagState.isUserValuesComplete();
+  }
+
+  private List<List<String>> chunk(Collection<String> users) {
+    List<List<String>> chunks = new ArrayList<>();
+    List<String> chunk = new ArrayList<>(batchSize);
+
+    for (String user : users) {
+      chunk.add(user);
+
+      if (chunk.size() == batchSize) {
+        chunks.add(chunk);
+        chunk = new ArrayList<>(batchSize);
+      }
+    }
+
+    if (!chunk.isEmpty()) {
+      chunks.add(chunk);
+    }
+
+    return chunks;
+  }
+
+  private void prune() {
+    LocalDateTime before =
+        LocalDateTime.now(ZoneOffset.UTC).minusNanos(TimeUnit.MILLISECONDS.toNanos(retention));
+    Integer deleted =
+        new TransactionTemplate(transactionManager)
+            .execute(status -> fcRepository.deleteByCreatedDateBefore(before));
+    logger.debug("prune deleted {}", deleted);
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * Stops calls to the repositories after consecutive failures.
+ *
+ * Once open, calls are refused for the open duration, then a single call probes whether the
+ * repositories recovered. Its success closes the breaker, its failure opens it again. Every call
+ * is admitted with the generation of the state it started in, and the outcomes of calls that
+ * started before the last transition are ignored. The state is swapped as a whole with compare
+ * and set, so callers never block on each other.
+ */
+final class FlagCircuitBreaker {
+  private static final Logger logger = LoggerFactory.getLogger(FlagCircuitBreaker.class);
+
+  private enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  private static final class Status {
+    private final State state;
+    private final int failures;
+    private final long openedAt;
+    private final long generation;
+
+    private Status(State state, int failures, long openedAt, long generation) {
+      this.state = state;
+      this.failures = failures;
+      this.openedAt = openedAt;
+      this.generation = generation;
+    }
+
+    private Status withFailures(int failures) {
+      return new Status(state, failures, openedAt, generation);
+    }
+
+    private Status transition(State state, long openedAt) {
+      return new Status(state, 0, openedAt, generation + 1);
+    }
+  }
+
+  static final long REFUSED = -1;
+
+  private final int failureThreshold;
+  private final long openNanos;
+  private final AtomicReference<Status> status =
+      new AtomicReference<>(new Status(State.CLOSED, 0, 0, 0));
+
+  FlagCircuitBreaker(int failureThreshold, long openMilliseconds) {
+    this.failureThreshold = failureThreshold;
+    this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMilliseconds);
+  }
+
+  /*
+   * The generation the caller records the outcome of its call with, REFUSED when it may not
+   * call the repositories
+   */
+  long tryAcquire() {
+    while (true) {
+      Status current = status.get();
+
+      switch (current.state) {
+        case CLOSED:
+          return current.generation;
+        case OPEN:
+          if (System.nanoTime() - current.openedAt < openNanos) {
+            return REFUSED;
+          }
+
+          // The caller that wins the swap is the single probe
+          Status probing = current.transition(State.HALF_OPEN, current.openedAt);
+
+          if (status.compareAndSet(current, probing)) {
+            return probing.generation;
+          }
+
+          break;
+        default:
+          return REFUSED;
+      }
+    }
+  }
+
+  boolean isOpen() {
+    return status.get().state != State.CLOSED;
+  }
+
+  void recordSuccess(long admitted) {
+    while (true) {
+      Status current = status.get();
+
+      if (admitted != current.generation) {
+        return;
+      }
+
+      Status next;
+
+      if (current.state == State.HALF_OPEN) {
+        next = current.transition(State.CLOSED, 0);
+      } else if (current.failures == 0) {
+        return;
+      } else {
+        next = current.withFailures(0);
+      }
+
+      if (status.compareAndSet(current, next)) {
+        if (next.state != current.state) {
+          logger.info("Flag repository circuit closed");
+        }
+
+        return;
+      }
+    }
+  }
+
+  void recordFailure(long admitted) {
+    while (true) {
+      Status current = status.get();
+
+      if (admitted != current.generation) {
+        return;
+      }
+
+      int failures = current.failures + 1;
+      Status next;
+
+      if (current.state == State.HALF_OPEN || failures >= failureThreshold) {
+        next = current.transition(State.OPEN, System.nanoTime());
+      } else {
+        next = current.withFailures(failures);
+      }
+
+      if (status.compareAndSet(current, next)) {
+        if (current.state == State.CLOSED && next.state == State.OPEN) {
+          logger.warn("Flag repository circuit opened after {} failures", failures);
+        }
+
+        return;
+      }
+    }
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/*
+ * Runs the asynchronous variants of the API.
+ *
+ * At most concurrency calls run at once and at most capacity calls are accepted at once, a call
+ * beyond that fails at once with a RejectedExecutionException. A call that takes longer than the
+ * timeout fails with a TimeoutException and its thread is interrupted. Virtual threads are used
+ * when the JDK has them, platform threads otherwise.
+ */
+@Service("C7B1E5A9-3F26-4D8B-A0E4-9D52F6C1B378")
+public class FlagExecutor implements InitializingBean, DisposableBean {
+  private static final Logger logger = LoggerFactory.getLogger(FlagExecutor.class);
+
+  @Value("${io.service84.library.featureflaglocalpersistence.async.concurrency:16}")
+  private Integer concurrency;
+
+  @Value("${io.service84.library.featureflaglocalpersistence.async.capacity:1024}")
+  private Integer capacity;
+
+  @Value("${io.service84.library.featureflaglocalpersistence.async.timeout:5000}")
+  private Long timeout;
+
+  @Value("${io.service84.library.featureflaglocalpersistence.async.virtual-threads:true}")
+  private Boolean virtualThreads;
+
+  private ExecutorService executor;
+  private Semaphore accepted;
+  private Semaphore running;
+
+  @Override
+  public void afterPropertiesSet() throws Exception {
+    accepted = new Semaphore(capacity);
+    executor = virtualThreads ? newVirtualThreadExecutor() : null;
+
+    if (executor != null) {
+      // Virtual threads are not pooled, the running calls are bounded instead
+      running = new Semaphore(concurrency);
+      return;
+    }
+
+    ThreadPoolExecutor pool =
+        new ThreadPoolExecutor(
+            concurrency,
+            concurrency,
+            60L,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            runnable -> {
+              Thread thread = new Thread(runnable, "FlagExecutor");
+              thread.setDaemon(true);
+              return thread;
+            });
+    pool.allowCoreThreadTimeOut(true);
+    executor = pool;
+  }
+
+  private static ExecutorService newVirtualThreadExecutor() {
+    try {
+      return (ExecutorService)
+          Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (Exception e) {
+      // This is a catch all, the JDK has no virtual threads
+      logger.debug("Virtual threads are not available", e);
+      return null;
+    }
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    executor.shutdownNow();
+  }
+
+  public <T> CompletableFuture<T> submit(Supplier<T> call) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+
+    if (!accepted.tryAcquire()) {
+      result.completeExceptionally(new RejectedExecutionException("FlagExecutor is at capacity"));
+      return result;
+    }
+
+    AtomicBoolean started = new AtomicBoolean();
+    AtomicBoolean released = new AtomicBoolean();
+    Future<?> future;
+
+    try {
+      future =
+          executor.submit(
+              () -> {
+                started.set(true);
+
+                try {
+                  run(call, result);
+                } finally {
+                  release(released);
+                }
+              });
+    } catch (RejectedExecutionException e) {
+      release(released);
+      result.completeExceptionally(e);
+      return result;
+    }
+
+    result
+        .orTimeout(timeout, TimeUnit.MILLISECONDS)
+        .whenComplete(
+            (value, error) -> {
+              // A call that never started holds its capacity until it is released here
+              if (error instanceof TimeoutException && future.cancel(true) && !started.get()) {
+                release(released);
+              }
+            });
+    return result;
+  }
+
+  private <T> void run(Supplier<T> call, CompletableFuture<T> result) {
+    if (result.isDone()) {
+      return;
+    }
+
+    try {
+      if (running != null) {
+        running.acquire();
+      }
+
+      try {
+        result.complete(call.get());
+      } finally {
+        if (running != null) {
+          running.release();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      result.completeExceptionally(e);
+    } catch (Throwable e) {
+      result.completeExceptionally(e);
+    }
+  }
+
+  private void release(AtomicBoolean released) {
+    if (released.compareAndSet(false, true)) {
+      accepted.release();
+    }
+  }
+}
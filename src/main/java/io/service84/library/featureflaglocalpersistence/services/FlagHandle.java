@@ -0,0 +1,113 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+import io.service84.library.featureflaglocalpersistence.services.FlagStateCache.FlagSnapshot;
+import io.service84.library.featureflaglocalpersistence.services.FlagStateCache.FlagState;
+import io.service84.library.featureflaglocalpersistence.services.FlagWriteBehind.Write;
+
+/*
+ * One flag resolved once for repeated evaluation.
+ *
+ * With the flag state cache enabled, isEnabled reads the cached FlagState of this flag and
+ * allocates nothing. The FlagState is looked up again only when the snapshot is replaced.
+ * Queued writes of the flag are overlaid on it. Everything else, an unknown flag, a FlagUserValue
+ * not held in memory, a queued write of the user or a disabled cache, is evaluated by getValue.
+ */
+public final class FlagHandle {
+  private static final class Resolved {
+    private final FlagSnapshot snapshot;
+    private final FlagState flagState;
+
+    private Resolved(FlagSnapshot snapshot, FlagState flagState) {
+      this.snapshot = snapshot;
+      this.flagState = flagState;
+    }
+  }
+
+  private final FeatureFlagLocalPersistence service;
+  private final FlagStateCache flagStateCache;
+  private final FlagWriteBehind flagWriteBehind;
+  private final FlagMetrics flagMetrics;
+  private final String flagName;
+  private final boolean defaultValue;
+  private volatile Resolved resolved = new Resolved(null, null);
+
+  FlagHandle(
+      FeatureFlagLocalPersistence service,
+      FlagStateCache flagStateCache,
+      FlagWriteBehind flagWriteBehind,
+      FlagMetrics flagMetrics,
+      String flagName,
+      boolean defaultValue) {
+    this.service = service;
+    this.flagStateCache = flagStateCache;
+    this.flagWriteBehind = flagWriteBehind;
+    this.flagMetrics = flagMetrics;
+    this.flagName = flagName;
+    this.defaultValue = defaultValue;
+  }
+
+  public String getFlagName() {
+    return flagName;
+  }
+
+  public boolean isEnabled(String user) {
+    FlagSnapshot snapshot = flagStateCache.getSnapshot();
+
+    if (snapshot == null || flagWriteBehind.getPending(flagName, user) != null) {
+      return service.getValue(flagName, user, defaultValue);
+    }
+
+    Resolved current = resolved;
+
+    if (current.snapshot != snapshot) {
+      current = new Resolved(snapshot, snapshot.getFlagState(flagName));
+      resolved = current;
+    }
+
+    FlagState flagState = current.flagState;
+
+    if (flagState == null) {
+      return service.getValue(flagName, user, defaultValue);
+    }
+
+    Boolean userValue = flagState.getUserValue(user);
+
+    if (userValue != null) {
+      flagMetrics.recordCacheHit(FlagMetrics.FLAG_STATE_CACHE);
+      return userValue;
+    }
+
+    if (flagState.isUserValueUnknown(user)) {
+      return service.getValue(flagName, user, defaultValue);
+    }
+
+    flagMetrics.recordCacheHit(FlagMetrics.FLAG_STATE_CACHE);
+    Boolean segmentValue = current.snapshot.getSegmentValue(flagState, user);
+
+    if (segmentValue != null) {
+      return segmentValue;
+    }
+
+    if (flagState.isRolledOut(user)) {
+      return true;
+    }
+
+    Write flagWrite = flagWriteBehind.getPending(flagName, null);
+    Boolean value = flagWrite != null ? flagWrite.getValue() : flagState.getValue();
+    return value != null ? value : defaultValue;
+  }
+}
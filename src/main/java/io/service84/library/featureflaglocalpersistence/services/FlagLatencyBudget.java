@@ -0,0 +1,229 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/*
+ * Bounds the latency of evaluations that read the repositories.
+ *
+ * The lookup runs on the FlagExecutor. When it does not finish within the timeout, or fails, the
+ * last value returned for the flag and user is returned instead, or the default when there is
+ * none, and the lookup goes on in the background to refresh it. A lookup that fails or overruns
+ * the timeout counts as a failure of the FlagCircuitBreaker, which stops lookups during sustained
+ * failures.
+ */
+@Service("1D8F4B62-A7C3-4E59-9B20-C6E3F5A80D17")
+public class FlagLatencyBudget implements InitializingBean {
+  private static final Logger logger = LoggerFactory.getLogger(FlagLatencyBudget.class);
+
+  /*
+   * Stands in for an undeclared bean, lookups run on the calling thread without a timeout
+   */
+  public static final FlagLatencyBudget DISABLED = new FlagLatencyBudget();
+
+  private static final class Key {
+    private final String flagName;
+    private final String user;
+
+    private Key(String flagName, String user) {
+      this.flagName = flagName;
+      this.user = user;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      }
+
+      Key key = (Key) other;
+      return flagName.equals(key.flagName) && Objects.equals(user, key.user);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * flagName.hashCode() + Objects.hashCode(user);
+    }
+  }
+
+  @Autowired private FlagExecutor flagExecutor;
+
+  @Autowired(required = false)
+  private FlagMetrics flagMetrics = FlagMetrics.NOOP;
+
+  @Value("${io.service84.library.featureflaglocalpersistence.latency-budget.enabled:false}")
+  private Boolean enabled = Boolean.FALSE;
+
+  @Value("${io.service84.library.featureflaglocalpersistence.latency-budget.timeout:50}")
+  private Long timeout;
+
+  @Value(
+      "${io.service84.library.featureflaglocalpersistence.latency-budget.max-stale-values:100000}")
+  private Integer maxStaleValues;
+
+  @Value("${io.service84.library.featureflaglocalpersistence.circuit-breaker.failure-threshold:5}")
+  private Integer failureThreshold;
+
+  @Value("${io.service84.library.featureflaglocalpersistence.circuit-breaker.open-duration:10000}")
+  private Long openDuration;
+
+  // Read on every evaluation without a lock, entries are evicted in no particular order
+  private final Map<Key, Boolean> staleValues = new ConcurrentHashMap<>();
+  private FlagCircuitBreaker circuitBreaker;
+
+  @Override
+  public void afterPropertiesSet() throws Exception {
+    circuitBreaker = new FlagCircuitBreaker(failureThreshold, openDuration);
+  }
+
+  public Boolean isEnabled() {
+    return enabled;
+  }
+
+  /*
+   * True while lookups are refused or a single probe runs
+   */
+  public Boolean isCircuitOpen() {
+    return enabled && circuitBreaker.isOpen();
+  }
+
+  /*
+   * The value of the lookup when it finishes within the timeout, the last value otherwise
+   */
+  public Boolean evaluate(
+      String flagName, String user, Boolean defaultValue, Supplier<Boolean> lookup) {
+    if (!enabled) {
+      return lookup.get();
+    }
+
+    Key key = new Key(flagName, user);
+
+    long admitted = circuitBreaker.tryAcquire();
+
+    if (admitted == FlagCircuitBreaker.REFUSED) {
+      return getStaleValue(key, defaultValue);
+    }
+
+    long started = System.nanoTime();
+    long budget = TimeUnit.MILLISECONDS.toNanos(timeout);
+    CompletableFuture<Boolean> future = flagExecutor.submit(lookup);
+    future.whenComplete(
+        (value, error) -> {
+          if (error != null) {
+            circuitBreaker.recordFailure(admitted);
+            return;
+          }
+
+          putStaleValue(key, value);
+
+          if (System.nanoTime() - started > budget) {
+            circuitBreaker.recordFailure(admitted);
+          } else {
+            circuitBreaker.recordSuccess(admitted);
+          }
+        });
+
+    try {
+      return future.get(timeout, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      logger.debug("Flag lookup exceeded its latency budget");
+    } catch (ExecutionException e) {
+      // The circuit breaker warns once failures persist
+      logger.debug("Flag lookup failed", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    return getStaleValue(key, defaultValue);
+  }
+
+  /*
+   * Forgets the last values of the flags, for every user, after a local write changed them
+   */
+  public void invalidateFlags(Collection<String> flagNames) {
+    if (staleValues.isEmpty()) {
+      return;
+    }
+
+    staleValues.keySet().removeIf(key -> flagNames.contains(key.flagName));
+  }
+
+  /*
+   * Forgets the last values of the flag for the users, after a local write changed them
+   */
+  public void invalidateUsers(String flagName, Collection<String> users) {
+    if (staleValues.isEmpty()) {
+      return;
+    }
+
+    for (String user : users) {
+      staleValues.remove(new Key(flagName, user));
+    }
+  }
+
+  /*
+   * Forgets the last values of the users, for every flag, after their segments changed
+   */
+  public void invalidateUsers(Collection<String> users) {
+    if (staleValues.isEmpty()) {
+      return;
+    }
+
+    staleValues.keySet().removeIf(key -> key.user != null && users.contains(key.user));
+  }
+
+  private Boolean getStaleValue(Key key, Boolean defaultValue) {
+    Boolean value = staleValues.get(key);
+
+    if (value == null) {
+      flagMetrics.recordCacheMiss(FlagMetrics.STALE_VALUE_CACHE);
+      return defaultValue;
+    }
+
+    flagMetrics.recordCacheHit(FlagMetrics.STALE_VALUE_CACHE);
+    return value;
+  }
+
+  private void putStaleValue(Key key, Boolean value) {
+    if (staleValues.put(key, value) != null || staleValues.size() <= maxStaleValues) {
+      return;
+    }
+
+    // A tenth is evicted at once, so that eviction is rare
+    Iterator<Key> keys = staleValues.keySet().iterator();
+
+    for (int evict = Math.max(1, maxStaleValues / 10); evict > 0 && keys.hasNext(); evict--) {
+      keys.next();
+      keys.remove();
+    }
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+/*
+ * Receives the measurements of the library, implementations must not block.
+ *
+ * Declare a bean of this type to collect them, MicrometerFlagMetrics publishes them to a
+ * MeterRegistry. Without one nothing is recorded.
+ */
+public interface FlagMetrics {
+  String FLAG_STATE_CACHE = "flag-state";
+  String USER_VALUE_CACHE = "user-values";
+  String FLAG_VALUE_CACHE = "flag-values";
+  String STALE_VALUE_CACHE = "stale-values";
+
+  FlagMetrics NOOP = new FlagMetrics() {};
+
+  /*
+   * The duration of one call of an operation such as getValue or setValue
+   */
+  default void recordLatency(String operation, long nanos) {}
+
+  /*
+   * The SQL statements one call prepared, only recorded with FlagStatementInspector installed
+   */
+  default void recordStatements(String operation, long statements) {}
+
+  /*
+   * One more attempt of an operation after a failed one
+   */
+  default void recordRetry(String operation) {}
+
+  default void recordCacheHit(String cache) {}
+
+  default void recordCacheMiss(String cache) {}
+
+  default void recordCacheEviction(String cache, long entries) {}
+}
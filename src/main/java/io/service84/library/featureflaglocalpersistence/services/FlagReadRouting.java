@@ -0,0 +1,117 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/*
+ * Decides whether the read-only transactions of evaluations run on the replica, see
+ * FlagRoutingDataSource.
+ *
+ * Reads go to the primary for the replica lag after every local mutation, so that this node
+ * reads its own writes. Reads that join a transaction of the caller stay on its connection.
+ */
+@Service("7C3E9A15-D28B-4F60-B4A7-E15F02C8D963")
+public class FlagReadRouting {
+  private static final Logger logger = LoggerFactory.getLogger(FlagReadRouting.class);
+  private static final ThreadLocal<Boolean> replicaRead = ThreadLocal.withInitial(() -> false);
+
+  /*
+   * Stands in for an undeclared bean, every read goes to the primary
+   */
+  public static final FlagReadRouting DISABLED = new FlagReadRouting();
+
+  @Value("${io.service84.library.featureflaglocalpersistence.routing.enabled:false}")
+  private Boolean enabled = Boolean.FALSE;
+
+  @Value("${io.service84.library.featureflaglocalpersistence.routing.replica-lag:1000}")
+  private Long replicaLag;
+
+  private volatile long pinnedUntil = System.nanoTime();
+
+  /*
+   * True while the current thread runs a read that may be served by the replica
+   */
+  public static boolean isReplicaRead() {
+    return replicaRead.get();
+  }
+
+  public Boolean isEnabled() {
+    return enabled;
+  }
+
+  /*
+   * True while reads go to the primary after a local mutation
+   */
+  public boolean isPinned() {
+    return pinnedUntil - System.nanoTime() > 0;
+  }
+
+  /*
+   * Runs a read, on the replica unless pinned or already in a transaction
+   */
+  public <T> T route(Supplier<T> reader) {
+    if (!enabled || isPinned() || TransactionSynchronizationManager.isActualTransactionActive()) {
+      return reader.get();
+    }
+
+    replicaRead.set(true);
+
+    try {
+      return reader.get();
+    } finally {
+      replicaRead.set(false);
+    }
+  }
+
+  /*
+   * Pins reads to the primary for the replica lag, from the commit of the caller's transaction
+   * when there is one
+   */
+  public void pin() {
+    if (!enabled) {
+      return;
+    }
+
+    logger.debug("pin");
+    pinFor(replicaLag);
+
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+              pinFor(replicaLag);
+            }
+          });
+    }
+  }
+
+  private synchronized void pinFor(long milliseconds) {
+    long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(milliseconds);
+
+    if (until - pinnedUntil > 0) {
+      pinnedUntil = until;
+    }
+  }
+}
@@ -0,0 +1,314 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.service84.library.featureflaglocalpersistence.services;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.service84.library.featureflaglocalpersistence.services.FlagTransfer.Format;
+
+/*
+ * Writes and reads FlagRecords one at a time, so that neither holds more than one record.
+ *
+ * NDJSON is one JSON object per line with a type of flag, userValue, segmentMember or
+ * segmentValue. The binary format is magic and version, followed by one tag byte and the fields
+ * of each record, and an end tag. Strings are length prefixed UTF-8.
+ */
+final class FlagRecordCodec {
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+
+  private static final int MAGIC = 0x46464C45;
+  private static final int VERSION = 1;
+  private static final byte END = 0;
+  private static final byte FLAG = 1;
+  private static final byte USER_VALUE = 2;
+  private static final byte SEGMENT_MEMBER = 3;
+  private static final byte SEGMENT_VALUE = 4;
+  private static final byte NONE = 2;
+
+  private FlagRecordCodec() {}
+
+  /*
+   * Writes to the output, which is flushed but left open by finish
+   */
+  static FlagRecords writer(Format format, OutputStream output) throws IOException {
+    switch (format) {
+      case BINARY:
+        return new BinaryWriter(output);
+      case NDJSON:
+      default:
+        return new JsonWriter(output);
+    }
+  }
+
+  /*
+   * Reads every record of the input into the records, then finishes them
+   */
+  static void read(Format format, InputStream input, FlagRecords records) throws IOException {
+    switch (format) {
+      case BINARY:
+        readBinary(input, records);
+        break;
+      case NDJSON:
+      default:
+        readJson(input, records);
+        break;
+    }
+
+    records.finish();
+  }
+
+  private static final class JsonWriter implements FlagRecords {
+    private final Writer writer;
+
+    private JsonWriter(OutputStream output) {
+      writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void flag(String flagName, Boolean value, Double rolloutPercentage, String rolloutSalt)
+        throws IOException {
+      Map<String, Object> record = record("flag");
+      record.put("flag", flagName);
+      record.put("value", value);
+      record.put("rolloutPercentage", rolloutPercentage);
+      record.put("rolloutSalt", rolloutSalt);
+      write(record);
+    }
+
+    @Override
+    public void userValue(String flagName, String user, Boolean value) throws IOException {
+      Map<String, Object> record = record("userValue");
+      record.put("flag", flagName);
+      record.put("user", user);
+      record.put("value", value);
+      write(record);
+    }
+
+    @Override
+    public void segmentMember(String segmentName, String user) throws IOException {
+      Map<String, Object> record = record("segmentMember");
+      record.put("segment", segmentName);
+      record.put("user", user);
+      write(record);
+    }
+
+    @Override
+    public void segmentValue(String flagName, String segmentName, Boolean value)
+        throws IOException {
+      Map<String, Object> record = record("segmentValue");
+      record.put("flag", flagName);
+      record.put("segment", segmentName);
+      record.put("value", value);
+      write(record);
+    }
+
+    @Override
+    public void finish() throws IOException {
+      writer.flush();
+    }
+
+    private static Map<String, Object> record(String type) {
+      Map<String, Object> record = new LinkedHashMap<>();
+      record.put("type", type);
+      return record;
+    }
+
+    private void write(Map<String, Object> record) throws IOException {
+      writer.write(objectMapper.writeValueAsString(record));
+      writer.write('\n');
+    }
+  }
+
+  private static void readJson(InputStream input, FlagRecords records) throws IOException {
+    BufferedReader reader =
+        new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+    long lineNumber = 0;
+    String line;
+
+    while ((line = reader.readLine()) != null) {
+      lineNumber++;
+
+      if (line.trim().isEmpty()) {
+        continue;
+      }
+
+      JsonNode record = objectMapper.readTree(line);
+      String type = getText(record, "type");
+
+      if ("flag".equals(type)) {
+        JsonNode percentage = record.get("rolloutPercentage");
+        records.flag(
+            getText(record, "flag"),
+            getBoolean(record, "value"),
+            percentage == null || percentage.isNull() ? null : percentage.doubleValue(),
+            getText(record, "rolloutSalt"));
+      } else if ("userValue".equals(type)) {
+        records.userValue(
+            getText(record, "flag"), getText(record, "user"), getBoolean(record, "value"));
+      } else if ("segmentMember".equals(type)) {
+        records.segmentMember(getText(record, "segment"), getText(record, "user"));
+      } else if ("segmentValue".equals(type)) {
+        records.segmentValue(
+            getText(record, "flag"), getText(record, "segment"), getBoolean(record, "value"));
+      } else {
+        throw new IOException("Line " + lineNumber + " has unknown record type " + type);
+      }
+    }
+  }
+
+  private static String getText(JsonNode record, String field) {
+    JsonNode value = record.get(field);
+    return value == null || value.isNull() ? null : value.asText();
+  }
+
+  private static Boolean getBoolean(JsonNode record, String field) {
+    JsonNode value = record.get(field);
+    return value == null || value.isNull() ? null : value.booleanValue();
+  }
+
+  private static final class BinaryWriter implements FlagRecords {
+    private final DataOutputStream output;
+
+    private BinaryWriter(OutputStream output) throws IOException {
+      this.output = new DataOutputStream(new BufferedOutputStream(output));
+      this.output.writeInt(MAGIC);
+      this.output.writeInt(VERSION);
+    }
+
+    @Override
+    public void flag(String flagName, Boolean value, Double rolloutPercentage, String rolloutSalt)
+        throws IOException {
+      output.writeByte(FLAG);
+      putString(output, flagName);
+      putBoolean(output, value);
+      output.writeByte(rolloutPercentage == null ? 0 : 1);
+
+      if (rolloutPercentage != null) {
+        output.writeDouble(rolloutPercentage);
+        putString(output, rolloutSalt);
+      }
+    }
+
+    @Override
+    public void userValue(String flagName, String user, Boolean value) throws IOException {
+      output.writeByte(USER_VALUE);
+      putString(output, flagName);
+      putString(output, user);
+      putBoolean(output, value);
+    }
+
+    @Override
+    public void segmentMember(String segmentName, String user) throws IOException {
+      output.writeByte(SEGMENT_MEMBER);
+      putString(output, segmentName);
+      putString(output, user);
+    }
+
+    @Override
+    public void segmentValue(String flagName, String segmentName, Boolean value)
+        throws IOException {
+      output.writeByte(SEGMENT_VALUE);
+      putString(output, flagName);
+      putString(output, segmentName);
+      putBoolean(output, value);
+    }
+
+    @Override
+    public void finish() throws IOException {
+      output.writeByte(END);
+      output.flush();
+    }
+  }
+
+  private static void readBinary(InputStream input, FlagRecords records) throws IOException {
+    DataInputStream data = new DataInputStream(new BufferedInputStream(input));
+
+    if (data.readInt() != MAGIC) {
+      throw new IOException("Input is not a flag export");
+    }
+
+    int version = data.readInt();
+
+    if (version != VERSION) {
+      throw new IOException("Flag export has unknown version " + version);
+    }
+
+    // A truncated input ends in an EOFException before the end tag
+    for (byte tag = data.readByte(); tag != END; tag = data.readByte()) {
+      switch (tag) {
+        case FLAG:
+          String flagName = getString(data);
+          Boolean value = getBoolean(data);
+
+          if (data.readByte() == 1) {
+            double percentage = data.readDouble();
+            records.flag(flagName, value, percentage, getString(data));
+          } else {
+            records.flag(flagName, value, null, null);
+          }
+
+          break;
+        case USER_VALUE:
+          records.userValue(getString(data), getString(data), getBoolean(data));
+          break;
+        case SEGMENT_MEMBER:
+          records.segmentMember(getString(data), getString(data));
+          break;
+        case SEGMENT_VALUE:
+          records.segmentValue(getString(data), getString(data), getBoolean(data));
+          break;
+        default:
+          throw new IOException("Flag export has unknown record tag " + tag);
+      }
+    }
+  }
+
+  private static String getString(DataInputStream input) throws IOException {
+    byte[] bytes = new byte[input.readInt()];
+    input.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static Boolean getBoolean(DataInputStream input) throws IOException {
+    byte value = input.readByte();
+    return value == NONE ? null : value == 1;
+  }
+
+  private static void putString(DataOutputStream output, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    output.writeInt(bytes.length);
+    output.write(bytes);
+  }
+
+  private static void putBoolean(DataOutputStream output, Boolean value) throws IOException {
+    output.writeByte(value == null ? NONE : value ? 1 : 0);
+  }
+}
@@ -0,0 +1,37 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.service84.library.featureflaglocalpersistence.services;
+
+import java.io.IOException;
+
+/*
+ * The records of an export, in the order they are written: every flag, then the
+ * FlagUserValues, the SegmentMembers and the FlagSegmentValues. The FlagUserValues of a flag
+ * and the SegmentMembers of a segment are adjacent.
+ */
+interface FlagRecords {
+  void flag(String flagName, Boolean value, Double rolloutPercentage, String rolloutSalt)
+      throws IOException;
+
+  void userValue(String flagName, String user, Boolean value) throws IOException;
+
+  void segmentMember(String segmentName, String user) throws IOException;
+
+  void segmentValue(String flagName, String segmentName, Boolean value) throws IOException;
+
+  /*
+   * Called once after the last record
+   */
+  void finish() throws IOException;
+}
@@ -0,0 +1,124 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.service84.library.featureflaglocalpersistence.persistence.models.Flag;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagRepository;
+
+/*
+ * Registers unknown flag names in the background so that evaluation never writes.
+ * Each name is queued at most once while its registration is outstanding.
+ */
+@Service("DB5E114F-8B0C-4FE5-9B56-AA3A6361A573")
+public class FlagRegistrar implements InitializingBean, DisposableBean {
+  private static final Logger logger = LoggerFactory.getLogger(FlagRegistrar.class);
+
+  @Autowired private FlagRepository flagRepository;
+  @Autowired private PlatformTransactionManager transactionManager;
+  @Autowired private UserValueCache userValueCache;
+
+  @Autowired(required = false)
+  private FlagStateCache flagStateCache = FlagStateCache.DISABLED;
+
+  @Autowired(required = false)
+  private FlagChangeLog flagChangeLog = FlagChangeLog.DISABLED;
+
+  @Value("${io.service84.library.featureflaglocalpersistence.registrar.capacity:1024}")
+  private Integer capacity;
+
+  private final Set<String> pending = ConcurrentHashMap.newKeySet();
+  private ThreadPoolExecutor executor;
+
+  @Override
+  public void afterPropertiesSet() throws Exception {
+    executor =
+        new ThreadPoolExecutor(
+            1,
+            1,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(capacity),
+            runnable -> {
+              Thread thread = new Thread(runnable, "FlagRegistrar");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  public void register(String flagName) {
+    logger.debug("register");
+
+    if (!pending.add(flagName)) {
+      return;
+    }
+
+    try {
+      executor.execute(() -> registerHelper(flagName));
+    } catch (RejectedExecutionException e) {
+      // The queue is full, a later evaluation of this flag will try again
+      pending.remove(flagName);
+    }
+  }
+
+  public Boolean isPending(String flagName) {
+    return pending.contains(flagName);
+  }
+
+  private void registerHelper(String flagName) {
+    try {
+      if (flagRepository.getByName(flagName).isEmpty()) {
+        new TransactionTemplate(transactionManager)
+            .execute(
+                status -> {
+                  flagChangeLog.appendValue(flagName);
+                  return flagRepository.saveAndFlush(new Flag(flagName));
+                });
+      }
+
+      // Evaluations that found the flag unknown read it again, as registerFlag does
+      flagStateCache.applyFlag(flagName);
+      userValueCache.invalidateFlagValues();
+    } catch (Exception e) {
+      // This is a catch all, Transaction issues, Unique Violation, and others
+      // A Unique Violation means another node registered the flag first
+      logger.debug("Flag registration failed", e);
+    } finally {
+      pending.remove(flagName);
+    }
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    executor.shutdown();
+    executor.awaitTermination(5, TimeUnit.SECONDS);
+  }
+}
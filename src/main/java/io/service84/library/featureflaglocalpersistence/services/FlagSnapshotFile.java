@@ -0,0 +1,308 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import io.service84.library.featureflaglocalpersistence.services.FlagStateCache.FlagSnapshot;
+import io.service84.library.featureflaglocalpersistence.services.FlagStateCache.FlagState;
+
+/*
+ * Saves the flag state snapshot to a local file and reads it back at startup, so that
+ * evaluations can be served before, or without, the first load from the repositories.
+ *
+ * The file is a header of magic, version, time written, payload length and CRC32 of the
+ * payload, followed by the payload of every flag with its FlagValue, FlagRollout,
+ * FlagSegmentValues and FlagUserValues, and of every segment with its members. Files of an
+ * earlier version are ignored.
+ */
+@Service("A3D6F2B8-47C1-4E09-9B5A-6E8C1F7D2B40")
+public class FlagSnapshotFile {
+  private static final Logger logger = LoggerFactory.getLogger(FlagSnapshotFile.class);
+
+  /*
+   * Stands in for an undeclared bean, it has no path so nothing is read or saved
+   */
+  public static final FlagSnapshotFile DISABLED = new FlagSnapshotFile();
+
+  private static final int MAGIC = 0x46464C53;
+  private static final int VERSION = 3;
+  private static final int HEADER_LENGTH = 4 + 4 + 8 + 8 + 8;
+  private static final byte NONE = 2;
+
+  @Value("${io.service84.library.featureflaglocalpersistence.snapshot-file.path:}")
+  private String path = "";
+
+  @Value("${io.service84.library.featureflaglocalpersistence.snapshot-file.write-interval:300000}")
+  private Long writeInterval;
+
+  @Value("${io.service84.library.featureflaglocalpersistence.snapshot-file.max-age:86400000}")
+  private Long maxAge;
+
+  private long lastWritten;
+
+  public Boolean isEnabled() {
+    return !path.isEmpty();
+  }
+
+  /*
+   * The saved snapshot, empty when there is none or it is unreadable, corrupt or too old
+   */
+  public Optional<FlagSnapshot> read() {
+    logger.debug("read");
+
+    if (!isEnabled() || !Files.isRegularFile(Paths.get(path))) {
+      return Optional.empty();
+    }
+
+    try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return Optional.ofNullable(decode(buffer));
+    } catch (Exception e) {
+      // This is a catch all, a bad file is only a missed head start
+      logger.warn("Flag snapshot file could not be read", e);
+      return Optional.empty();
+    }
+  }
+
+  /*
+   * Saves the snapshot unless one was saved within the write interval
+   */
+  public synchronized void save(FlagSnapshot snapshot) {
+    if (!isEnabled() || System.currentTimeMillis() - lastWritten < writeInterval) {
+      return;
+    }
+
+    logger.debug("save");
+    Path target = Paths.get(path);
+
+    try {
+      byte[] payload = encode(snapshot);
+      CRC32 checksum = new CRC32();
+      checksum.update(payload);
+      long written = System.currentTimeMillis();
+      ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+      header.putInt(MAGIC).putInt(VERSION).putLong(written);
+      header.putLong(payload.length).putLong(checksum.getValue());
+      header.flip();
+
+      // Readers only ever see a complete file, the new one replaces the old in one move
+      Path temporary = Paths.get(path + ".tmp");
+
+      try (FileChannel channel =
+          FileChannel.open(
+              temporary,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.TRUNCATE_EXISTING,
+              StandardOpenOption.WRITE)) {
+        channel.write(new ByteBuffer[] {header, ByteBuffer.wrap(payload)});
+        channel.force(true);
+      }
+
+      Files.move(
+          temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      lastWritten = written;
+    } catch (IOException e) {
+      logger.warn("Flag snapshot file could not be written", e);
+    }
+  }
+
+  private FlagSnapshot decode(ByteBuffer buffer) {
+    if (buffer.remaining() < HEADER_LENGTH || buffer.getInt() != MAGIC) {
+      logger.warn("Flag snapshot file {} is not a snapshot", path);
+      return null;
+    }
+
+    int version = buffer.getInt();
+
+    if (version != VERSION) {
+      logger.warn("Flag snapshot file {} has unknown version {}", path, version);
+      return null;
+    }
+
+    long written = buffer.getLong();
+    long length = buffer.getLong();
+    long expected = buffer.getLong();
+
+    if (System.currentTimeMillis() - written > maxAge) {
+      logger.info("Flag snapshot file {} is older than its maximum age", path);
+      return null;
+    }
+
+    if (length != buffer.remaining()) {
+      logger.warn("Flag snapshot file {} is truncated", path);
+      return null;
+    }
+
+    CRC32 checksum = new CRC32();
+    checksum.update(buffer.duplicate());
+
+    if (checksum.getValue() != expected) {
+      logger.warn("Flag snapshot file {} failed its checksum", path);
+      return null;
+    }
+
+    int flagCount = buffer.getInt();
+    Map<String, FlagState> flags = new HashMap<>(flagCount * 2);
+
+    for (int flag = 0; flag < flagCount; flag++) {
+      String flagName = getString(buffer);
+      Boolean value = getBoolean(buffer);
+      RolloutRule rollout = null;
+
+      if (buffer.get() == 1) {
+        double percentage = buffer.getDouble();
+        rollout = RolloutRule.of(percentage, getString(buffer));
+      }
+
+      int segmentValueCount = buffer.getInt();
+      SegmentValues segmentValues = SegmentValues.EMPTY;
+
+      for (int segmentValue = 0; segmentValue < segmentValueCount; segmentValue++) {
+        segmentValues = segmentValues.with(getString(buffer), getBoolean(buffer));
+      }
+
+      boolean userValuesComplete = buffer.get() == 1;
+      int userValueCount = buffer.getInt();
+      UserValueIndex.Builder userValues = new UserValueIndex.Builder(userValueCount);
+
+      for (int userValue = 0; userValue < userValueCount; userValue++) {
+        userValues.put(getString(buffer), getBoolean(buffer));
+      }
+
+      flags.put(
+          flagName,
+          FlagStateCache.flagState(
+              value, userValues.build(), userValuesComplete, rollout, segmentValues));
+    }
+
+    int segmentCount = buffer.getInt();
+    Map<String, UserValueIndex> segments = new HashMap<>(segmentCount * 2);
+
+    for (int segment = 0; segment < segmentCount; segment++) {
+      String segmentName = getString(buffer);
+      int memberCount = buffer.getInt();
+      UserValueIndex.Builder members = new UserValueIndex.Builder(memberCount);
+
+      for (int member = 0; member < memberCount; member++) {
+        members.put(getString(buffer), Boolean.TRUE);
+      }
+
+      segments.put(segmentName, members.build());
+    }
+
+    return FlagStateCache.flagSnapshot(flags, segments);
+  }
+
+  private byte[] encode(FlagSnapshot snapshot) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream output = new DataOutputStream(bytes);
+    output.writeInt(snapshot.getFlagCount());
+
+    for (String flagName : snapshot.getFlagNames()) {
+      FlagState flagState = snapshot.getFlagState(flagName);
+      putString(output, flagName);
+      putBoolean(output, flagState.getValue());
+      RolloutRule rollout = flagState.getRollout();
+      output.writeByte(rollout == null ? 0 : 1);
+
+      if (rollout != null) {
+        output.writeDouble(rollout.getPercentage());
+        putString(output, rollout.getSalt());
+      }
+
+      SegmentValues segmentValues = flagState.getSegmentValues();
+      output.writeInt(segmentValues.size());
+      segmentValues.forEach((segmentName, value) -> putUserValue(output, segmentName, value));
+      output.writeByte(flagState.isUserValuesComplete() ? 1 : 0);
+      output.writeInt(flagState.getUserValueCount());
+
+      flagState.forEachUserValue((user, value) -> putUserValue(output, user, value));
+    }
+
+    output.writeInt(snapshot.getSegmentNames().size());
+
+    for (String segmentName : snapshot.getSegmentNames()) {
+      UserValueIndex members = snapshot.getSegmentMembers(segmentName);
+      putString(output, segmentName);
+      output.writeInt(members.size());
+      members.forEach((user, value) -> putMember(output, user));
+    }
+
+    output.flush();
+    return bytes.toByteArray();
+  }
+
+  private static String getString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static Boolean getBoolean(ByteBuffer buffer) {
+    byte value = buffer.get();
+    return value == NONE ? null : value == 1;
+  }
+
+  private static void putUserValue(DataOutputStream output, String user, Boolean value) {
+    try {
+      putString(output, user);
+      putBoolean(output, value);
+    } catch (IOException e) {
+      // Writes to a ByteArrayOutputStream do not fail
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static void putMember(DataOutputStream output, String user) {
+    try {
+      putString(output, user);
+    } catch (IOException e) {
+      // Writes to a ByteArrayOutputStream do not fail
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static void putString(DataOutputStream output, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    output.writeInt(bytes.length);
+    output.write(bytes);
+  }
+
+  private static void putBoolean(DataOutputStream output, Boolean value) throws IOException {
+    output.writeByte(value == null ? NONE : value ? 1 : 0);
+  }
+}
@@ -0,0 +1,867 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.UnaryOperator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagRepository;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagSegmentValueRepository;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagSegmentValueRepository.FlagSegmentNameValue;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagRolloutRepository;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagRolloutRepository.FlagNameRollout;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagUserValueRepository;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagUserValueRepository.FlagNameCount;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagUserValueRepository.UserValue;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagValueRepository;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagValueRepository.FlagNameValue;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.SegmentMemberRepository;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.SegmentRepository;
+
+/*
+ * Holds an immutable snapshot of every Flag, its FlagValue, FlagUserValues and FlagSegmentValues,
+ * and of the members of every Segment.
+ * Readers never lock, the snapshot is replaced as a whole on refresh and on local mutation.
+ */
+@Service("9F81AF9E-99E2-474A-AC1E-FCD701AFF49E")
+public class FlagStateCache implements InitializingBean, DisposableBean {
+  private static final Logger logger = LoggerFactory.getLogger(FlagStateCache.class);
+
+  /*
+   * Stands in for an undeclared bean, it never loads a snapshot and ignores every mutation
+   */
+  public static final FlagStateCache DISABLED = new FlagStateCache();
+  private static final int FILTER_PAGE_SIZE = 10000;
+
+  public static final class FlagState {
+    private static final FlagState EMPTY =
+        new FlagState(null, UserValueIndex.EMPTY, true, null, null, SegmentValues.EMPTY);
+
+    private final Boolean value;
+    private final UserValueIndex userValues;
+    private final boolean userValuesComplete;
+    private final UserBloomFilter userFilter;
+    private final RolloutRule rollout;
+    private final SegmentValues segmentValues;
+
+    private FlagState(
+        Boolean value,
+        UserValueIndex userValues,
+        boolean userValuesComplete,
+        UserBloomFilter userFilter,
+        RolloutRule rollout,
+        SegmentValues segmentValues) {
+      this.value = value;
+      this.userValues = userValues;
+      this.userValuesComplete = userValuesComplete;
+      this.userFilter = userFilter;
+      this.rollout = rollout;
+      this.segmentValues = segmentValues;
+    }
+
+    /*
+     * The FlagValue of this flag, null when it has none
+     */
+    public Boolean getValue() {
+      return value;
+    }
+
+    /*
+     * The FlagUserValue of this user, null when it is not held in memory
+     */
+    public Boolean getUserValue(String user) {
+      return userValues.get(user);
+    }
+
+    /*
+     * True when the rollout of this flag includes the user, which takes precedence over the
+     * FlagValue but not over a FlagUserValue
+     */
+    public boolean isRolledOut(String user) {
+      return rollout != null && rollout.includes(user);
+    }
+
+    /*
+     * False when some FlagUserValues were evicted and must be read from the repository
+     */
+    public Boolean isUserValuesComplete() {
+      return userValuesComplete;
+    }
+
+    /*
+     * True when a user whose FlagUserValue is not held in memory may have one in the repository
+     */
+    public boolean isUserValueUnknown(String user) {
+      return !userValuesComplete && (userFilter == null || userFilter.mightContain(user));
+    }
+
+    public Integer getUserValueCount() {
+      return userValues.size();
+    }
+
+    /*
+     * Bytes held by the FlagUserValues and the user filter of this flag
+     */
+    public Long getUserValueFootprint() {
+      return userValues.getFootprint() + (userFilter == null ? 0 : userFilter.getFootprint());
+    }
+
+    /*
+     * Visits the FlagUserValues held in memory, each identity is a new String
+     */
+    public void forEachUserValue(BiConsumer<String, Boolean> action) {
+      userValues.forEach(action);
+    }
+
+    RolloutRule getRollout() {
+      return rollout;
+    }
+
+    UserBloomFilter getUserFilter() {
+      return userFilter;
+    }
+
+    SegmentValues getSegmentValues() {
+      return segmentValues;
+    }
+
+    private FlagState withValue(Boolean value) {
+      return new FlagState(
+          value, userValues, userValuesComplete, userFilter, rollout, segmentValues);
+    }
+
+    private FlagState withRollout(RolloutRule rollout) {
+      return new FlagState(
+          value, userValues, userValuesComplete, userFilter, rollout, segmentValues);
+    }
+
+    private FlagState withSegmentValues(SegmentValues segmentValues) {
+      return new FlagState(
+          value, userValues, userValuesComplete, userFilter, rollout, segmentValues);
+    }
+
+    private FlagState withUserValue(String user, Boolean value) {
+      return withUserValues(Collections.singletonMap(user, value));
+    }
+
+    private FlagState withUserValues(Map<String, Boolean> values) {
+      if (userFilter != null) {
+        values.keySet().forEach(userFilter::put);
+      }
+
+      return new FlagState(
+          value,
+          userValues.with(values, Collections.emptySet()),
+          userValuesComplete,
+          userFilter,
+          rollout,
+          segmentValues);
+    }
+
+    private FlagState withoutUserValues(Collection<String> users) {
+      return new FlagState(
+          value,
+          userValues.with(Collections.emptyMap(), users),
+          userValuesComplete,
+          userFilter,
+          rollout,
+          segmentValues);
+    }
+
+    private FlagState withoutUserValue(String user) {
+      if (userValues.get(user) == null) {
+        return this;
+      }
+
+      return withoutUserValues(Collections.singleton(user));
+    }
+
+    /*
+     * Users whose FlagUserValues changed without the values being read, they stay unknown
+     */
+    private FlagState withUnknownUserValues(Collection<String> users) {
+      if (userValuesComplete) {
+        // Held values may be out of date, none is trusted until the refresh
+        return withAllUserValuesUnknown();
+      }
+
+      if (userFilter != null) {
+        users.forEach(userFilter::put);
+      }
+
+      return this;
+    }
+
+    /*
+     * Every user is unknown, the FlagUserValues are read from the repository until the refresh
+     */
+    private FlagState withAllUserValuesUnknown() {
+      return new FlagState(value, UserValueIndex.EMPTY, false, null, rollout, segmentValues);
+    }
+
+    private FlagState withoutUserValues() {
+      return new FlagState(value, UserValueIndex.EMPTY, true, null, rollout, segmentValues);
+    }
+
+    private FlagState withOnlyUserValues(Map<String, Boolean> values) {
+      return new FlagState(value, UserValueIndex.of(values), true, null, rollout, segmentValues);
+    }
+
+    private FlagState evicted(UserBloomFilter userFilter) {
+      return new FlagState(value, UserValueIndex.EMPTY, false, userFilter, rollout, segmentValues);
+    }
+  }
+
+  static FlagState flagState(
+      Boolean value,
+      UserValueIndex userValues,
+      boolean userValuesComplete,
+      RolloutRule rollout,
+      SegmentValues segmentValues) {
+    return new FlagState(value, userValues, userValuesComplete, null, rollout, segmentValues);
+  }
+
+  static FlagSnapshot flagSnapshot(
+      Map<String, FlagState> flags, Map<String, UserValueIndex> segments) {
+    long userValueCount = 0;
+
+    for (FlagState flagState : flags.values()) {
+      userValueCount += flagState.userValues.size();
+    }
+
+    return new FlagSnapshot(flags, segments, userValueCount);
+  }
+
+  public static final class FlagSnapshot {
+    private final Map<String, FlagState> flags;
+    private final Map<String, UserValueIndex> segments;
+    private final long userValueCount;
+
+    private FlagSnapshot(
+        Map<String, FlagState> flags, Map<String, UserValueIndex> segments, long userValueCount) {
+      this.flags = flags;
+      this.segments = segments;
+      this.userValueCount = userValueCount;
+    }
+
+    public FlagState getFlagState(String flagName) {
+      return flags.get(flagName);
+    }
+
+    /*
+     * The FlagSegmentValue of the segments of this user, null when the user is in none of them
+     */
+    public Boolean getSegmentValue(FlagState flagState, String user) {
+      return flagState.segmentValues.get(segments, user);
+    }
+
+    public Set<String> getSegmentNames() {
+      return Collections.unmodifiableSet(segments.keySet());
+    }
+
+    UserValueIndex getSegmentMembers(String segmentName) {
+      return segments.get(segmentName);
+    }
+
+    public Set<String> getFlagNames() {
+      return Collections.unmodifiableSet(flags.keySet());
+    }
+
+    public Integer getFlagCount() {
+      return flags.size();
+    }
+
+    public Long getUserValueCount() {
+      return userValueCount;
+    }
+
+    /*
+     * Bytes held by the FlagUserValues of every flag
+     */
+    public Long getUserValueFootprint() {
+      long footprint = 0;
+
+      for (FlagState flagState : flags.values()) {
+        footprint += flagState.userValues.getFootprint();
+      }
+
+      return footprint;
+    }
+
+    private FlagSnapshot with(Map<String, FlagState> flagStates) {
+      Map<String, FlagState> copy = new HashMap<>(flags);
+      long count = userValueCount;
+
+      for (Map.Entry<String, FlagState> entry : flagStates.entrySet()) {
+        FlagState previous = copy.put(entry.getKey(), entry.getValue());
+        count -= previous == null ? 0 : previous.userValues.size();
+        count += entry.getValue().userValues.size();
+      }
+
+      return new FlagSnapshot(copy, segments, count);
+    }
+
+    private FlagSnapshot withSegment(String segmentName, UserValueIndex members) {
+      Map<String, UserValueIndex> copy = new HashMap<>(segments);
+      copy.put(segmentName, members);
+      return new FlagSnapshot(flags, copy, userValueCount);
+    }
+  }
+
+  /*
+   * A local mutation, replayed over every refresh that started before it committed
+   */
+  private static final class Mutation {
+    private final UnaryOperator<FlagSnapshot> operation;
+    private long committed = Long.MAX_VALUE;
+
+    private Mutation(UnaryOperator<FlagSnapshot> operation) {
+      this.operation = operation;
+    }
+  }
+
+  @Autowired private FlagRepository flagRepository;
+  @Autowired private FlagValueRepository fvRepository;
+  @Autowired private FlagRolloutRepository frRepository;
+  @Autowired private FlagUserValueRepository fuvRepository;
+  @Autowired private SegmentRepository segmentRepository;
+  @Autowired private SegmentMemberRepository smRepository;
+  @Autowired private FlagSegmentValueRepository fsvRepository;
+
+  @Autowired(required = false)
+  private FlagSnapshotFile snapshotFile = FlagSnapshotFile.DISABLED;
+
+  @Autowired(required = false)
+  private FlagMetrics flagMetrics = FlagMetrics.NOOP;
+
+  @Value("${io.service84.library.featureflaglocalpersistence.cache.enabled:false}")
+  private Boolean enabled = Boolean.FALSE;
+
+  @Value("${io.service84.library.featureflaglocalpersistence.cache.refresh-interval:30000}")
+  private Long refreshInterval;
+
+  @Value("${io.service84.library.featureflaglocalpersistence.cache.max-user-values:1000000}")
+  private Long maxUserValues;
+
+  @Value(
+      "${io.service84.library.featureflaglocalpersistence.cache.max-user-values-per-flag:100000}")
+  private Long maxUserValuesPerFlag;
+
+  @Value(
+      "${io.service84.library.featureflaglocalpersistence.cache.bloom-filter"
+          + ".false-positive-rate:0.01}")
+  private Double falsePositiveRate;
+
+  @Value("${io.service84.library.featureflaglocalpersistence.change-log.enabled:false}")
+  private Boolean changeLogEnabled = Boolean.FALSE;
+
+  private final Object lock = new Object();
+  private volatile FlagSnapshot snapshot;
+  private final List<Mutation> recentMutations = new ArrayList<>();
+  private long generation;
+  // Advanced whenever the change log may have missed changes that the user filters lack
+  private volatile long filterEpoch;
+  private ScheduledExecutorService scheduler;
+
+  @Override
+  public void afterPropertiesSet() throws Exception {
+    if (!enabled) {
+      return;
+    }
+
+    scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "FlagStateCache");
+              thread.setDaemon(true);
+              return thread;
+            });
+    Optional<FlagSnapshot> saved = snapshotFile.read();
+
+    if (saved.isPresent()) {
+      // Evaluations are served from the saved snapshot while the first refresh runs
+      snapshot = saved.get();
+      scheduler.execute(this::refresh);
+    } else {
+      refresh();
+    }
+
+    scheduler.scheduleWithFixedDelay(
+        this::refresh, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+
+  public Boolean isEnabled() {
+    return enabled;
+  }
+
+  /*
+   * The current snapshot, null when disabled or not yet loaded
+   */
+  public FlagSnapshot getSnapshot() {
+    return snapshot;
+  }
+
+  /*
+   * The state of the named flag, null when the flag is unknown or no snapshot is loaded
+   */
+  public FlagState getFlagState(String flagName) {
+    FlagSnapshot current = snapshot;
+    return current == null ? null : current.getFlagState(flagName);
+  }
+
+  public synchronized void refresh() {
+    logger.debug("refresh");
+
+    if (!enabled) {
+      return;
+    }
+
+    long started;
+
+    synchronized (lock) {
+      started = ++generation;
+    }
+
+    try {
+      FlagSnapshot loaded = load();
+
+      synchronized (lock) {
+        // Mutations committed after the load started may be missing from it
+        for (Mutation mutation : recentMutations) {
+          if (mutation.committed >= started) {
+            loaded = mutation.operation.apply(loaded);
+          }
+        }
+
+        recentMutations.removeIf(mutation -> mutation.committed < started);
+        snapshot = loaded;
+      }
+
+      logger.debug(
+          "refresh loaded {} flags and {} user values in {} bytes",
+          loaded.getFlagCount(),
+          loaded.getUserValueCount(),
+          loaded.getUserValueFootprint());
+      snapshotFile.save(loaded);
+    } catch (Exception e) {
+      // This is a catch all, the previous snapshot is kept until the next refresh
+      logger.warn("Flag state refresh failed", e);
+    }
+  }
+
+  private FlagSnapshot load() {
+    FlagSnapshot previous = snapshot;
+    long epoch = filterEpoch;
+    Map<String, Boolean> values = new HashMap<>();
+
+    for (FlagNameValue flagNameValue : fvRepository.findAllFlagNameValues()) {
+      values.put(flagNameValue.getFlagName(), flagNameValue.getFlagValue());
+    }
+
+    Map<String, RolloutRule> rollouts = new HashMap<>();
+
+    for (FlagNameRollout flagNameRollout : frRepository.findAllFlagNameRollouts()) {
+      rollouts.put(
+          flagNameRollout.getFlagName(),
+          RolloutRule.of(flagNameRollout.getPercentage(), flagNameRollout.getSalt()));
+    }
+
+    Map<String, SegmentValues> segmentValues = new HashMap<>();
+
+    for (FlagSegmentNameValue segmentValue : fsvRepository.findAllFlagSegmentValues()) {
+      String flagName = segmentValue.getFlagName();
+      segmentValues.put(
+          flagName,
+          segmentValues
+              .getOrDefault(flagName, SegmentValues.EMPTY)
+              .with(segmentValue.getSegmentName(), segmentValue.getSegmentValue()));
+    }
+
+    Map<String, FlagState> flags = new HashMap<>();
+
+    for (String flagName : flagRepository.findAllNames()) {
+      flags.put(
+          flagName,
+          new FlagState(
+              values.get(flagName),
+              UserValueIndex.EMPTY,
+              true,
+              null,
+              rollouts.get(flagName),
+              segmentValues.getOrDefault(flagName, SegmentValues.EMPTY)));
+    }
+
+    // Segment members are held in full, a segment stands in for a FlagUserValue per member
+    Map<String, UserValueIndex> segments = new HashMap<>();
+
+    for (String segmentName : segmentRepository.findAllNames()) {
+      segments.put(segmentName, members(smRepository.findUserIdentitiesBySegmentName(segmentName)));
+    }
+
+    // Smallest flags first, the largest are evicted once the budget is spent
+    List<FlagNameCount> counts = new ArrayList<>(fuvRepository.countGroupByFlagName());
+    counts.sort(Comparator.comparing(FlagNameCount::getUserValueCount));
+    long userValueCount = 0;
+
+    for (FlagNameCount count : counts) {
+      String flagName = count.getFlagName();
+      FlagState flagState = flags.getOrDefault(flagName, FlagState.EMPTY);
+
+      if (count.getUserValueCount() > maxUserValuesPerFlag
+          || userValueCount + count.getUserValueCount() > maxUserValues) {
+        UserBloomFilter userFilter =
+            loadUserFilter(previous, flagName, count.getUserValueCount(), epoch);
+        flags.put(flagName, flagState.evicted(userFilter));
+        continue;
+      }
+
+      UserValueIndex.Builder builder =
+          new UserValueIndex.Builder(count.getUserValueCount().intValue());
+
+      for (UserValue userValue : fuvRepository.findUserValuesByFlagName(flagName)) {
+        builder.put(userValue.getUserIdentity(), userValue.getUserValue());
+      }
+
+      UserValueIndex userValues = builder.build();
+      flags.put(
+          flagName,
+          new FlagState(
+              flagState.value, userValues, true, null, flagState.rollout, flagState.segmentValues));
+      userValueCount += userValues.size();
+    }
+
+    return new FlagSnapshot(flags, segments, userValueCount);
+  }
+
+  private static UserValueIndex members(Collection<String> users) {
+    UserValueIndex.Builder builder = new UserValueIndex.Builder(users.size());
+    users.forEach(user -> builder.put(user, Boolean.TRUE));
+    return builder.build();
+  }
+
+  /*
+   * Reads the identities of every user with a FlagUserValue, page by page. The filter of the
+   * previous snapshot is kept instead while its count is unchanged and the change log put every
+   * user changed since into it.
+   */
+  private UserBloomFilter loadUserFilter(
+      FlagSnapshot previous, String flagName, long userValueCount, long epoch) {
+    if (falsePositiveRate <= 0) {
+      return null;
+    }
+
+    FlagState previousState = previous == null ? null : previous.getFlagState(flagName);
+
+    if (changeLogEnabled
+        && previousState != null
+        && previousState.userFilter != null
+        && previousState.userFilter.isCurrent(userValueCount, epoch)) {
+      return previousState.userFilter;
+    }
+
+    UserBloomFilter userFilter = new UserBloomFilter(userValueCount, falsePositiveRate, epoch);
+    Pageable page = PageRequest.of(0, FILTER_PAGE_SIZE);
+    List<String> users = fuvRepository.findUserIdentitiesByFlagName(flagName, page);
+
+    while (!users.isEmpty()) {
+      users.forEach(userFilter::put);
+
+      if (users.size() < FILTER_PAGE_SIZE) {
+        break;
+      }
+
+      String after = users.get(users.size() - 1);
+      users = fuvRepository.findUserIdentitiesByFlagNameAfter(flagName, after, page);
+    }
+
+    return userFilter;
+  }
+
+  /*
+   * A flag whose FlagUserValues were all held is filtered by exactly those users
+   */
+  private FlagState evict(FlagState flagState) {
+    UserBloomFilter userFilter = flagState.userFilter;
+
+    if (userFilter == null && flagState.userValuesComplete && falsePositiveRate > 0) {
+      UserBloomFilter built = new UserBloomFilter(flagState.userValues.size(), falsePositiveRate);
+      flagState.userValues.forEach((user, value) -> built.put(user));
+      userFilter = built;
+    }
+
+    flagMetrics.recordCacheEviction(FlagMetrics.FLAG_STATE_CACHE, flagState.userValues.size());
+    return flagState.evicted(userFilter);
+  }
+
+  /*
+   * The change log may have missed changes, every user filter is read again by the next refresh
+   */
+  public void invalidateUserFilters() {
+    synchronized (lock) {
+      filterEpoch++;
+    }
+  }
+
+  public void applyFlag(String flagName) {
+    apply(flagName, UnaryOperator.identity());
+  }
+
+  public void applyValue(String flagName, Boolean value) {
+    apply(flagName, flagState -> flagState.withValue(value));
+  }
+
+  /*
+   * Sets the rollout of a flag, a null percentage removes it
+   */
+  public void applyRollout(String flagName, Double percentage, String salt) {
+    RolloutRule rollout = RolloutRule.of(percentage, salt);
+    apply(flagName, flagState -> flagState.withRollout(rollout));
+  }
+
+  /*
+   * Sets the FlagSegmentValue of a flag for one segment, a null value removes it
+   */
+  public void applySegmentValue(String flagName, String segmentName, Boolean value) {
+    apply(
+        flagName,
+        flagState -> flagState.withSegmentValues(flagState.segmentValues.with(segmentName, value)));
+  }
+
+  /*
+   * Replaces every FlagSegmentValue of a flag
+   */
+  public void applyReplaceSegmentValues(String flagName, Map<String, Boolean> segmentValues) {
+    SegmentValues replaced = SegmentValues.of(segmentValues);
+    apply(flagName, flagState -> flagState.withSegmentValues(replaced));
+  }
+
+  public void applySegmentMembers(
+      String segmentName, Collection<String> added, Collection<String> removed) {
+    Map<String, Boolean> puts = new HashMap<>();
+    added.forEach(user -> puts.put(user, Boolean.TRUE));
+    apply(
+        current ->
+            current.withSegment(
+                segmentName,
+                current
+                    .segments
+                    .getOrDefault(segmentName, UserValueIndex.EMPTY)
+                    .with(puts, removed)));
+  }
+
+  /*
+   * Replaces the members of a segment, the users must be all that the repository holds
+   */
+  public void applyReplaceSegmentMembers(String segmentName, Collection<String> users) {
+    UserValueIndex members = members(users);
+    apply(current -> current.withSegment(segmentName, members));
+  }
+
+  public void applyUserValue(String flagName, String user, Boolean value) {
+    apply(flagName, flagState -> flagState.withUserValue(user, value));
+  }
+
+  public void applyValues(Map<String, Boolean> flagValues) {
+    Map<String, UnaryOperator<FlagState>> mutations = new HashMap<>();
+    flagValues.forEach(
+        (flagName, value) -> mutations.put(flagName, flagState -> flagState.withValue(value)));
+    apply(mutations);
+  }
+
+  /*
+   * Sets or, for a null rule, removes the rollout of many flags
+   */
+  public void applyRollouts(Map<String, RolloutRule> rollouts) {
+    Map<String, UnaryOperator<FlagState>> mutations = new HashMap<>();
+    rollouts.forEach(
+        (flagName, rollout) ->
+            mutations.put(flagName, flagState -> flagState.withRollout(rollout)));
+    apply(mutations);
+  }
+
+  public void applyClearValues(Collection<String> flagNames) {
+    Map<String, UnaryOperator<FlagState>> mutations = new HashMap<>();
+    flagNames.forEach(flagName -> mutations.put(flagName, flagState -> flagState.withValue(null)));
+    apply(mutations);
+  }
+
+  /*
+   * Sets the FlagSegmentValue of many flags for one segment
+   */
+  public void applySegmentValues(String segmentName, Map<String, Boolean> flagValues) {
+    Map<String, UnaryOperator<FlagState>> mutations = new HashMap<>();
+    flagValues.forEach(
+        (flagName, value) ->
+            mutations.put(
+                flagName,
+                flagState ->
+                    flagState.withSegmentValues(flagState.segmentValues.with(segmentName, value))));
+    apply(mutations);
+  }
+
+  public void applyUserValues(String flagName, Map<String, Boolean> userValues) {
+    apply(flagName, flagState -> flagState.withUserValues(userValues));
+  }
+
+  public void applyClearUserValues(String flagName, Collection<String> users) {
+    apply(flagName, flagState -> flagState.withoutUserValues(users));
+  }
+
+  public void applyClearValue(String flagName) {
+    apply(flagName, flagState -> flagState.withValue(null));
+  }
+
+  public void applyClearUserValue(String flagName, String user) {
+    apply(flagName, flagState -> flagState.withoutUserValue(user));
+  }
+
+  /*
+   * The FlagUserValues of the users changed elsewhere and are read from the repository
+   */
+  public void applyUnknownUserValues(String flagName, Collection<String> users) {
+    apply(flagName, flagState -> flagState.withUnknownUserValues(users));
+  }
+
+  /*
+   * The FlagUserValues of the flag changed elsewhere and are read from the repository
+   */
+  public void applyAllUserValuesUnknown(String flagName) {
+    apply(flagName, flagState -> flagState.withAllUserValuesUnknown());
+  }
+
+  public void applyClearAllUserValues(String flagName) {
+    apply(flagName, flagState -> flagState.withoutUserValues());
+  }
+
+  /*
+   * Replaces every FlagUserValue of a flag, the values must be all that the repository holds
+   */
+  public void applyReplaceUserValues(String flagName, Map<String, Boolean> userValues) {
+    apply(flagName, flagState -> flagState.withOnlyUserValues(userValues));
+  }
+
+  private void apply(String flagName, UnaryOperator<FlagState> mutation) {
+    apply(Collections.singletonMap(flagName, mutation));
+  }
+
+  private void apply(Map<String, UnaryOperator<FlagState>> mutations) {
+    apply(current -> bound(current, mutations));
+  }
+
+  private void apply(UnaryOperator<FlagSnapshot> operation) {
+    if (!enabled) {
+      return;
+    }
+
+    Mutation mutation = new Mutation(operation);
+    boolean transactional = TransactionSynchronizationManager.isSynchronizationActive();
+
+    synchronized (lock) {
+      if (snapshot != null) {
+        snapshot = mutation.operation.apply(snapshot);
+      }
+
+      if (!transactional) {
+        mutation.committed = generation;
+      }
+
+      recentMutations.add(mutation);
+    }
+
+    if (transactional) {
+      settleOnCompletion(mutation);
+    }
+  }
+
+  private FlagSnapshot bound(
+      FlagSnapshot current, Map<String, UnaryOperator<FlagState>> mutations) {
+    Map<String, FlagState> flagStates = new HashMap<>();
+    long count = current.userValueCount;
+
+    for (Map.Entry<String, UnaryOperator<FlagState>> mutation : mutations.entrySet()) {
+      FlagState previous = current.flags.getOrDefault(mutation.getKey(), FlagState.EMPTY);
+      FlagState flagState = mutation.getValue().apply(previous);
+      count += flagState.userValues.size() - previous.userValues.size();
+
+      // Mutated flags that no longer fit are evicted rather than the flags already held
+      if (flagState.userValues.size() > maxUserValuesPerFlag || count > maxUserValues) {
+        count -= flagState.userValues.size();
+        flagState = evict(flagState);
+      }
+
+      if (flagState != current.flags.get(mutation.getKey())) {
+        flagStates.put(mutation.getKey(), flagState);
+      }
+    }
+
+    return flagStates.isEmpty() ? current : current.with(flagStates);
+  }
+
+  private void settleOnCompletion(Mutation mutation) {
+    TransactionSynchronizationManager.registerSynchronization(
+        new TransactionSynchronizationAdapter() {
+          @Override
+          public void afterCompletion(int status) {
+            synchronized (lock) {
+              if (status == TransactionSynchronization.STATUS_COMMITTED) {
+                mutation.committed = generation;
+                return;
+              }
+
+              recentMutations.remove(mutation);
+            }
+
+            try {
+              scheduler.execute(FlagStateCache.this::refresh);
+            } catch (RejectedExecutionException e) {
+              logger.debug("Flag state refresh rejected", e);
+            }
+          }
+        });
+  }
+}
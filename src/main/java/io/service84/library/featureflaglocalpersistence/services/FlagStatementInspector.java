@@ -0,0 +1,50 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/*
+ * Counts the SQL statements Hibernate prepares on each thread, which attributes them to the
+ * operation running on that thread. Install it with the Hibernate property
+ * hibernate.session_factory.statement_inspector.
+ */
+public class FlagStatementInspector implements StatementInspector {
+  private static final long serialVersionUID = 1L;
+  private static final ThreadLocal<long[]> statementCounts =
+      ThreadLocal.withInitial(() -> new long[1]);
+  private static volatile boolean installed;
+
+  public FlagStatementInspector() {
+    installed = true;
+  }
+
+  public static boolean isInstalled() {
+    return installed;
+  }
+
+  /*
+   * The statements prepared on this thread so far, differences between two calls count one operation
+   */
+  public static long getStatementCount() {
+    return installed ? statementCounts.get()[0] : 0;
+  }
+
+  @Override
+  public String inspect(String sql) {
+    statementCounts.get()[0]++;
+    return sql;
+  }
+}
@@ -0,0 +1,458 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.service84.library.featureflaglocalpersistence.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagRepository;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagRepository.FlagExport;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagSegmentValueRepository;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagSegmentValueRepository.FlagSegmentNameValue;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagUserValueRepository;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagUserValueRepository.FlagNameUserIdentityValue;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.SegmentMemberRepository;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.SegmentMemberRepository.SegmentNameUserIdentity;
+
+/*
+ * Exports every flag with its FlagValue, FlagRollout and FlagUserValues, and every segment with
+ * its members and FlagSegmentValues, to a stream, and imports them from one.
+ *
+ * The export reads forward-only cursors in one read-only transaction and writes each row as it
+ * is read. The import writes in batches through the bulk methods of the service, so that the
+ * caches, the change log and the audit see every write. Neither holds more than a batch.
+ */
+@Service("6F2A8D41-C95B-4E17-A3D0-8B4E7C1F9A26")
+public class FlagTransfer {
+  private static final Logger logger = LoggerFactory.getLogger(FlagTransfer.class);
+
+  public enum Format {
+    NDJSON,
+    BINARY
+  }
+
+  public static final class Result {
+    private final long flags;
+    private final long userValues;
+    private final long segmentMembers;
+    private final long segmentValues;
+    private final long milliseconds;
+
+    private Result(
+        long flags, long userValues, long segmentMembers, long segmentValues, long milliseconds) {
+      this.flags = flags;
+      this.userValues = userValues;
+      this.segmentMembers = segmentMembers;
+      this.segmentValues = segmentValues;
+      this.milliseconds = milliseconds;
+    }
+
+    public Long getFlags() {
+      return flags;
+    }
+
+    public Long getUserValues() {
+      return userValues;
+    }
+
+    public Long getSegmentMembers() {
+      return segmentMembers;
+    }
+
+    public Long getSegmentValues() {
+      return segmentValues;
+    }
+
+    public Long getRecords() {
+      return flags + userValues + segmentMembers + segmentValues;
+    }
+
+    public Long getMilliseconds() {
+      return milliseconds;
+    }
+
+    public Double getRecordsPerSecond() {
+      return getRecords() * 1000.0 / Math.max(milliseconds, 1);
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%d records (%d flags, %d user values, %d segment members, %d segment values)"
+              + " in %d ms, %.0f records per second",
+          getRecords(),
+          flags,
+          userValues,
+          segmentMembers,
+          segmentValues,
+          milliseconds,
+          getRecordsPerSecond());
+    }
+  }
+
+  private interface RowWriter<T> {
+    void write(T row) throws IOException;
+  }
+
+  /*
+   * Counts the records passed on, the progress listener receives the running total
+   */
+  private final class CountingRecords implements FlagRecords {
+    private final FlagRecords records;
+    private final LongConsumer progressListener;
+    private final long started = System.nanoTime();
+    private long flags;
+    private long userValues;
+    private long segmentMembers;
+    private long segmentValues;
+
+    private CountingRecords(FlagRecords records, LongConsumer progressListener) {
+      this.records = records;
+      this.progressListener = progressListener;
+    }
+
+    @Override
+    public void flag(String flagName, Boolean value, Double rolloutPercentage, String rolloutSalt)
+        throws IOException {
+      records.flag(flagName, value, rolloutPercentage, rolloutSalt);
+      flags++;
+      counted();
+    }
+
+    @Override
+    public void userValue(String flagName, String user, Boolean value) throws IOException {
+      records.userValue(flagName, user, value);
+      userValues++;
+      counted();
+    }
+
+    @Override
+    public void segmentMember(String segmentName, String user) throws IOException {
+      records.segmentMember(segmentName, user);
+      segmentMembers++;
+      counted();
+    }
+
+    @Override
+    public void segmentValue(String flagName, String segmentName, Boolean value)
+        throws IOException {
+      records.segmentValue(flagName, segmentName, value);
+      segmentValues++;
+      counted();
+    }
+
+    @Override
+    public void finish() throws IOException {
+      records.finish();
+      progressListener.accept(getRecords());
+    }
+
+    private long getRecords() {
+      return flags + userValues + segmentMembers + segmentValues;
+    }
+
+    private void counted() {
+      if (getRecords() % batchSize == 0) {
+        progressListener.accept(getRecords());
+      }
+    }
+
+    private Result getResult() {
+      long nanos = System.nanoTime() - started;
+      return new Result(
+          flags, userValues, segmentMembers, segmentValues, TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+  }
+
+  /*
+   * Writes the records through the service, FlagValues, FlagUserValues of a flag and members
+   * of a segment are written a batch at a time
+   */
+  private final class Importer implements FlagRecords {
+    // The service may keep the collections it is given, a batch is never reused
+    private Map<String, Boolean> flagValues = new HashMap<>();
+    private List<String> clearedFlags = new ArrayList<>();
+    private Map<String, RolloutRule> rollouts = new HashMap<>();
+    private Map<String, Boolean> userValues = new HashMap<>();
+    private List<String> members = new ArrayList<>();
+    private Map<String, Map<String, Boolean>> segmentValues = new HashMap<>();
+    private String userValuesFlagName;
+    private String membersSegmentName;
+    private int segmentValueCount;
+
+    @Override
+    public void flag(String flagName, Boolean value, Double rolloutPercentage, String rolloutSalt)
+        throws IOException {
+      requireName(flagName);
+
+      // A flag without a value or a rollout in the input has the one already there cleared
+      if (value != null) {
+        flagValues.put(flagName, value);
+      } else {
+        clearedFlags.add(flagName);
+      }
+
+      rollouts.put(flagName, RolloutRule.of(rolloutPercentage, rolloutSalt));
+
+      if (rollouts.size() >= batchSize) {
+        flushFlags();
+      }
+    }
+
+    @Override
+    public void userValue(String flagName, String user, Boolean value) throws IOException {
+      requireName(flagName);
+      requireName(user);
+      requireValue(value);
+
+      if (!flagName.equals(userValuesFlagName)) {
+        flushUserValues();
+        userValuesFlagName = flagName;
+      }
+
+      userValues.put(user, value);
+
+      if (userValues.size() >= batchSize) {
+        flushUserValues();
+      }
+    }
+
+    @Override
+    public void segmentMember(String segmentName, String user) throws IOException {
+      requireName(segmentName);
+      requireName(user);
+
+      if (!segmentName.equals(membersSegmentName)) {
+        flushMembers();
+        membersSegmentName = segmentName;
+      }
+
+      members.add(user);
+
+      if (members.size() >= batchSize) {
+        flushMembers();
+      }
+    }
+
+    @Override
+    public void segmentValue(String flagName, String segmentName, Boolean value)
+        throws IOException {
+      requireName(flagName);
+      requireName(segmentName);
+      requireValue(value);
+      segmentValues.computeIfAbsent(segmentName, name -> new HashMap<>()).put(flagName, value);
+
+      if (++segmentValueCount >= batchSize) {
+        flushSegmentValues();
+      }
+    }
+
+    @Override
+    public void finish() {
+      flushFlags();
+      flushUserValues();
+      flushMembers();
+      flushSegmentValues();
+    }
+
+    private void flushFlags() {
+      if (!flagValues.isEmpty()) {
+        fflpService.setValues(flagValues);
+        flagValues = new HashMap<>();
+      }
+
+      if (!clearedFlags.isEmpty()) {
+        fflpService.clearValues(clearedFlags);
+        clearedFlags = new ArrayList<>();
+      }
+
+      if (!rollouts.isEmpty()) {
+        fflpService.setRollouts(rollouts);
+        rollouts = new HashMap<>();
+      }
+    }
+
+    private void flushUserValues() {
+      if (!userValues.isEmpty()) {
+        fflpService.setValues(userValuesFlagName, userValues);
+        userValues = new HashMap<>();
+      }
+    }
+
+    private void flushMembers() {
+      if (!members.isEmpty()) {
+        fflpService.addSegmentMembers(membersSegmentName, members);
+        members = new ArrayList<>();
+      }
+    }
+
+    private void flushSegmentValues() {
+      if (!segmentValues.isEmpty()) {
+        segmentValues.forEach(fflpService::setSegmentValues);
+        segmentValues = new HashMap<>();
+        segmentValueCount = 0;
+      }
+    }
+
+    private void requireName(String name) throws IOException {
+      if (name == null || name.isEmpty()) {
+        throw new IOException("Flag import record is missing a name");
+      }
+    }
+
+    private void requireValue(Boolean value) throws IOException {
+      if (value == null) {
+        throw new IOException("Flag import record is missing a value");
+      }
+    }
+  }
+
+  @Autowired private FeatureFlagLocalPersistence fflpService;
+  @Autowired private FlagRepository flagRepository;
+  @Autowired private FlagUserValueRepository fuvRepository;
+  @Autowired private SegmentMemberRepository smRepository;
+  @Autowired private FlagSegmentValueRepository fsvRepository;
+  @Autowired private PlatformTransactionManager transactionManager;
+
+  @Autowired(required = false)
+  private FlagMetrics flagMetrics = FlagMetrics.NOOP;
+
+  @Value("${io.service84.library.featureflaglocalpersistence.transfer.batch-size:1000}")
+  private Integer batchSize;
+
+  public Result exportTo(OutputStream output, Format format) throws IOException {
+    logger.debug("exportTo");
+    return exportTo(output, format, records -> {});
+  }
+
+  /*
+   * Writes every record to the output, which is left open. The progress listener receives the
+   * running total of records.
+   */
+  public Result exportTo(OutputStream output, Format format, LongConsumer progressListener)
+      throws IOException {
+    logger.debug("exportTo");
+    CountingRecords records =
+        new CountingRecords(FlagRecordCodec.writer(format, output), progressListener);
+    TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+    transactionTemplate.setReadOnly(true);
+    // The queries of the export see one state of the repositories
+    transactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+
+    try {
+      transactionTemplate.execute(
+          status -> {
+            try {
+              exportHelper(records);
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+
+            return null;
+          });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+
+    records.finish();
+    return report("exportTo", records.getResult());
+  }
+
+  private void exportHelper(FlagRecords records) throws IOException {
+    try (Stream<FlagExport> flags = flagRepository.streamAllForExport()) {
+      write(
+          flags,
+          flag ->
+              records.flag(
+                  flag.getFlagName(),
+                  flag.getFlagValue(),
+                  flag.getRolloutPercentage(),
+                  flag.getRolloutSalt()));
+    }
+
+    try (Stream<FlagNameUserIdentityValue> userValues = fuvRepository.streamAllForExport()) {
+      write(
+          userValues,
+          userValue ->
+              records.userValue(
+                  userValue.getFlagName(), userValue.getUserIdentity(), userValue.getUserValue()));
+    }
+
+    try (Stream<SegmentNameUserIdentity> members = smRepository.streamAllForExport()) {
+      write(
+          members,
+          member -> records.segmentMember(member.getSegmentName(), member.getUserIdentity()));
+    }
+
+    try (Stream<FlagSegmentNameValue> segmentValues = fsvRepository.streamAllForExport()) {
+      write(
+          segmentValues,
+          segmentValue ->
+              records.segmentValue(
+                  segmentValue.getFlagName(),
+                  segmentValue.getSegmentName(),
+                  segmentValue.getSegmentValue()));
+    }
+  }
+
+  private static <T> void write(Stream<T> rows, RowWriter<T> writer) throws IOException {
+    for (Iterator<T> iterator = rows.iterator(); iterator.hasNext(); ) {
+      writer.write(iterator.next());
+    }
+  }
+
+  public Result importFrom(InputStream input, Format format) throws IOException {
+    logger.debug("importFrom");
+    return importFrom(input, format, records -> {});
+  }
+
+  /*
+   * Adds every record of the input to the repositories, replacing the values already there. A
+   * flag without a value or a rollout in the input has the one already there cleared. Flags,
+   * users and segments that are not in the input are left as they are. Each batch
+   * commits on its own, a failed import leaves the batches before it written.
+   */
+  public Result importFrom(InputStream input, Format format, LongConsumer progressListener)
+      throws IOException {
+    logger.debug("importFrom");
+    CountingRecords records = new CountingRecords(new Importer(), progressListener);
+    FlagRecordCodec.read(format, input, records);
+    return report("importFrom", records.getResult());
+  }
+
+  private Result report(String operation, Result result) {
+    flagMetrics.recordLatency(operation, TimeUnit.MILLISECONDS.toNanos(result.getMilliseconds()));
+    logger.info("{} transferred {}", operation, result);
+    return result;
+  }
+}
@@ -0,0 +1,364 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+/*
+ * Holds the setValue and clearValue calls of write-behind mode until they are flushed.
+ *
+ * Writes are keyed by flag and user, a later write replaces an earlier one. A write stays
+ * visible to readers until the flush that wrote it has committed. Direct writes are run through
+ * writeThrough so that they never interleave with a flush.
+ *
+ * Once max-pending writes are queued, writes of further keys are refused and the caller writes
+ * them through. A batch that fails is flushed again flag by flag, and the writes of a flag that
+ * the database refuses, rather than fail while it is unavailable, are dropped.
+ */
+@Service("E2F4A6C8-1B3D-4E5F-8A7C-9D0B2C4E6F81")
+public class FlagWriteBehind implements InitializingBean, DisposableBean {
+  private static final Logger logger = LoggerFactory.getLogger(FlagWriteBehind.class);
+
+  /*
+   * Stands in for an undeclared bean, every write is left to the caller
+   */
+  public static final FlagWriteBehind DISABLED = new FlagWriteBehind();
+
+  public static final class Key {
+    private final String flagName;
+    private final String user;
+
+    private Key(String flagName, String user) {
+      this.flagName = flagName;
+      this.user = user;
+    }
+
+    public String getFlagName() {
+      return flagName;
+    }
+
+    /*
+     * The user of a FlagUserValue write, null for a FlagValue write
+     */
+    public String getUser() {
+      return user;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      }
+
+      Key key = (Key) other;
+      return flagName.equals(key.flagName) && Objects.equals(user, key.user);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * flagName.hashCode() + Objects.hashCode(user);
+    }
+  }
+
+  public static final class Write {
+    private final Boolean value;
+
+    private Write(Boolean value) {
+      this.value = value;
+    }
+
+    /*
+     * The written value, null when the value is cleared
+     */
+    public Boolean getValue() {
+      return value;
+    }
+  }
+
+  @Value("${io.service84.library.featureflaglocalpersistence.write-behind.enabled:false}")
+  private Boolean enabled = Boolean.FALSE;
+
+  @Value("${io.service84.library.featureflaglocalpersistence.write-behind.interval:1000}")
+  private Long interval;
+
+  @Value("${io.service84.library.featureflaglocalpersistence.write-behind.max-pending:10000}")
+  private Integer maxPending;
+
+  private final Map<Key, Write> writes = new ConcurrentHashMap<>();
+  private final Map<String, Integer> flagCounts = new ConcurrentHashMap<>();
+  private final Object lock = new Object();
+  private final Object flushLock = new Object();
+  private volatile Consumer<Map<Key, Write>> flusher;
+  private ScheduledExecutorService scheduler;
+
+  @Override
+  public void afterPropertiesSet() throws Exception {
+    if (!enabled) {
+      return;
+    }
+
+    scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "FlagWriteBehind");
+              thread.setDaemon(true);
+              return thread;
+            });
+    scheduler.scheduleWithFixedDelay(
+        this::scheduledFlush, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+
+  public Boolean isEnabled() {
+    return enabled;
+  }
+
+  /*
+   * Sets the consumer that writes a batch, it must have committed when it returns
+   */
+  public void setFlusher(Consumer<Map<Key, Write>> flusher) {
+    if (!enabled) {
+      return;
+    }
+
+    this.flusher = flusher;
+  }
+
+  /*
+   * Queues a write, false when write-behind is disabled or the queue is full and the caller
+   * must write it
+   */
+  public boolean enqueue(String flagName, String user, Boolean value) {
+    if (!enabled) {
+      return false;
+    }
+
+    Key key = new Key(flagName, user);
+    boolean queued;
+
+    synchronized (lock) {
+      // A write that replaces a queued one does not grow the queue
+      queued = writes.size() < maxPending || writes.containsKey(key);
+
+      if (queued && writes.put(key, new Write(value)) == null) {
+        flagCounts.merge(flagName, 1, Integer::sum);
+      }
+    }
+
+    if (writes.size() >= maxPending) {
+      try {
+        scheduler.execute(this::scheduledFlush);
+      } catch (RejectedExecutionException e) {
+        logger.debug("Flag write flush rejected", e);
+      }
+    }
+
+    return queued;
+  }
+
+  public boolean isEmpty() {
+    return writes.isEmpty();
+  }
+
+  public boolean hasPending(String flagName) {
+    return !flagCounts.isEmpty() && flagCounts.containsKey(flagName);
+  }
+
+  public Set<String> getPendingFlagNames() {
+    return flagCounts.keySet();
+  }
+
+  /*
+   * The queued write of a user, or of the flag when user is null, null when there is none
+   */
+  public Write getPending(String flagName, String user) {
+    return writes.isEmpty() ? null : writes.get(new Key(flagName, user));
+  }
+
+  /*
+   * Runs a direct write, which replaces the queued writes it discards, between flushes
+   */
+  public <T> T writeThrough(Runnable discard, Supplier<T> write) {
+    if (!enabled) {
+      return write.get();
+    }
+
+    synchronized (flushLock) {
+      discard.run();
+      return write.get();
+    }
+  }
+
+  public void discardValues(Collection<String> flagNames) {
+    synchronized (lock) {
+      flagNames.forEach(flagName -> remove(new Key(flagName, null), null));
+    }
+  }
+
+  public void discardUserValues(String flagName, Collection<String> users) {
+    synchronized (lock) {
+      users.forEach(user -> remove(new Key(flagName, user), null));
+    }
+  }
+
+  public void discardAllUserValues(String flagName) {
+    synchronized (lock) {
+      writes.keySet().stream()
+          .filter(key -> key.flagName.equals(flagName) && key.user != null)
+          .forEach(key -> remove(key, null));
+    }
+  }
+
+  public void flush() {
+    synchronized (flushLock) {
+      if (!enabled || writes.isEmpty()) {
+        return;
+      }
+
+      Map<Key, Write> batch = new HashMap<>(writes);
+      logger.debug("flush {}", batch.size());
+
+      try {
+        flusher.accept(batch);
+      } catch (RuntimeException e) {
+        logger.debug("Flag write flush failed, flushing flag by flag", e);
+        flushByFlag(batch);
+        return;
+      }
+
+      removeAll(batch);
+    }
+  }
+
+  /*
+   * Flushes the writes of each flag on their own, so that one bad write fails only its flag
+   */
+  private void flushByFlag(Map<Key, Write> batch) {
+    Map<String, Map<Key, Write>> flags = new HashMap<>();
+    batch.forEach(
+        (key, write) ->
+            flags.computeIfAbsent(key.flagName, flagName -> new HashMap<>()).put(key, write));
+    RuntimeException unavailable = null;
+
+    for (Map.Entry<String, Map<Key, Write>> flag : flags.entrySet()) {
+      try {
+        flusher.accept(flag.getValue());
+      } catch (RuntimeException e) {
+        if (!isDataError(e)) {
+          // The writes stay queued for the next flush
+          unavailable = e;
+          continue;
+        }
+
+        // Writing them again would fail again and hold up every later flush
+        logger.error(
+            "Dropping {} queued writes of flag {}", flag.getValue().size(), flag.getKey(), e);
+      }
+
+      removeAll(flag.getValue());
+    }
+
+    if (unavailable != null) {
+      throw unavailable;
+    }
+  }
+
+  /*
+   * True when the database refused the data, SQLSTATE class 22 or 23, rather than being
+   * unavailable
+   */
+  private static boolean isDataError(Throwable error) {
+    for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+      if (cause instanceof DataIntegrityViolationException) {
+        return true;
+      }
+
+      if (cause instanceof SQLException) {
+        String state = ((SQLException) cause).getSQLState();
+
+        if (state != null && (state.startsWith("22") || state.startsWith("23"))) {
+          return true;
+        }
+      }
+
+      if (cause.getCause() == cause) {
+        break;
+      }
+    }
+
+    return false;
+  }
+
+  private void removeAll(Map<Key, Write> batch) {
+    synchronized (lock) {
+      // Writes queued again during the flush are kept for the next one
+      batch.forEach(this::remove);
+    }
+  }
+
+  /*
+   * Stops the scheduled flushes and flushes every queued write
+   */
+  public void drain() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+
+    flush();
+  }
+
+  private void scheduledFlush() {
+    try {
+      flush();
+    } catch (Exception e) {
+      // This is a catch all, the writes stay queued for the next flush
+      logger.warn("Flag write flush failed", e);
+    }
+  }
+
+  private void remove(Key key, Write write) {
+    boolean removed = write == null ? writes.remove(key) != null : writes.remove(key, write);
+
+    if (removed) {
+      flagCounts.computeIfPresent(key.flagName, (flagName, count) -> count == 1 ? null : count - 1);
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/*
+ * Publishes FlagMetrics to Micrometer, the meters are registered on first use and looked up
+ * without locking afterwards.
+ */
+public class MicrometerFlagMetrics implements FlagMetrics {
+  private static final String PREFIX = "featureflaglocalpersistence.";
+
+  private final MeterRegistry registry;
+  private final Map<String, Timer> latencies = new ConcurrentHashMap<>();
+  private final Map<String, DistributionSummary> statements = new ConcurrentHashMap<>();
+  private final Map<String, Counter> retries = new ConcurrentHashMap<>();
+  private final Map<String, Counter> hits = new ConcurrentHashMap<>();
+  private final Map<String, Counter> misses = new ConcurrentHashMap<>();
+  private final Map<String, Counter> evictions = new ConcurrentHashMap<>();
+
+  public MicrometerFlagMetrics(MeterRegistry registry) {
+    this.registry = registry;
+  }
+
+  @Override
+  public void recordLatency(String operation, long nanos) {
+    meter(latencies, operation, this::latency).record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void recordStatements(String operation, long count) {
+    meter(statements, operation, this::statements).record(count);
+  }
+
+  @Override
+  public void recordRetry(String operation) {
+    meter(retries, operation, this::retries).increment();
+  }
+
+  @Override
+  public void recordCacheHit(String cache) {
+    meter(hits, cache, name -> cache(name, "hit")).increment();
+  }
+
+  @Override
+  public void recordCacheMiss(String cache) {
+    meter(misses, cache, name -> cache(name, "miss")).increment();
+  }
+
+  @Override
+  public void recordCacheEviction(String cache, long entries) {
+    meter(evictions, cache, name -> cache(name, "eviction")).increment(entries);
+  }
+
+  private static <T> T meter(Map<String, T> meters, String name, Function<String, T> register) {
+    // A plain get first, computeIfAbsent may lock even when the meter exists
+    T meter = meters.get(name);
+    return meter != null ? meter : meters.computeIfAbsent(name, register);
+  }
+
+  private Timer latency(String operation) {
+    return Timer.builder(PREFIX + "operation")
+        .description("Duration of feature flag operations")
+        .tag("operation", operation)
+        .publishPercentileHistogram()
+        .register(registry);
+  }
+
+  private DistributionSummary statements(String operation) {
+    return DistributionSummary.builder(PREFIX + "statements")
+        .description("SQL statements prepared per feature flag operation")
+        .tag("operation", operation)
+        .publishPercentileHistogram()
+        .register(registry);
+  }
+
+  private Counter retries(String operation) {
+    return Counter.builder(PREFIX + "retries")
+        .description("Feature flag operations attempted again after a failure")
+        .tag("operation", operation)
+        .register(registry);
+  }
+
+  private Counter cache(String cache, String result) {
+    return Counter.builder(PREFIX + "cache")
+        .description("Feature flag cache lookups and evictions")
+        .tag("cache", cache)
+        .tag("result", result)
+        .register(registry);
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+/*
+ * A percentage rollout of a flag. A user is included when the bucket of the salt and the
+ * user identity is below the percentage, in basis points.
+ *
+ * Buckets are FNV-1a hashes of the salt, a separator and the identity. Every node and every
+ * release places a user in the same bucket, and changing the salt reshuffles the buckets.
+ */
+final class RolloutRule {
+  static final int BUCKETS = 10000;
+
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private final Double percentage;
+  private final String salt;
+  private final int threshold;
+
+  private RolloutRule(Double percentage, String salt) {
+    this.percentage = percentage;
+    this.salt = salt;
+    this.threshold = threshold(percentage);
+  }
+
+  /*
+   * The rule, null when the flag has no rollout
+   */
+  static RolloutRule of(Double percentage, String salt) {
+    return percentage == null ? null : new RolloutRule(percentage, salt);
+  }
+
+  static boolean includes(Double percentage, String salt, String user) {
+    return percentage != null && bucket(salt, user) < threshold(percentage);
+  }
+
+  static int bucket(String salt, String user) {
+    long hash = FNV_OFFSET;
+
+    for (int index = 0; index < salt.length(); index++) {
+      hash = (hash ^ salt.charAt(index)) * FNV_PRIME;
+    }
+
+    // The separator keeps salt "ab" with user "c" apart from salt "a" with user "bc"
+    hash = (hash ^ 0xFFFF) * FNV_PRIME;
+
+    for (int index = 0; index < user.length(); index++) {
+      hash = (hash ^ user.charAt(index)) * FNV_PRIME;
+    }
+
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    return (int) Long.remainderUnsigned(hash, BUCKETS);
+  }
+
+  private static int threshold(double percentage) {
+    return (int) Math.round(percentage * BUCKETS / 100);
+  }
+
+  Double getPercentage() {
+    return percentage;
+  }
+
+  String getSalt() {
+    return salt;
+  }
+
+  boolean includes(String user) {
+    return bucket(salt, user) < threshold;
+  }
+}
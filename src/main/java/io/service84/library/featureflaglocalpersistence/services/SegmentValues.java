@@ -0,0 +1,106 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/*
+ * The FlagSegmentValues of one flag, held in two arrays as a flag has few of them.
+ *
+ * A user in several segments of a flag gets false when any of them is false. Evaluation probes
+ * the members of each segment once and allocates nothing.
+ */
+final class SegmentValues {
+  static final SegmentValues EMPTY = new SegmentValues(new String[0], new boolean[0]);
+
+  private final String[] segmentNames;
+  private final boolean[] values;
+
+  private SegmentValues(String[] segmentNames, boolean[] values) {
+    this.segmentNames = segmentNames;
+    this.values = values;
+  }
+
+  static SegmentValues of(Map<String, Boolean> segmentValues) {
+    SegmentValues result = EMPTY;
+
+    for (Map.Entry<String, Boolean> segmentValue : segmentValues.entrySet()) {
+      result = result.with(segmentValue.getKey(), segmentValue.getValue());
+    }
+
+    return result;
+  }
+
+  /*
+   * The value of the segments of the user, null when the user is in none of them
+   */
+  Boolean get(Map<String, UserValueIndex> segments, String user) {
+    Boolean value = null;
+
+    for (int index = 0; index < segmentNames.length; index++) {
+      UserValueIndex members = segments.get(segmentNames[index]);
+
+      if (members != null && members.get(user) != null) {
+        if (!values[index]) {
+          return Boolean.FALSE;
+        }
+
+        value = Boolean.TRUE;
+      }
+    }
+
+    return value;
+  }
+
+  int size() {
+    return segmentNames.length;
+  }
+
+  void forEach(BiConsumer<String, Boolean> action) {
+    for (int index = 0; index < segmentNames.length; index++) {
+      action.accept(segmentNames[index], values[index]);
+    }
+  }
+
+  /*
+   * A copy with the value of a segment replaced, a null value removes the segment
+   */
+  SegmentValues with(String segmentName, Boolean value) {
+    int found = Arrays.asList(segmentNames).indexOf(segmentName);
+
+    if (value == null) {
+      if (found < 0) {
+        return this;
+      }
+
+      String[] names = new String[segmentNames.length - 1];
+      boolean[] copy = new boolean[names.length];
+      System.arraycopy(segmentNames, 0, names, 0, found);
+      System.arraycopy(segmentNames, found + 1, names, found, names.length - found);
+      System.arraycopy(values, 0, copy, 0, found);
+      System.arraycopy(values, found + 1, copy, found, names.length - found);
+      return new SegmentValues(names, copy);
+    }
+
+    int index = found < 0 ? segmentNames.length : found;
+    String[] names = Arrays.copyOf(segmentNames, Math.max(segmentNames.length, index + 1));
+    boolean[] copy = Arrays.copyOf(values, names.length);
+    names[index] = segmentName;
+    copy[index] = value;
+    return new SegmentValues(names, copy);
+  }
+}
@@ -14,6 +14,8 @@
 
 package io.service84.library.featureflaglocalpersistence.services;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -51,6 +53,41 @@ public class Translator extends PaginationTranslator {
     return flagPage;
   }
 
+  /*
+   * A page of flag names read with one more name than the limit, that extra name
+   * only signals that a next page exists
+   */
+  public FlagPage translateFlagPage(String cursor, List<String> names, Integer limit) {
+    logger.debug("translateFlagPage");
+    FlagPage flagPage = new FFLPFlagPage();
+    flagPage.setCursor(cursor);
+
+    if (names.size() > limit) {
+      names = names.subList(0, limit);
+      flagPage.setNextCursor(encodeKeysetCursor(names.get(names.size() - 1)));
+    }
+
+    flagPage.setFlags(names);
+    return flagPage;
+  }
+
+  public String encodeKeysetCursor(String name) {
+    return Base64.getUrlEncoder()
+        .withoutPadding()
+        .encodeToString(name.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /*
+   * A malformed cursor is rejected like a malformed page index, with a NumberFormatException
+   */
+  public String decodeKeysetCursor(String cursor) {
+    try {
+      return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+    } catch (IllegalArgumentException e) {
+      throw new NumberFormatException("For input string: \"" + cursor + "\"");
+    }
+  }
+
   public List<String> translateFlagList(List<Flag> list) {
     logger.debug("translateFlagList");
     return list.stream().map(f -> f.getName()).collect(Collectors.toList());
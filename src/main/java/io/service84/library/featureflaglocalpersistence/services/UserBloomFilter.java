@@ -0,0 +1,100 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * A Bloom filter of the user identities that have a FlagUserValue.
+ *
+ * Users are only ever added, so a filter is shared by every snapshot derived from the one it
+ * was built for and a user that was cleared stays a false positive until the filter is rebuilt.
+ */
+final class UserBloomFilter {
+  static final long NO_EPOCH = -1;
+
+  private final AtomicLongArray bits;
+  private final long bitCount;
+  private final int hashCount;
+  private final long userValueCount;
+  private final long epoch;
+
+  UserBloomFilter(long expectedUsers, double falsePositiveRate) {
+    this(expectedUsers, falsePositiveRate, NO_EPOCH);
+  }
+
+  /*
+   * A filter of the users read from the repository in the epoch, with the expected users as
+   * their count
+   */
+  UserBloomFilter(long expectedUsers, double falsePositiveRate, long epoch) {
+    this.userValueCount = expectedUsers;
+    this.epoch = epoch;
+    long users = Math.max(expectedUsers, 64);
+    double ln2 = Math.log(2);
+    long words = (long) Math.ceil(-users * Math.log(falsePositiveRate) / (ln2 * ln2) / 64);
+    bits = new AtomicLongArray((int) Math.min(Math.max(words, 1), Integer.MAX_VALUE));
+    bitCount = 64L * bits.length();
+    hashCount = (int) Math.max(1, Math.round((double) bitCount / users * ln2));
+  }
+
+  void put(String user) {
+    long hash = UserValueIndex.hash(user);
+    long increment = hash >>> 32 | hash << 32;
+
+    for (int index = 0; index < hashCount; index++, hash += increment) {
+      long bit = (hash & Long.MAX_VALUE) % bitCount;
+      int word = (int) (bit >>> 6);
+      long mask = 1L << bit;
+      long current = bits.get(word);
+
+      while ((current & mask) == 0 && !bits.compareAndSet(word, current, current | mask)) {
+        current = bits.get(word);
+      }
+    }
+  }
+
+  /*
+   * False only when the user certainly has no FlagUserValue
+   */
+  boolean mightContain(String user) {
+    long hash = UserValueIndex.hash(user);
+    long increment = hash >>> 32 | hash << 32;
+
+    for (int index = 0; index < hashCount; index++, hash += increment) {
+      long bit = (hash & Long.MAX_VALUE) % bitCount;
+
+      if ((bits.get((int) (bit >>> 6)) & 1L << bit) == 0) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /*
+   * True when the filter was read in the epoch, for as many users as the repository now holds
+   */
+  boolean isCurrent(long userValueCount, long epoch) {
+    return this.epoch != NO_EPOCH && this.epoch == epoch && this.userValueCount == userValueCount;
+  }
+
+  /*
+   * Bytes held by the bits of this filter
+   */
+  long getFootprint() {
+    return 8L * bits.length();
+  }
+}
@@ -0,0 +1,310 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagRepository;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagRolloutRepository;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagRolloutRepository.FlagNameRollout;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagSegmentValueRepository;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagUserValueRepository;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagUserValueRepository.FlagNameUserValue;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagValueRepository.FlagNameValue;
+
+/*
+ * Bounded, time limited cache of the FlagUserValues and segment values of recently evaluated
+ * users and of the FlagValue and rollout of every flag. Local mutations invalidate the affected
+ * entries.
+ */
+@Service("49EA20F0-3D5E-409E-B299-69849BD84E71")
+public class UserValueCache {
+  private static final Logger logger = LoggerFactory.getLogger(UserValueCache.class);
+
+  private static final class CachedValues {
+    private final Map<String, Boolean> values;
+    private final long expires;
+
+    private CachedValues(Map<String, Boolean> values, long expires) {
+      this.values = values;
+      this.expires = expires;
+    }
+  }
+
+  private static final class CachedRollouts {
+    private final Map<String, RolloutRule> rollouts;
+    private final long expires;
+
+    private CachedRollouts(Map<String, RolloutRule> rollouts, long expires) {
+      this.rollouts = rollouts;
+      this.expires = expires;
+    }
+  }
+
+  @Autowired private FlagRepository flagRepository;
+  @Autowired private FlagUserValueRepository fuvRepository;
+  @Autowired private FlagRolloutRepository frRepository;
+  @Autowired private FlagSegmentValueRepository fsvRepository;
+
+  @Autowired(required = false)
+  private FlagMetrics flagMetrics = FlagMetrics.NOOP;
+
+  @Value("${io.service84.library.featureflaglocalpersistence.user-cache.enabled:false}")
+  private Boolean enabled;
+
+  @Value("${io.service84.library.featureflaglocalpersistence.user-cache.max-users:10000}")
+  private Integer maxUsers;
+
+  @Value("${io.service84.library.featureflaglocalpersistence.user-cache.time-to-live:5000}")
+  private Long timeToLive;
+
+  private final AtomicLong generation = new AtomicLong();
+  private final Map<String, CachedValues> users = newUserMap();
+  private final Map<String, CachedValues> segmentUsers = newUserMap();
+  private volatile CachedValues flagValues;
+  private volatile CachedRollouts rollouts;
+
+  /*
+   * The FlagValue of every flag by name, null values for flags without one
+   */
+  public Map<String, Boolean> getFlagValues() {
+    logger.debug("getFlagValues");
+    CachedValues cached = flagValues;
+
+    if (enabled && cached != null && cached.expires - System.nanoTime() > 0) {
+      flagMetrics.recordCacheHit(FlagMetrics.FLAG_VALUE_CACHE);
+      return cached.values;
+    }
+
+    if (enabled) {
+      flagMetrics.recordCacheMiss(FlagMetrics.FLAG_VALUE_CACHE);
+    }
+
+    long loadGeneration = generation.get();
+    Map<String, Boolean> values = new HashMap<>();
+
+    for (FlagNameValue flagNameValue : flagRepository.findAllWithFlagValues()) {
+      values.put(flagNameValue.getFlagName(), flagNameValue.getFlagValue());
+    }
+
+    values = Collections.unmodifiableMap(values);
+
+    if (enabled) {
+      synchronized (users) {
+        if (loadGeneration == generation.get()) {
+          flagValues = new CachedValues(values, expiry());
+        }
+      }
+    }
+
+    return values;
+  }
+
+  /*
+   * The rollout of every flag that has one by name, cached with the FlagValues
+   */
+  public Map<String, RolloutRule> getRollouts() {
+    logger.debug("getRollouts");
+    CachedRollouts cached = rollouts;
+
+    if (enabled && cached != null && cached.expires - System.nanoTime() > 0) {
+      return cached.rollouts;
+    }
+
+    long loadGeneration = generation.get();
+    Map<String, RolloutRule> values = new HashMap<>();
+
+    for (FlagNameRollout flagNameRollout : frRepository.findAllFlagNameRollouts()) {
+      values.put(
+          flagNameRollout.getFlagName(),
+          RolloutRule.of(flagNameRollout.getPercentage(), flagNameRollout.getSalt()));
+    }
+
+    values = Collections.unmodifiableMap(values);
+
+    if (enabled) {
+      synchronized (users) {
+        if (loadGeneration == generation.get()) {
+          rollouts = new CachedRollouts(values, expiry());
+        }
+      }
+    }
+
+    return values;
+  }
+
+  /*
+   * The FlagUserValues of one user by flag name
+   */
+  public Map<String, Boolean> getUserValues(String user) {
+    logger.debug("getUserValues");
+    CachedValues cached = null;
+
+    if (enabled) {
+      synchronized (users) {
+        cached = users.get(user);
+      }
+    }
+
+    if (cached != null && cached.expires - System.nanoTime() > 0) {
+      flagMetrics.recordCacheHit(FlagMetrics.USER_VALUE_CACHE);
+      return cached.values;
+    }
+
+    if (enabled) {
+      flagMetrics.recordCacheMiss(FlagMetrics.USER_VALUE_CACHE);
+    }
+
+    long loadGeneration = generation.get();
+    Map<String, Boolean> values = new HashMap<>();
+
+    for (FlagNameUserValue userValue : fuvRepository.findUserValuesByUserIdentity(user)) {
+      values.put(userValue.getFlagName(), userValue.getUserValue());
+    }
+
+    values = Collections.unmodifiableMap(values);
+
+    if (enabled) {
+      synchronized (users) {
+        if (loadGeneration == generation.get()) {
+          users.put(user, new CachedValues(values, expiry()));
+        }
+      }
+    }
+
+    return values;
+  }
+
+  /*
+   * The FlagSegmentValue of the segments of one user by flag name
+   */
+  public Map<String, Boolean> getSegmentValues(String user) {
+    logger.debug("getSegmentValues");
+    CachedValues cached = null;
+
+    if (enabled) {
+      synchronized (users) {
+        cached = segmentUsers.get(user);
+      }
+    }
+
+    if (cached != null && cached.expires - System.nanoTime() > 0) {
+      flagMetrics.recordCacheHit(FlagMetrics.USER_VALUE_CACHE);
+      return cached.values;
+    }
+
+    if (enabled) {
+      flagMetrics.recordCacheMiss(FlagMetrics.USER_VALUE_CACHE);
+    }
+
+    long loadGeneration = generation.get();
+    Map<String, Boolean> values = new HashMap<>();
+
+    // A user in several segments of a flag gets false when any of them is false
+    for (FlagNameUserValue segmentValue : fsvRepository.findSegmentValuesByUserIdentity(user)) {
+      values.merge(segmentValue.getFlagName(), segmentValue.getUserValue(), Boolean::logicalAnd);
+    }
+
+    values = Collections.unmodifiableMap(values);
+
+    if (enabled) {
+      synchronized (users) {
+        if (loadGeneration == generation.get()) {
+          segmentUsers.put(user, new CachedValues(values, expiry()));
+        }
+      }
+    }
+
+    return values;
+  }
+
+  public void invalidateUser(String user) {
+    if (!enabled) {
+      return;
+    }
+
+    synchronized (users) {
+      generation.incrementAndGet();
+      users.remove(user);
+      segmentUsers.remove(user);
+    }
+  }
+
+  public void invalidateAllUsers() {
+    if (!enabled) {
+      return;
+    }
+
+    synchronized (users) {
+      generation.incrementAndGet();
+      users.clear();
+      segmentUsers.clear();
+    }
+  }
+
+  public void invalidateSegmentValues() {
+    if (!enabled) {
+      return;
+    }
+
+    synchronized (users) {
+      generation.incrementAndGet();
+      segmentUsers.clear();
+    }
+  }
+
+  public void invalidateFlagValues() {
+    if (!enabled) {
+      return;
+    }
+
+    synchronized (users) {
+      generation.incrementAndGet();
+      flagValues = null;
+      rollouts = null;
+    }
+  }
+
+  private Map<String, CachedValues> newUserMap() {
+    return new LinkedHashMap<>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CachedValues> eldest) {
+        if (size() <= maxUsers) {
+          return false;
+        }
+
+        flagMetrics.recordCacheEviction(FlagMetrics.USER_VALUE_CACHE, 1);
+        return true;
+      }
+    };
+  }
+
+  private long expiry() {
+    return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeToLive);
+  }
+}
@@ -0,0 +1,387 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/*
+ * An immutable map of user identity to FlagUserValue held in a few primitive arrays.
+ *
+ * Each entry is a 64-bit hash in an open addressing table, which points at the identity and
+ * value packed into one byte array. Identities are stored as Latin-1 when they fit and as UTF-16
+ * otherwise, and every hash match is confirmed against the stored identity. Lookups allocate
+ * nothing.
+ *
+ * A change is held in a small overlay map over the arrays, which derived indexes share. The
+ * overlay is copied on each change and the arrays are only rebuilt once it outgrows the square
+ * root of their size, which balances the two costs.
+ */
+final class UserValueIndex {
+  static final UserValueIndex EMPTY = new Builder(0).build();
+
+  private static final long EMPTY_SLOT = 0L;
+  private static final int HEADER_LENGTH = 4;
+  private static final int MIN_OVERLAY = 64;
+  // Estimated bytes of one overlay entry, the identity itself is shared with the caller
+  private static final int OVERLAY_ENTRY_LENGTH = 64;
+
+  private final long[] hashes;
+  private final int[] offsets;
+  private final byte[] identities;
+  // Changes over the arrays, a null value removes the user
+  private final Map<String, Boolean> overlay;
+  private final int size;
+
+  private UserValueIndex(
+      long[] hashes, int[] offsets, byte[] identities, Map<String, Boolean> overlay, int size) {
+    this.hashes = hashes;
+    this.offsets = offsets;
+    this.identities = identities;
+    this.overlay = overlay;
+    this.size = size;
+  }
+
+  static UserValueIndex of(Map<String, Boolean> userValues) {
+    Builder builder = new Builder(userValues.size());
+    userValues.forEach(builder::put);
+    return builder.build();
+  }
+
+  /*
+   * The FlagUserValue of this user, null when there is none
+   */
+  Boolean get(String user) {
+    if (!overlay.isEmpty() && overlay.containsKey(user)) {
+      return overlay.get(user);
+    }
+
+    int slot = find(user, hash(user));
+    return slot < 0 ? null : value(offsets[slot]);
+  }
+
+  int size() {
+    return size;
+  }
+
+  /*
+   * Bytes held by the arrays of this index
+   */
+  long getFootprint() {
+    return 8L * hashes.length
+        + 4L * offsets.length
+        + identities.length
+        + (long) OVERLAY_ENTRY_LENGTH * overlay.size();
+  }
+
+  void forEach(BiConsumer<String, Boolean> action) {
+    for (int slot = 0; slot < hashes.length; slot++) {
+      if (hashes[slot] != EMPTY_SLOT) {
+        String user = identity(offsets[slot]);
+
+        if (overlay.isEmpty() || !overlay.containsKey(user)) {
+          action.accept(user, value(offsets[slot]));
+        }
+      }
+    }
+
+    overlay.forEach(
+        (user, value) -> {
+          if (value != null) {
+            action.accept(user, value);
+          }
+        });
+  }
+
+  /*
+   * This index without the removed users and with the put users, a put wins over a remove
+   */
+  UserValueIndex with(Map<String, Boolean> puts, Collection<String> removes) {
+    Map<String, Boolean> changes = new HashMap<>(overlay);
+    int changedSize = size;
+
+    for (String user : removes) {
+      changedSize -= get(changes, user) == null ? 0 : 1;
+      changes.put(user, null);
+    }
+
+    for (Map.Entry<String, Boolean> put : puts.entrySet()) {
+      changedSize += get(changes, put.getKey()) == null ? 1 : 0;
+      changes.put(put.getKey(), put.getValue());
+    }
+
+    if (changes.size() <= Math.max(MIN_OVERLAY, (int) Math.sqrt(size))) {
+      return new UserValueIndex(hashes, offsets, identities, changes, changedSize);
+    }
+
+    // The overlay is folded into new arrays
+    BitSet skipped = new BitSet(hashes.length);
+    skip(skipped, changes.keySet());
+    Builder builder = new Builder(changedSize);
+
+    for (int slot = 0; slot < hashes.length; slot++) {
+      if (hashes[slot] != EMPTY_SLOT && !skipped.get(slot)) {
+        builder.copy(hashes[slot], identities, offsets[slot]);
+      }
+    }
+
+    changes.forEach(
+        (user, value) -> {
+          if (value != null) {
+            builder.put(user, value);
+          }
+        });
+    return builder.build();
+  }
+
+  private Boolean get(Map<String, Boolean> changes, String user) {
+    if (changes.containsKey(user)) {
+      return changes.get(user);
+    }
+
+    int slot = find(user, hash(user));
+    return slot < 0 ? null : value(offsets[slot]);
+  }
+
+  private void skip(BitSet skipped, Collection<String> users) {
+    for (String user : users) {
+      int slot = find(user, hash(user));
+
+      if (slot >= 0) {
+        skipped.set(slot);
+      }
+    }
+  }
+
+  private int find(String user, long hash) {
+    int mask = hashes.length - 1;
+
+    for (int slot = (int) hash & mask; hashes[slot] != EMPTY_SLOT; slot = (slot + 1) & mask) {
+      if (hashes[slot] == hash && matches(offsets[slot], user)) {
+        return slot;
+      }
+    }
+
+    return -1;
+  }
+
+  private boolean matches(int offset, String user) {
+    int header = header(identities, offset);
+    int length = header >>> 2;
+
+    if (length != user.length()) {
+      return false;
+    }
+
+    int start = offset + HEADER_LENGTH;
+
+    if ((header & 2) == 0) {
+      for (int index = 0; index < length; index++) {
+        if ((identities[start + index] & 0xFF) != user.charAt(index)) {
+          return false;
+        }
+      }
+    } else {
+      for (int index = 0; index < length; index++) {
+        if (wideChar(identities, start + 2 * index) != user.charAt(index)) {
+          return false;
+        }
+      }
+    }
+
+    return true;
+  }
+
+  private String identity(int offset) {
+    int header = header(identities, offset);
+    char[] chars = new char[header >>> 2];
+    int start = offset + HEADER_LENGTH;
+
+    for (int index = 0; index < chars.length; index++) {
+      chars[index] =
+          (header & 2) == 0
+              ? (char) (identities[start + index] & 0xFF)
+              : wideChar(identities, start + 2 * index);
+    }
+
+    return new String(chars);
+  }
+
+  private Boolean value(int offset) {
+    return (header(identities, offset) & 1) == 1 ? Boolean.TRUE : Boolean.FALSE;
+  }
+
+  private static int header(byte[] bytes, int offset) {
+    return (bytes[offset] & 0xFF) << 24
+        | (bytes[offset + 1] & 0xFF) << 16
+        | (bytes[offset + 2] & 0xFF) << 8
+        | (bytes[offset + 3] & 0xFF);
+  }
+
+  private static char wideChar(byte[] bytes, int offset) {
+    return (char) ((bytes[offset] & 0xFF) << 8 | (bytes[offset + 1] & 0xFF));
+  }
+
+  private static int entryLength(byte[] bytes, int offset) {
+    int header = header(bytes, offset);
+    return HEADER_LENGTH + (header >>> 2) * ((header & 2) == 0 ? 1 : 2);
+  }
+
+  /*
+   * FNV-1a over the chars followed by the MurmurHash3 finalizer, never the empty slot
+   */
+  static long hash(String user) {
+    long hash = 0xcbf29ce484222325L;
+
+    for (int index = 0; index < user.length(); index++) {
+      hash ^= user.charAt(index);
+      hash *= 0x100000001b3L;
+    }
+
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash == EMPTY_SLOT ? 1L : hash;
+  }
+
+  static final class Builder {
+    private long[] hashes;
+    private int[] offsets;
+    private byte[] identities;
+    private int size;
+    private int length;
+
+    Builder(int expectedSize) {
+      hashes = new long[Math.max(expectedSize, 1)];
+      offsets = new int[hashes.length];
+      identities = new byte[Math.max(expectedSize, 1) * 16];
+    }
+
+    Builder put(String user, Boolean value) {
+      boolean wide = false;
+
+      for (int index = 0; index < user.length() && !wide; index++) {
+        wide = user.charAt(index) > 0xFF;
+      }
+
+      int header = user.length() << 2 | (wide ? 2 : 0) | (value ? 1 : 0);
+      int offset = reserve(HEADER_LENGTH + user.length() * (wide ? 2 : 1));
+      identities[offset] = (byte) (header >>> 24);
+      identities[offset + 1] = (byte) (header >>> 16);
+      identities[offset + 2] = (byte) (header >>> 8);
+      identities[offset + 3] = (byte) header;
+      int start = offset + HEADER_LENGTH;
+
+      for (int index = 0; index < user.length(); index++) {
+        char c = user.charAt(index);
+
+        if (wide) {
+          identities[start + 2 * index] = (byte) (c >>> 8);
+          identities[start + 2 * index + 1] = (byte) c;
+        } else {
+          identities[start + index] = (byte) c;
+        }
+      }
+
+      add(hash(user), offset);
+      return this;
+    }
+
+    private void copy(long hash, byte[] source, int sourceOffset) {
+      int entryLength = entryLength(source, sourceOffset);
+      int offset = reserve(entryLength);
+      System.arraycopy(source, sourceOffset, identities, offset, entryLength);
+      add(hash, offset);
+    }
+
+    private int reserve(int entryLength) {
+      if (length + entryLength > identities.length) {
+        identities =
+            Arrays.copyOf(identities, Math.max(length + entryLength, identities.length * 2));
+      }
+
+      int offset = length;
+      length += entryLength;
+      return offset;
+    }
+
+    private void add(long hash, int offset) {
+      if (size == hashes.length) {
+        hashes = Arrays.copyOf(hashes, size * 2);
+        offsets = Arrays.copyOf(offsets, size * 2);
+      }
+
+      hashes[size] = hash;
+      offsets[size] = offset;
+      size++;
+    }
+
+    /*
+     * Lays the entries out in a table at most half full, a later put of a user replaces an
+     * earlier one
+     */
+    UserValueIndex build() {
+      int capacity = Integer.highestOneBit(Math.max(size, 1)) * 4;
+      long[] table = new long[capacity];
+      int[] tableOffsets = new int[capacity];
+      int mask = capacity - 1;
+      int count = 0;
+
+      for (int entry = 0; entry < size; entry++) {
+        int slot = (int) hashes[entry] & mask;
+
+        while (table[slot] != EMPTY_SLOT
+            && !(table[slot] == hashes[entry]
+                && sameIdentity(tableOffsets[slot], offsets[entry]))) {
+          slot = (slot + 1) & mask;
+        }
+
+        count += table[slot] == EMPTY_SLOT ? 1 : 0;
+        table[slot] = hashes[entry];
+        tableOffsets[slot] = offsets[entry];
+      }
+
+      return new UserValueIndex(
+          table, tableOffsets, Arrays.copyOf(identities, length), Collections.emptyMap(), count);
+    }
+
+    private boolean sameIdentity(int offset, int otherOffset) {
+      // The value bit is ignored, everything else is the identity
+      int header = header(identities, offset);
+      int otherHeader = header(identities, otherOffset);
+
+      if ((header | 1) != (otherHeader | 1)) {
+        return false;
+      }
+
+      int entryLength = entryLength(identities, offset);
+
+      for (int index = HEADER_LENGTH; index < entryLength; index++) {
+        if (identities[offset + index] != identities[otherOffset + index]) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+  }
+}
@@ -0,0 +1,99 @@
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+--
+--     http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+-- Base and Envers audit tables as generated by Hibernate for this library.
+-- Deployments that already have these tables should baseline at this version.
+
+CREATE SEQUENCE IF NOT EXISTS hibernate_sequence START 1 INCREMENT 1;
+
+CREATE TABLE IF NOT EXISTS revinfo (
+  rev INT4 NOT NULL,
+  revtstmp INT8,
+  PRIMARY KEY (rev)
+);
+
+CREATE TABLE flag (
+  id UUID NOT NULL,
+  created_by VARCHAR(255),
+  created_date TIMESTAMP,
+  modified_by VARCHAR(255),
+  modified_date TIMESTAMP,
+  name VARCHAR(512) NOT NULL,
+  PRIMARY KEY (id),
+  CONSTRAINT flag_name_uk UNIQUE (name)
+);
+
+CREATE TABLE flag_value (
+  id UUID NOT NULL,
+  created_by VARCHAR(255),
+  created_date TIMESTAMP,
+  modified_by VARCHAR(255),
+  modified_date TIMESTAMP,
+  value BOOLEAN NOT NULL,
+  flag_id UUID,
+  PRIMARY KEY (id),
+  CONSTRAINT flag_value_flag_fk FOREIGN KEY (flag_id) REFERENCES flag
+);
+
+CREATE TABLE flag_user_value (
+  id UUID NOT NULL,
+  created_by VARCHAR(255),
+  created_date TIMESTAMP,
+  modified_by VARCHAR(255),
+  modified_date TIMESTAMP,
+  user_identity VARCHAR(512) NOT NULL,
+  value BOOLEAN NOT NULL,
+  flag_id UUID,
+  PRIMARY KEY (id),
+  CONSTRAINT flag_user_value_flag_fk FOREIGN KEY (flag_id) REFERENCES flag
+);
+
+CREATE TABLE flag_aud (
+  id UUID NOT NULL,
+  rev INT4 NOT NULL,
+  revtype INT2,
+  created_by VARCHAR(255),
+  created_date TIMESTAMP,
+  modified_by VARCHAR(255),
+  modified_date TIMESTAMP,
+  name VARCHAR(512),
+  PRIMARY KEY (id, rev),
+  CONSTRAINT flag_aud_rev_fk FOREIGN KEY (rev) REFERENCES revinfo
+);
+
+CREATE TABLE flag_value_aud (
+  id UUID NOT NULL,
+  rev INT4 NOT NULL,
+  revtype INT2,
+  created_by VARCHAR(255),
+  created_date TIMESTAMP,
+  modified_by VARCHAR(255),
+  modified_date TIMESTAMP,
+  value BOOLEAN,
+  flag_id UUID,
+  PRIMARY KEY (id, rev),
+  CONSTRAINT flag_value_aud_rev_fk FOREIGN KEY (rev) REFERENCES revinfo
+);
+
+CREATE TABLE flag_user_value_aud (
+  id UUID NOT NULL,
+  rev INT4 NOT NULL,
+  revtype INT2,
+  created_by VARCHAR(255),
+  created_date TIMESTAMP,
+  modified_by VARCHAR(255),
+  modified_date TIMESTAMP,
+  user_identity VARCHAR(512),
+  value BOOLEAN,
+  flag_id UUID,
+  PRIMARY KEY (id, rev),
+  CONSTRAINT flag_user_value_aud_rev_fk FOREIGN KEY (rev) REFERENCES revinfo
+);
@@ -0,0 +1,19 @@
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+--
+--     http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+-- Unique constraints over the indexes built by version 2, in one transaction.
+-- Attaching an existing index takes a brief lock and does not scan the table.
+
+ALTER TABLE flag_value
+  ADD CONSTRAINT flag_value_flag_uk UNIQUE USING INDEX flag_value_flag_uk;
+
+ALTER TABLE flag_user_value
+  ADD CONSTRAINT flag_user_value_flag_user_uk UNIQUE USING INDEX flag_user_value_flag_user_uk;
@@ -0,0 +1,32 @@
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+--
+--     http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+-- Unique and covering indexes, built without blocking writes.
+-- CONCURRENTLY cannot run inside a transaction, this script runs without one.
+-- Duplicate flag_value or flag_user_value rows must be removed before this runs.
+
+CREATE UNIQUE INDEX CONCURRENTLY IF NOT EXISTS flag_value_flag_uk
+  ON flag_value (flag_id);
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS flag_value_resolution_idx
+  ON flag_value (flag_id, value);
+
+CREATE UNIQUE INDEX CONCURRENTLY IF NOT EXISTS flag_user_value_flag_user_uk
+  ON flag_user_value (flag_id, user_identity);
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS flag_aud_rev_idx
+  ON flag_aud (rev);
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS flag_value_aud_rev_idx
+  ON flag_value_aud (rev);
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS flag_user_value_aud_rev_idx
+  ON flag_user_value_aud (rev);
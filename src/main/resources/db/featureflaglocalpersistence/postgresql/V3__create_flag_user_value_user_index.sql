@@ -0,0 +1,16 @@
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+--
+--     http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+-- Covering index for evaluating every flag of one user.
+-- CONCURRENTLY cannot run inside a transaction, run each statement on its own.
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS flag_user_value_user_idx
+  ON flag_user_value (user_identity, flag_id, value);
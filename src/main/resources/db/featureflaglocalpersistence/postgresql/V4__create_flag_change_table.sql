@@ -0,0 +1,24 @@
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+--
+--     http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+-- Change log read by every node to refresh its cached flag state.
+-- Entries older than the configured retention are deleted by the nodes.
+
+CREATE TABLE flag_change (
+  sequence_number BIGINT GENERATED BY DEFAULT AS IDENTITY,
+  created_date TIMESTAMP NOT NULL,
+  type VARCHAR(16) NOT NULL,
+  flag_name VARCHAR(512) NOT NULL,
+  user_identity VARCHAR(512),
+  PRIMARY KEY (sequence_number)
+);
+
+CREATE INDEX flag_change_created_idx ON flag_change (created_date);
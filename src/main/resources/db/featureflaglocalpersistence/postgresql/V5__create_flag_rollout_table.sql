@@ -0,0 +1,43 @@
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+--
+--     http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+-- Percentage rollouts of flags, at most one per flag, with their Envers audit table.
+
+CREATE TABLE flag_rollout (
+  id UUID NOT NULL,
+  created_by VARCHAR(255),
+  created_date TIMESTAMP,
+  modified_by VARCHAR(255),
+  modified_date TIMESTAMP,
+  percentage FLOAT8 NOT NULL,
+  salt VARCHAR(255) NOT NULL,
+  flag_id UUID,
+  PRIMARY KEY (id),
+  CONSTRAINT flag_rollout_flag_fk FOREIGN KEY (flag_id) REFERENCES flag,
+  CONSTRAINT flag_rollout_flag_uk UNIQUE (flag_id)
+);
+
+CREATE TABLE flag_rollout_aud (
+  id UUID NOT NULL,
+  rev INT4 NOT NULL,
+  revtype INT2,
+  created_by VARCHAR(255),
+  created_date TIMESTAMP,
+  modified_by VARCHAR(255),
+  modified_date TIMESTAMP,
+  percentage FLOAT8,
+  salt VARCHAR(255),
+  flag_id UUID,
+  PRIMARY KEY (id, rev),
+  CONSTRAINT flag_rollout_aud_rev_fk FOREIGN KEY (rev) REFERENCES revinfo
+);
+
+CREATE INDEX flag_rollout_aud_rev_idx ON flag_rollout_aud (rev);
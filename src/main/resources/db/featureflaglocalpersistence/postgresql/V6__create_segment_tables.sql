@@ -0,0 +1,99 @@
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+--
+--     http://www.apache.org/licenses/LICENSE-2.0
+--
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+-- Segments of users, their members and the values of flags for them, with their Envers audit tables.
+
+CREATE TABLE segment (
+  id UUID NOT NULL,
+  created_by VARCHAR(255),
+  created_date TIMESTAMP,
+  modified_by VARCHAR(255),
+  modified_date TIMESTAMP,
+  name VARCHAR(512) NOT NULL,
+  PRIMARY KEY (id),
+  CONSTRAINT segment_name_uk UNIQUE (name)
+);
+
+CREATE TABLE segment_member (
+  id UUID NOT NULL,
+  created_by VARCHAR(255),
+  created_date TIMESTAMP,
+  modified_by VARCHAR(255),
+  modified_date TIMESTAMP,
+  user_identity VARCHAR(512) NOT NULL,
+  segment_id UUID,
+  PRIMARY KEY (id),
+  CONSTRAINT segment_member_segment_fk FOREIGN KEY (segment_id) REFERENCES segment,
+  CONSTRAINT segment_member_segment_user_uk UNIQUE (segment_id, user_identity)
+);
+
+CREATE INDEX segment_member_user_idx ON segment_member (user_identity, segment_id);
+
+CREATE TABLE flag_segment_value (
+  id UUID NOT NULL,
+  created_by VARCHAR(255),
+  created_date TIMESTAMP,
+  modified_by VARCHAR(255),
+  modified_date TIMESTAMP,
+  value BOOLEAN NOT NULL,
+  flag_id UUID,
+  segment_id UUID,
+  PRIMARY KEY (id),
+  CONSTRAINT flag_segment_value_flag_fk FOREIGN KEY (flag_id) REFERENCES flag,
+  CONSTRAINT flag_segment_value_segment_fk FOREIGN KEY (segment_id) REFERENCES segment,
+  CONSTRAINT flag_segment_value_flag_segment_uk UNIQUE (flag_id, segment_id)
+);
+
+CREATE TABLE segment_aud (
+  id UUID NOT NULL,
+  rev INT4 NOT NULL,
+  revtype INT2,
+  created_by VARCHAR(255),
+  created_date TIMESTAMP,
+  modified_by VARCHAR(255),
+  modified_date TIMESTAMP,
+  name VARCHAR(512),
+  PRIMARY KEY (id, rev),
+  CONSTRAINT segment_aud_rev_fk FOREIGN KEY (rev) REFERENCES revinfo
+);
+
+CREATE TABLE segment_member_aud (
+  id UUID NOT NULL,
+  rev INT4 NOT NULL,
+  revtype INT2,
+  created_by VARCHAR(255),
+  created_date TIMESTAMP,
+  modified_by VARCHAR(255),
+  modified_date TIMESTAMP,
+  user_identity VARCHAR(512),
+  segment_id UUID,
+  PRIMARY KEY (id, rev),
+  CONSTRAINT segment_member_aud_rev_fk FOREIGN KEY (rev) REFERENCES revinfo
+);
+
+CREATE TABLE flag_segment_value_aud (
+  id UUID NOT NULL,
+  rev INT4 NOT NULL,
+  revtype INT2,
+  created_by VARCHAR(255),
+  created_date TIMESTAMP,
+  modified_by VARCHAR(255),
+  modified_date TIMESTAMP,
+  value BOOLEAN,
+  flag_id UUID,
+  segment_id UUID,
+  PRIMARY KEY (id, rev),
+  CONSTRAINT flag_segment_value_aud_rev_fk FOREIGN KEY (rev) REFERENCES revinfo
+);
+
+CREATE INDEX segment_aud_rev_idx ON segment_aud (rev);
+CREATE INDEX segment_member_aud_rev_idx ON segment_member_aud (rev);
+CREATE INDEX flag_segment_value_aud_rev_idx ON flag_segment_value_aud (rev);
@@ -19,8 +19,13 @@ import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.persistence.EntityManagerFactory;
 
@@ -32,10 +37,15 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.DataAccessException;
 import org.springframework.data.jpa.repository.config.EnableJpaAuditing;
+import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import io.service84.library.featureflaglocalpersistence.persistence.models.Flag;
 import io.service84.library.featureflaglocalpersistence.persistence.models.FlagUserValue;
@@ -44,12 +54,20 @@ import io.service84.library.featureflaglocalpersistence.persistence.repositories
 import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagUserValueRepository;
 import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagValueRepository;
 import io.service84.library.featureflaglocalpersistence.services.FeatureFlagLocalPersistence;
+import io.service84.library.featureflaglocalpersistence.services.FeatureFlagLocalPersistenceTestConfiguration;
 import io.service84.library.featureflaglocalpersistence.services.Translator;
 
 @ExtendWith(SpringExtension.class)
 @DataJpaTest
+@Import(FeatureFlagLocalPersistenceTestConfiguration.class)
 @EnableJpaAuditing
 @Transactional(propagation = Propagation.NOT_SUPPORTED)
+// The concurrent writers expect unique violations, Hibernate logs each of them at error
+@TestPropertySource(
+    properties = {
+      "io.service84.library.featureflaglocalpersistence.clear.chunk-size=4",
+      "logging.level.org.hibernate.engine.jdbc.spi.SqlExceptionHelper=OFF"
+    })
 public class FeatureFlagLocalPersistenceAuditTests {
   @TestConfiguration
   public static class Configuration {
@@ -59,16 +77,6 @@ public class FeatureFlagLocalPersistenceAuditTests {
     AuditReader auditReader() {
       return AuditReaderFactory.get(entityManagerFactory.createEntityManager());
     }
-
-    @Bean
-    public FeatureFlagLocalPersistence getKeyValueService() {
-      return new FeatureFlagLocalPersistence();
-    }
-
-    @Bean
-    public Translator getTranslator() {
-      return new Translator();
-    }
   }
 
   @Autowired private Translator translator;
@@ -77,6 +85,7 @@ public class FeatureFlagLocalPersistenceAuditTests {
   @Autowired private FlagValueRepository fvRepository;
   @Autowired private FlagUserValueRepository fuvRepository;
   @Autowired private AuditReader auditReader;
+  @Autowired private PlatformTransactionManager transactionManager;
 
   @Test
   public void exists() {
@@ -153,4 +162,101 @@ public class FeatureFlagLocalPersistenceAuditTests {
     List<Number> revisions = auditReader.getRevisions(FlagUserValue.class, id);
     assertEquals(10, revisions.size());
   }
+
+  @Test
+  public void concurrentFlagUserValueWriters() throws Exception {
+    String flagName = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    fflpService.createFlag(flagName);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<?>> futures = new ArrayList<>();
+
+    for (int writer = 0; writer < 8; writer++) {
+      Boolean value = writer % 2 == 0;
+      futures.add(executor.submit(() -> fflpService.setValue(flagName, user, value)));
+    }
+
+    for (Future<?> future : futures) {
+      future.get();
+    }
+
+    executor.shutdown();
+    Flag flag = flagRepository.getByName(flagName).get();
+    FlagUserValue flagUserValue = fuvRepository.getByFlagAndUserIdentity(flag, user).get();
+    UUID id = getFlagUserValueId(flagUserValue);
+    List<Number> revisions = auditReader.getRevisions(FlagUserValue.class, id);
+    assertTrue(revisions.size() >= 1);
+    assertEquals(flagUserValue.getValue(), fflpService.getValue(flagName, user));
+  }
+
+  @Test
+  public void concurrentWritersInCallerTransactions() throws Exception {
+    String flagName = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    fflpService.createFlag(flagName);
+    TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<?>> futures = new ArrayList<>();
+
+    for (int writer = 0; writer < 8; writer++) {
+      Boolean value = writer % 2 == 0;
+      futures.add(
+          executor.submit(
+              () ->
+                  transactionTemplate.execute(
+                      status -> {
+                        fflpService.setValue(flagName, user, value);
+                        return null;
+                      })));
+    }
+
+    int written = 0;
+
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+        written++;
+      } catch (ExecutionException e) {
+        // The violation reaches the caller, whose transaction cannot be retried
+        assertTrue(e.getCause() instanceof DataAccessException, e.getCause().toString());
+      }
+    }
+
+    executor.shutdown();
+    assertTrue(written >= 1);
+    Flag flag = flagRepository.getByName(flagName).get();
+    FlagUserValue flagUserValue = fuvRepository.getByFlagAndUserIdentity(flag, user).get();
+    assertEquals(flagUserValue.getValue(), fflpService.getValue(flagName, user));
+  }
+
+  @Test
+  public void clearAllUserValuesVersions() {
+    String flagName = UUID.randomUUID().toString();
+    List<String> users = new ArrayList<>();
+
+    for (int user = 0; user < 10; user++) {
+      users.add(UUID.randomUUID().toString());
+      fflpService.setValue(flagName, users.get(user), Boolean.TRUE);
+    }
+
+    Flag flag = flagRepository.getByName(flagName).get();
+    List<UUID> ids = new ArrayList<>();
+
+    for (String user : users) {
+      ids.add(getFlagUserValueId(fuvRepository.getByFlagAndUserIdentity(flag, user).get()));
+    }
+
+    List<Long> progress = new ArrayList<>();
+    Long deleted = fflpService.clearAllUserValues(flagName, progress::add);
+    assertEquals(10, deleted);
+    assertEquals(List.of(4L, 8L, 10L), progress);
+
+    for (UUID id : ids) {
+      assertEquals(2, auditReader.getRevisions(FlagUserValue.class, id).size());
+    }
+
+    for (String user : users) {
+      assertTrue(fuvRepository.getByFlagAndUserIdentity(flag, user).isEmpty());
+    }
+  }
 }
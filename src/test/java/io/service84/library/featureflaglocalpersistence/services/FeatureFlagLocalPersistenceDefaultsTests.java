@@ -0,0 +1,112 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+import java.util.Optional;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/*
+ * Only the required beans are declared, every optional feature stays disabled
+ */
+@ExtendWith(SpringExtension.class)
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class FeatureFlagLocalPersistenceDefaultsTests {
+  @TestConfiguration
+  public static class Configuration {
+    @Bean
+    public FeatureFlagLocalPersistence getKeyValueService() {
+      return new FeatureFlagLocalPersistence();
+    }
+
+    @Bean
+    public Translator getTranslator() {
+      return new Translator();
+    }
+
+    @Bean
+    public FlagRegistrar getFlagRegistrar() {
+      return new FlagRegistrar();
+    }
+
+    @Bean
+    public UserValueCache getUserValueCache() {
+      return new UserValueCache();
+    }
+
+    @Bean
+    public FlagExecutor getFlagExecutor() {
+      return new FlagExecutor();
+    }
+  }
+
+  // Test Subject
+  @Autowired private FeatureFlagLocalPersistence fflpService;
+
+  @Test
+  public void valuesRoundTrip() {
+    String flag = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    assertFalse(fflpService.getValue(flag, user, Boolean.FALSE));
+    fflpService.setValue(flag, Boolean.TRUE);
+    assertTrue(fflpService.getValue(flag, user, Boolean.FALSE));
+    fflpService.setValue(flag, user, Boolean.FALSE);
+    assertFalse(fflpService.getValue(flag, user, Boolean.TRUE));
+    fflpService.clearValue(flag, user);
+    assertTrue(fflpService.getValue(flag, user, Boolean.FALSE));
+  }
+
+  @Test
+  public void bulkMutationsRoundTrip() {
+    String flag = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    fflpService.createFlag(flag);
+    fflpService.setValue(flag, Boolean.FALSE);
+    fflpService.setValues(flag, Collections.singletonMap(user, Boolean.TRUE));
+    assertEquals(Boolean.TRUE, fflpService.getValue(flag, user, Boolean.FALSE));
+    fflpService.clearAllUserValues(flag);
+    assertEquals(Boolean.FALSE, fflpService.getValue(flag, user, Boolean.TRUE));
+  }
+
+  @Test
+  public void undeclaredBeansAreNoOps() throws Exception {
+    FlagStateCache.DISABLED.refresh();
+    FlagStateCache.DISABLED.applyValue("flag", Boolean.TRUE);
+    assertNull(FlagStateCache.DISABLED.getSnapshot());
+    FlagChangeLog.DISABLED.appendValue("flag");
+    FlagChangeLog.DISABLED.poll();
+    assertFalse(FlagWriteBehind.DISABLED.enqueue("flag", null, Boolean.TRUE));
+    FlagWriteBehind.DISABLED.drain();
+    assertFalse(FlagLatencyBudget.DISABLED.isCircuitOpen());
+    assertTrue(FlagLatencyBudget.DISABLED.evaluate("flag", null, Boolean.FALSE, () -> true));
+    assertEquals(Optional.empty(), FlagSnapshotFile.DISABLED.read());
+  }
+}
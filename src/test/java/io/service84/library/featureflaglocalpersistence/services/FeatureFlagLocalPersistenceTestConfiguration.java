@@ -0,0 +1,79 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+/*
+ * The beans of this library, imported by the tests that need them
+ */
+@TestConfiguration
+public class FeatureFlagLocalPersistenceTestConfiguration {
+  @Bean
+  public FeatureFlagLocalPersistence getKeyValueService() {
+    return new FeatureFlagLocalPersistence();
+  }
+
+  @Bean
+  public Translator getTranslator() {
+    return new Translator();
+  }
+
+  @Bean
+  public FlagRegistrar getFlagRegistrar() {
+    return new FlagRegistrar();
+  }
+
+  @Bean
+  public FlagStateCache getFlagStateCache() {
+    return new FlagStateCache();
+  }
+
+  @Bean
+  public UserValueCache getUserValueCache() {
+    return new UserValueCache();
+  }
+
+  @Bean
+  public FlagChangeLog getFlagChangeLog() {
+    return new FlagChangeLog();
+  }
+
+  @Bean
+  public FlagSnapshotFile getFlagSnapshotFile() {
+    return new FlagSnapshotFile();
+  }
+
+  @Bean
+  public FlagExecutor getFlagExecutor() {
+    return new FlagExecutor();
+  }
+
+  @Bean
+  public FlagWriteBehind getFlagWriteBehind() {
+    return new FlagWriteBehind();
+  }
+
+  @Bean
+  public FlagReadRouting getFlagReadRouting() {
+    return new FlagReadRouting();
+  }
+
+  @Bean
+  public FlagLatencyBudget getFlagLatencyBudget() {
+    return new FlagLatencyBudget();
+  }
+}
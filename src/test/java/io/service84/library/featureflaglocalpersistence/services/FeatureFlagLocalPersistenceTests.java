@@ -17,45 +17,41 @@ package io.service84.library.featureflaglocalpersistence.services;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
-import org.springframework.boot.test.context.TestConfiguration;
-import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
 import io.service84.library.featureflag.model.FlagPage;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagRepository;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagRepository.FlagResolution;
 import io.service84.library.featureflaglocalpersistence.services.FeatureFlagLocalPersistence;
-import io.service84.library.featureflaglocalpersistence.services.Translator;
 
 @ExtendWith(SpringExtension.class)
 @DataJpaTest
+@Import(FeatureFlagLocalPersistenceTestConfiguration.class)
 public class FeatureFlagLocalPersistenceTests {
   public static class AClass {
     public String memberA;
     public String memberB;
   }
 
-  @TestConfiguration
-  public static class Configuration {
-    @Bean
-    public FeatureFlagLocalPersistence getKeyValueService() {
-      return new FeatureFlagLocalPersistence();
-    }
-
-    @Bean
-    public Translator getTranslator() {
-      return new Translator();
-    }
-  }
-
   // Test Subject
   @Autowired private FeatureFlagLocalPersistence fflpService;
+  @Autowired private FlagRepository flagRepository;
 
   @Test
   public void existenceTest() {
@@ -78,6 +74,16 @@ public class FeatureFlagLocalPersistenceTests {
     assertTrue(value);
   }
 
+  @Test
+  public void handleWithoutCache() {
+    String flag = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    FlagHandle flagHandle = fflpService.handle(flag, Boolean.FALSE);
+    assertFalse(flagHandle.isEnabled(user));
+    fflpService.setValue(flag, user, Boolean.TRUE);
+    assertTrue(flagHandle.isEnabled(user));
+  }
+
   @Test
   public void getValueDefaultFalse() {
     String flag = UUID.randomUUID().toString();
@@ -154,6 +160,31 @@ public class FeatureFlagLocalPersistenceTests {
     assertEquals(userValue, gotValue);
   }
 
+  @Test
+  public void userOverrideWithoutFlagValue() {
+    String flag = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    fflpService.setValue(flag, user, Boolean.FALSE);
+    assertFalse(fflpService.getValue(flag, user, Boolean.TRUE));
+    assertTrue(fflpService.getValue(flag, UUID.randomUUID().toString(), Boolean.TRUE));
+  }
+
+  @Test
+  public void resolveByNameAndUser() {
+    String flag = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    assertTrue(flagRepository.resolveByNameAndUser(flag, user).isEmpty());
+    fflpService.createFlag(flag);
+    FlagResolution resolution = flagRepository.resolveByNameAndUser(flag, user).get();
+    assertNull(resolution.getUserValue());
+    assertNull(resolution.getFlagValue());
+    fflpService.setValue(flag, Boolean.TRUE);
+    fflpService.setValue(flag, user, Boolean.FALSE);
+    resolution = flagRepository.resolveByNameAndUser(flag, user).get();
+    assertEquals(Boolean.FALSE, resolution.getUserValue());
+    assertEquals(Boolean.TRUE, resolution.getFlagValue());
+  }
+
   @Test
   public void clearUserOverride() {
     String flag = UUID.randomUUID().toString();
@@ -180,6 +211,114 @@ public class FeatureFlagLocalPersistenceTests {
     assertEquals(flagValue, gotValue);
   }
 
+  @Test
+  public void setValuesUsers() {
+    String flag = UUID.randomUUID().toString();
+    Map<String, Boolean> userValues = new HashMap<>();
+
+    for (int user = 0; user < 25; user++) {
+      userValues.put(UUID.randomUUID().toString(), user % 2 == 0);
+    }
+
+    fflpService.setValue(flag, Boolean.TRUE);
+    fflpService.setValues(flag, userValues);
+
+    for (Map.Entry<String, Boolean> userValue : userValues.entrySet()) {
+      assertEquals(userValue.getValue(), fflpService.getValue(flag, userValue.getKey()));
+    }
+
+    userValues.replaceAll((user, value) -> !value);
+    fflpService.setValues(flag, userValues);
+
+    for (Map.Entry<String, Boolean> userValue : userValues.entrySet()) {
+      assertEquals(userValue.getValue(), fflpService.getValue(flag, userValue.getKey()));
+    }
+  }
+
+  @Test
+  public void clearValuesUsers() {
+    String flag = UUID.randomUUID().toString();
+    String keptUser = UUID.randomUUID().toString();
+    Map<String, Boolean> userValues = new HashMap<>();
+
+    for (int user = 0; user < 25; user++) {
+      userValues.put(UUID.randomUUID().toString(), Boolean.FALSE);
+    }
+
+    fflpService.setValue(flag, Boolean.TRUE);
+    fflpService.setValues(flag, userValues);
+    fflpService.setValue(flag, keptUser, Boolean.FALSE);
+    fflpService.clearValues(flag, userValues.keySet());
+
+    for (String user : userValues.keySet()) {
+      assertTrue(fflpService.getValue(flag, user));
+    }
+
+    assertFalse(fflpService.getValue(flag, keptUser));
+  }
+
+  @Test
+  public void setValuesFlags() {
+    String existingFlag = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    fflpService.setValue(existingFlag, Boolean.TRUE);
+    Map<String, Boolean> flagValues = new HashMap<>();
+    flagValues.put(existingFlag, Boolean.FALSE);
+
+    for (int flag = 0; flag < 25; flag++) {
+      flagValues.put(UUID.randomUUID().toString(), flag % 2 == 0);
+    }
+
+    fflpService.setValues(flagValues);
+
+    for (Map.Entry<String, Boolean> flagValue : flagValues.entrySet()) {
+      assertEquals(flagValue.getValue(), fflpService.getValue(flagValue.getKey(), user));
+    }
+  }
+
+  @Test
+  public void getValuesUsers() {
+    String flag = UUID.randomUUID().toString();
+    List<String> users = new ArrayList<>();
+    Map<String, Boolean> userValues = new HashMap<>();
+
+    for (int user = 0; user < 25; user++) {
+      users.add(UUID.randomUUID().toString());
+
+      if (user % 3 == 0) {
+        userValues.put(users.get(user), Boolean.FALSE);
+      }
+    }
+
+    BitSet defaults = fflpService.getValues(flag, users, Boolean.FALSE);
+    assertTrue(defaults.isEmpty());
+    fflpService.setValue(flag, Boolean.TRUE);
+    fflpService.setValues(flag, userValues);
+    BitSet values = fflpService.getValues(flag, users);
+
+    for (int user = 0; user < users.size(); user++) {
+      assertEquals(fflpService.getValue(flag, users.get(user)), values.get(user));
+      assertEquals(user % 3 != 0, values.get(user));
+    }
+  }
+
+  @Test
+  public void getAllValuesUser() {
+    String flagA = UUID.randomUUID().toString();
+    String flagB = UUID.randomUUID().toString();
+    String flagC = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    fflpService.setValue(flagA, Boolean.TRUE);
+    fflpService.setValue(flagA, user, Boolean.FALSE);
+    fflpService.setValue(flagB, Boolean.FALSE);
+    fflpService.createFlag(flagC);
+    Map<String, Boolean> values = fflpService.getAllValues(user, Boolean.TRUE);
+    assertEquals(Boolean.FALSE, values.get(flagA));
+    assertEquals(Boolean.FALSE, values.get(flagB));
+    assertEquals(Boolean.TRUE, values.get(flagC));
+    assertEquals(Boolean.TRUE, fflpService.getAllValues(UUID.randomUUID().toString()).get(flagA));
+  }
+
   @Test
   public void clearFlagValue() {
     String flag = UUID.randomUUID().toString();
@@ -256,4 +395,74 @@ public class FeatureFlagLocalPersistenceTests {
     FlagPage gotFlags = fflpService.getFlags(null, Integer.MAX_VALUE);
     assertTrue(gotFlags.getFlags().contains(flag));
   }
+
+  @Test
+  public void rolloutWithoutCache() {
+    String flag = UUID.randomUUID().toString();
+    String included = userInRollout("salt", 50.0, true);
+    String excluded = userInRollout("salt", 50.0, false);
+    String overridden = userInRollout("salt", 50.0, true);
+    fflpService.setValue(flag, Boolean.FALSE);
+    fflpService.setValue(flag, overridden, Boolean.FALSE);
+    fflpService.setRollout(flag, 50.0, "salt");
+    assertTrue(fflpService.getValue(flag, included));
+    assertFalse(fflpService.getValue(flag, excluded));
+    assertFalse(fflpService.getValue(flag, overridden));
+    BitSet values = fflpService.getValues(flag, List.of(included, excluded, overridden));
+    assertEquals(1, values.cardinality());
+    assertTrue(values.get(0));
+    assertTrue(fflpService.getAllValues(included).get(flag));
+    assertFalse(fflpService.getAllValues(excluded).get(flag));
+    fflpService.clearRollout(flag);
+    assertFalse(fflpService.getValue(flag, included));
+  }
+
+  @Test
+  public void rolloutNeedsPercentage() {
+    String flag = UUID.randomUUID().toString();
+    assertThrows(IllegalArgumentException.class, () -> fflpService.setRollout(flag, 101.0));
+    assertThrows(IllegalArgumentException.class, () -> fflpService.setRollout(flag, null));
+  }
+
+  private static String userInRollout(String salt, double percentage, boolean included) {
+    RolloutRule rollout = RolloutRule.of(percentage, salt);
+
+    while (true) {
+      String user = UUID.randomUUID().toString();
+
+      if (rollout.includes(user) == included) {
+        return user;
+      }
+    }
+  }
+
+  @Test
+  public void segmentWithoutCache() {
+    String flag = UUID.randomUUID().toString();
+    String segment = UUID.randomUUID().toString();
+    String otherSegment = UUID.randomUUID().toString();
+    String member = UUID.randomUUID().toString();
+    String overridden = UUID.randomUUID().toString();
+    String both = UUID.randomUUID().toString();
+    String outsider = UUID.randomUUID().toString();
+    fflpService.setValue(flag, Boolean.FALSE);
+    fflpService.setValue(flag, overridden, Boolean.FALSE);
+    fflpService.addSegmentMembers(segment, List.of(member, overridden, both));
+    fflpService.addSegmentMembers(otherSegment, List.of(both));
+    fflpService.setSegmentValue(flag, segment, Boolean.TRUE);
+    fflpService.setSegmentValue(flag, otherSegment, Boolean.FALSE);
+    assertTrue(fflpService.getValue(flag, member));
+    assertFalse(fflpService.getValue(flag, overridden));
+    assertFalse(fflpService.getValue(flag, both));
+    assertFalse(fflpService.getValue(flag, outsider));
+    BitSet values = fflpService.getValues(flag, List.of(member, overridden, both, outsider));
+    assertEquals(1, values.cardinality());
+    assertTrue(values.get(0));
+    assertTrue(fflpService.getAllValues(member).get(flag));
+    assertFalse(fflpService.getAllValues(both).get(flag));
+    fflpService.removeSegmentMembers(segment, List.of(member));
+    assertFalse(fflpService.getValue(flag, member));
+    fflpService.clearSegmentValue(flag, otherSegment);
+    assertTrue(fflpService.getValue(flag, both));
+  }
 }
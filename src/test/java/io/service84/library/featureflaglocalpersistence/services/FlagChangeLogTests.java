@@ -0,0 +1,283 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import io.service84.library.featureflaglocalpersistence.persistence.models.Flag;
+import io.service84.library.featureflaglocalpersistence.persistence.models.FlagChange;
+import io.service84.library.featureflaglocalpersistence.persistence.models.FlagSegmentValue;
+import io.service84.library.featureflaglocalpersistence.persistence.models.FlagUserValue;
+import io.service84.library.featureflaglocalpersistence.persistence.models.FlagValue;
+import io.service84.library.featureflaglocalpersistence.persistence.models.Segment;
+import io.service84.library.featureflaglocalpersistence.persistence.models.SegmentMember;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagChangeRepository;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagRepository;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagSegmentValueRepository;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagUserValueRepository;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagValueRepository;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.SegmentMemberRepository;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.SegmentRepository;
+
+@ExtendWith(SpringExtension.class)
+@DataJpaTest
+@Import(FeatureFlagLocalPersistenceTestConfiguration.class)
+@TestPropertySource(
+    properties = {
+      "io.service84.library.featureflaglocalpersistence.cache.enabled=true",
+      "io.service84.library.featureflaglocalpersistence.cache.refresh-interval=3600000",
+      "io.service84.library.featureflaglocalpersistence.change-log.enabled=true",
+      "io.service84.library.featureflaglocalpersistence.change-log.poll-interval=3600000",
+      "io.service84.library.featureflaglocalpersistence.change-log.batch-size=2",
+      "io.service84.library.featureflaglocalpersistence.change-log.max-read=3",
+      "io.service84.library.featureflaglocalpersistence.batch.chunk-size=2",
+      "io.service84.library.featureflaglocalpersistence.clear.chunk-size=2"
+    })
+public class FlagChangeLogTests {
+  // Test Subject
+  @Autowired private FlagChangeLog flagChangeLog;
+  @Autowired private FeatureFlagLocalPersistence fflpService;
+  @Autowired private FlagStateCache flagStateCache;
+  @Autowired private FlagChangeRepository fcRepository;
+  @Autowired private FlagRepository flagRepository;
+  @Autowired private FlagValueRepository fvRepository;
+  @Autowired private FlagUserValueRepository fuvRepository;
+  @Autowired private SegmentRepository segmentRepository;
+  @Autowired private SegmentMemberRepository smRepository;
+  @Autowired private FlagSegmentValueRepository fsvRepository;
+  @Autowired private TestEntityManager entityManager;
+
+  @Test
+  public void mutationsAppendChanges() {
+    String flagName = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    fflpService.setValue(flagName, Boolean.FALSE);
+    fflpService.setValue(flagName, user, Boolean.TRUE);
+    fflpService.clearValue(flagName, user);
+    fflpService.clearAllUserValues(flagName);
+    List<FlagChange.Type> types =
+        fcRepository.findAll(Sort.by("sequenceNumber")).stream()
+            .filter(change -> flagName.equals(change.getFlagName()))
+            .map(FlagChange::getType)
+            .collect(Collectors.toList());
+    assertEquals(
+        List.of(
+            FlagChange.Type.VALUE,
+            FlagChange.Type.VALUE,
+            FlagChange.Type.USER_VALUE,
+            FlagChange.Type.USER_VALUE),
+        types);
+  }
+
+  @Test
+  public void pollAppliesValueOfAnotherNode() {
+    String flagName = UUID.randomUUID().toString();
+    Flag flag = flagRepository.save(new Flag(flagName));
+    fvRepository.save(new FlagValue(flag, Boolean.FALSE));
+    fcRepository.save(new FlagChange(FlagChange.Type.VALUE, flagName, null));
+    assertNull(flagStateCache.getFlagState(flagName));
+    flagChangeLog.poll();
+    assertEquals(Boolean.FALSE, flagStateCache.getFlagState(flagName).getValue());
+    assertEquals(Boolean.FALSE, fflpService.getValue(flagName, UUID.randomUUID().toString()));
+  }
+
+  @Test
+  public void pollAppliesUserValuesOfAnotherNode() {
+    String flagName = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    String otherUser = UUID.randomUUID().toString();
+    fflpService.setValue(flagName, user, Boolean.FALSE);
+    Flag flag = flagRepository.getByName(flagName).get();
+    fuvRepository.delete(fuvRepository.getByFlagAndUserIdentity(flag, user).get());
+    fuvRepository.save(new FlagUserValue(flag, otherUser, Boolean.FALSE));
+    fcRepository.save(new FlagChange(FlagChange.Type.USER_VALUE, flagName, user));
+    fcRepository.save(new FlagChange(FlagChange.Type.USER_VALUE, flagName, otherUser));
+    assertEquals(Boolean.FALSE, flagStateCache.getFlagState(flagName).getUserValue(user));
+    flagChangeLog.poll();
+    assertNull(flagStateCache.getFlagState(flagName).getUserValue(user));
+    assertEquals(Boolean.FALSE, flagStateCache.getFlagState(flagName).getUserValue(otherUser));
+  }
+
+  @Test
+  public void pollReplacesUserValuesOfAnotherNode() {
+    String flagName = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    fflpService.setValue(flagName, user, Boolean.FALSE);
+    fuvRepository.deleteAll(
+        fuvRepository.findByFlag(flagRepository.getByName(flagName).get(), Pageable.unpaged()));
+    fcRepository.save(new FlagChange(FlagChange.Type.USER_VALUES, flagName, null));
+    flagChangeLog.poll();
+    assertNull(flagStateCache.getFlagState(flagName).getUserValue(user));
+    assertEquals(0, flagStateCache.getFlagState(flagName).getUserValueCount());
+  }
+
+  @Test
+  public void bulkMutationsAppendOneChangePerChunk() {
+    String flagName = UUID.randomUUID().toString();
+    fflpService.setValues(flagName, Map.of("user-1", Boolean.TRUE, "user-2", Boolean.FALSE));
+    fflpService.clearValues(flagName, List.of("user-1", "user-2", "user-3"));
+    List<FlagChange.Type> types =
+        fcRepository.findAll(Sort.by("sequenceNumber")).stream()
+            .filter(change -> flagName.equals(change.getFlagName()))
+            .map(FlagChange::getType)
+            .collect(Collectors.toList());
+    assertEquals(
+        List.of(
+            FlagChange.Type.VALUE,
+            FlagChange.Type.USER_VALUES,
+            FlagChange.Type.USER_VALUES,
+            FlagChange.Type.USER_VALUES),
+        types);
+  }
+
+  @Test
+  public void clearAllUserValuesAppendsOnceAfterTheLastChunk() {
+    String flagName = UUID.randomUUID().toString();
+    Map<String, Boolean> userValues = new HashMap<>();
+
+    for (int user = 0; user < 5; user++) {
+      userValues.put(UUID.randomUUID().toString(), Boolean.TRUE);
+    }
+
+    fflpService.setValues(flagName, userValues);
+    assertEquals(5L, fflpService.clearAllUserValues(flagName, deleted -> {}));
+    List<FlagChange.Type> types =
+        fcRepository.findAll(Sort.by("sequenceNumber")).stream()
+            .filter(change -> flagName.equals(change.getFlagName()))
+            .map(FlagChange::getType)
+            .filter(type -> type != FlagChange.Type.USER_VALUES)
+            .collect(Collectors.toList());
+    assertEquals(List.of(FlagChange.Type.VALUE, FlagChange.Type.ALL_USER_VALUES), types);
+  }
+
+  @Test
+  public void bulkFlagMutationsAppendEveryFlag() {
+    List<String> flagNames =
+        List.of(
+            UUID.randomUUID().toString(),
+            UUID.randomUUID().toString(),
+            UUID.randomUUID().toString());
+    fflpService.setValues(Map.of(flagNames.get(0), Boolean.TRUE, flagNames.get(1), Boolean.FALSE));
+    fflpService.setValues(Map.of(flagNames.get(2), Boolean.TRUE));
+    Map<String, Long> counts =
+        fcRepository.findAll().stream()
+            .filter(change -> flagNames.contains(change.getFlagName()))
+            .filter(change -> change.getType() == FlagChange.Type.VALUE)
+            .collect(Collectors.groupingBy(FlagChange::getFlagName, Collectors.counting()));
+
+    // Created, then set
+    assertEquals(Map.of(flagNames.get(0), 2L, flagNames.get(1), 2L, flagNames.get(2), 2L), counts);
+  }
+
+  @Test
+  public void pollAppliesMoreChangesThanOneRead() {
+    List<String> flagNames = new ArrayList<>();
+
+    for (int change = 0; change < 7; change++) {
+      String flagName = UUID.randomUUID().toString();
+      Flag flag = flagRepository.save(new Flag(flagName));
+      fvRepository.save(new FlagValue(flag, Boolean.FALSE));
+      fcRepository.save(new FlagChange(FlagChange.Type.VALUE, flagName, null));
+      flagNames.add(flagName);
+    }
+
+    flagChangeLog.poll();
+
+    for (String flagName : flagNames) {
+      assertEquals(Boolean.FALSE, flagStateCache.getFlagState(flagName).getValue());
+    }
+  }
+
+  @Test
+  public void pollClearsUserValuesOfAnotherNodeWithoutReading() {
+    String flagName = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    fflpService.setValue(flagName, user, Boolean.FALSE);
+    flagChangeLog.poll();
+
+    // The FlagUserValue is left in place, a node that read it back would keep it
+    fcRepository.save(new FlagChange(FlagChange.Type.ALL_USER_VALUES, flagName, null));
+    flagChangeLog.poll();
+    assertEquals(0, flagStateCache.getFlagState(flagName).getUserValueCount());
+  }
+
+  @Test
+  public void pollReadsChangesThatCommitLate() {
+    String flagName = UUID.randomUUID().toString();
+    Flag flag = flagRepository.save(new Flag(flagName));
+    fvRepository.save(new FlagValue(flag, Boolean.FALSE));
+    flagChangeLog.poll();
+    List<FlagChange> missing = new ArrayList<>();
+
+    // More missing sequence numbers than the batch size
+    for (int change = 0; change < 5; change++) {
+      missing.add(fcRepository.save(new FlagChange(FlagChange.Type.SEGMENT, flagName, null)));
+    }
+
+    fcRepository.save(new FlagChange(FlagChange.Type.SEGMENT, flagName, null));
+    fcRepository.deleteAll(missing);
+    fcRepository.flush();
+    flagChangeLog.poll();
+    entityManager
+        .getEntityManager()
+        .createNativeQuery(
+            "INSERT INTO flag_change (sequence_number, created_date, type, flag_name)"
+                + " VALUES (?, CURRENT_TIMESTAMP, 'VALUE', ?)")
+        .setParameter(1, missing.get(4).getSequenceNumber())
+        .setParameter(2, flagName)
+        .executeUpdate();
+    assertNull(flagStateCache.getFlagState(flagName));
+    flagChangeLog.poll();
+    assertEquals(Boolean.FALSE, flagStateCache.getFlagState(flagName).getValue());
+  }
+
+  @Test
+  public void pollAppliesSegmentsOfAnotherNode() {
+    String flagName = UUID.randomUUID().toString();
+    String segmentName = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    fflpService.setValue(flagName, Boolean.FALSE);
+    Flag flag = flagRepository.getByName(flagName).get();
+    Segment segment = segmentRepository.save(new Segment(segmentName));
+    smRepository.save(new SegmentMember(segment, user));
+    FlagSegmentValue flagSegmentValue = new FlagSegmentValue(flag, segment);
+    flagSegmentValue.setValue(Boolean.TRUE);
+    fsvRepository.save(flagSegmentValue);
+    fcRepository.save(new FlagChange(FlagChange.Type.SEGMENT_VALUE, flagName, null));
+    fcRepository.save(new FlagChange(FlagChange.Type.SEGMENT, segmentName, null));
+    assertEquals(Boolean.FALSE, fflpService.getValue(flagName, user));
+    flagChangeLog.poll();
+    assertEquals(Boolean.TRUE, fflpService.getValue(flagName, user));
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class FlagCircuitBreakerTests {
+  @Test
+  public void opensAtTheThreshold() {
+    FlagCircuitBreaker circuitBreaker = new FlagCircuitBreaker(2, 60000);
+    long admitted = circuitBreaker.tryAcquire();
+    assertNotEquals(FlagCircuitBreaker.REFUSED, admitted);
+    circuitBreaker.recordFailure(admitted);
+    assertFalse(circuitBreaker.isOpen());
+    circuitBreaker.recordFailure(admitted);
+    assertTrue(circuitBreaker.isOpen());
+    assertEquals(FlagCircuitBreaker.REFUSED, circuitBreaker.tryAcquire());
+  }
+
+  @Test
+  public void successResetsFailures() {
+    FlagCircuitBreaker circuitBreaker = new FlagCircuitBreaker(2, 60000);
+    long admitted = circuitBreaker.tryAcquire();
+    circuitBreaker.recordFailure(admitted);
+    circuitBreaker.recordSuccess(admitted);
+    circuitBreaker.recordFailure(admitted);
+    assertFalse(circuitBreaker.isOpen());
+    assertNotEquals(FlagCircuitBreaker.REFUSED, circuitBreaker.tryAcquire());
+  }
+
+  @Test
+  public void halfOpenAllowsOneProbe() throws Exception {
+    FlagCircuitBreaker circuitBreaker = new FlagCircuitBreaker(1, 50);
+    circuitBreaker.recordFailure(circuitBreaker.tryAcquire());
+    assertEquals(FlagCircuitBreaker.REFUSED, circuitBreaker.tryAcquire());
+    Thread.sleep(100);
+    long probe = circuitBreaker.tryAcquire();
+    assertNotEquals(FlagCircuitBreaker.REFUSED, probe);
+    assertEquals(FlagCircuitBreaker.REFUSED, circuitBreaker.tryAcquire());
+    circuitBreaker.recordSuccess(probe);
+    assertFalse(circuitBreaker.isOpen());
+    assertNotEquals(FlagCircuitBreaker.REFUSED, circuitBreaker.tryAcquire());
+  }
+
+  @Test
+  public void failedProbeReopens() throws Exception {
+    FlagCircuitBreaker circuitBreaker = new FlagCircuitBreaker(1, 50);
+    circuitBreaker.recordFailure(circuitBreaker.tryAcquire());
+    Thread.sleep(100);
+    long probe = circuitBreaker.tryAcquire();
+    assertNotEquals(FlagCircuitBreaker.REFUSED, probe);
+    circuitBreaker.recordFailure(probe);
+    assertTrue(circuitBreaker.isOpen());
+    assertEquals(FlagCircuitBreaker.REFUSED, circuitBreaker.tryAcquire());
+  }
+
+  @Test
+  public void outcomesFromBeforeATransitionAreIgnored() throws Exception {
+    FlagCircuitBreaker circuitBreaker = new FlagCircuitBreaker(1, 50);
+    long slow = circuitBreaker.tryAcquire();
+    circuitBreaker.recordFailure(circuitBreaker.tryAcquire());
+    Thread.sleep(100);
+    long probe = circuitBreaker.tryAcquire();
+
+    // The slow call admitted while closed neither closes nor reopens the half open breaker
+    circuitBreaker.recordSuccess(slow);
+    assertEquals(FlagCircuitBreaker.REFUSED, circuitBreaker.tryAcquire());
+    circuitBreaker.recordFailure(slow);
+    assertEquals(FlagCircuitBreaker.REFUSED, circuitBreaker.tryAcquire());
+
+    circuitBreaker.recordSuccess(probe);
+    assertFalse(circuitBreaker.isOpen());
+    circuitBreaker.recordFailure(probe);
+    assertFalse(circuitBreaker.isOpen());
+  }
+}
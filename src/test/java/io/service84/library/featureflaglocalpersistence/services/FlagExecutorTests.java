@@ -0,0 +1,110 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+@ExtendWith(SpringExtension.class)
+@DataJpaTest
+@Import(FeatureFlagLocalPersistenceTestConfiguration.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@TestPropertySource(
+    properties = {
+      "io.service84.library.featureflaglocalpersistence.async.concurrency=1",
+      "io.service84.library.featureflaglocalpersistence.async.capacity=2",
+      "io.service84.library.featureflaglocalpersistence.async.timeout=1000"
+    })
+public class FlagExecutorTests {
+  // Test Subject
+  @Autowired private FlagExecutor flagExecutor;
+  @Autowired private FeatureFlagLocalPersistence fflpService;
+
+  @Test
+  public void asyncValuesRoundTrip() throws Exception {
+    String flag = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    assertFalse(fflpService.getValueAsync(flag, user, Boolean.FALSE).get(5, TimeUnit.SECONDS));
+    fflpService.setValueAsync(flag, Boolean.TRUE).get(5, TimeUnit.SECONDS);
+    assertTrue(fflpService.getValueAsync(flag, user, Boolean.FALSE).get(5, TimeUnit.SECONDS));
+    fflpService.setValueAsync(flag, user, Boolean.FALSE).get(5, TimeUnit.SECONDS);
+    assertFalse(fflpService.getValueAsync(flag, user).get(5, TimeUnit.SECONDS));
+    fflpService.clearValueAsync(flag, user).get(5, TimeUnit.SECONDS);
+    fflpService.clearValueAsync(flag).get(5, TimeUnit.SECONDS);
+    assertTrue(fflpService.getValueAsync(flag, user).get(5, TimeUnit.SECONDS));
+    assertTrue(
+        fflpService
+            .getFlagsAsync(null, Integer.MAX_VALUE)
+            .get(5, TimeUnit.SECONDS)
+            .getFlags()
+            .contains(flag));
+  }
+
+  @Test
+  public void callsBeyondCapacityAreRejected() throws Exception {
+    CountDownLatch latch = new CountDownLatch(1);
+    CompletableFuture<Boolean> first = flagExecutor.submit(() -> await(latch));
+    CompletableFuture<Boolean> second = flagExecutor.submit(() -> await(latch));
+    CompletableFuture<Boolean> third = flagExecutor.submit(() -> await(latch));
+    ExecutionException rejected =
+        assertThrows(ExecutionException.class, () -> third.get(5, TimeUnit.SECONDS));
+    assertEquals(RejectedExecutionException.class, rejected.getCause().getClass());
+    latch.countDown();
+    assertTrue(first.get(5, TimeUnit.SECONDS));
+    assertTrue(second.get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void slowCallsTimeOutAndReleaseCapacity() throws Exception {
+    CountDownLatch latch = new CountDownLatch(1);
+    CompletableFuture<Boolean> slow = flagExecutor.submit(() -> await(latch));
+    CompletableFuture<Boolean> queued = flagExecutor.submit(() -> await(latch));
+    ExecutionException timedOut =
+        assertThrows(ExecutionException.class, () -> slow.get(5, TimeUnit.SECONDS));
+    assertEquals(TimeoutException.class, timedOut.getCause().getClass());
+    assertThrows(ExecutionException.class, () -> queued.get(5, TimeUnit.SECONDS));
+    assertTrue(flagExecutor.submit(() -> Boolean.TRUE).get(5, TimeUnit.SECONDS));
+    assertTrue(flagExecutor.submit(() -> Boolean.TRUE).get(5, TimeUnit.SECONDS));
+  }
+
+  private static Boolean await(CountDownLatch latch) {
+    try {
+      return latch.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return Boolean.FALSE;
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+@ExtendWith(SpringExtension.class)
+@DataJpaTest
+@Import(FeatureFlagLocalPersistenceTestConfiguration.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@TestPropertySource(
+    properties = {
+      "io.service84.library.featureflaglocalpersistence.latency-budget.enabled=true",
+      "io.service84.library.featureflaglocalpersistence.latency-budget.timeout=1000"
+    })
+public class FlagLatencyBudgetTests {
+  // Test Subject
+  @Autowired private FlagLatencyBudget flagLatencyBudget;
+  @Autowired private FeatureFlagLocalPersistence fflpService;
+
+  @Test
+  public void budgetedValuesRoundTrip() {
+    String flag = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    assertFalse(fflpService.getValue(flag, user, Boolean.FALSE));
+    fflpService.setValue(flag, Boolean.TRUE);
+    assertTrue(fflpService.getValue(flag, user, Boolean.FALSE));
+    fflpService.setValue(flag, user, Boolean.FALSE);
+    assertFalse(fflpService.getValue(flag, user, Boolean.TRUE));
+  }
+
+  @Test
+  public void slowLookupReturnsTheStaleValue() throws Exception {
+    String flag = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    assertTrue(flagLatencyBudget.evaluate(flag, user, Boolean.FALSE, () -> Boolean.TRUE));
+
+    CountDownLatch latch = new CountDownLatch(1);
+    assertTrue(
+        flagLatencyBudget.evaluate(
+            flag, user, Boolean.FALSE, () -> await(latch) ? Boolean.FALSE : Boolean.TRUE));
+    latch.countDown();
+
+    // The slow lookup refreshes the stale value once it finishes
+    Thread.sleep(200);
+    assertFalse(flagLatencyBudget.evaluate(flag, user, Boolean.TRUE, this::fail));
+  }
+
+  @Test
+  public void failedLookupReturnsTheDefault() {
+    String flag = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    assertTrue(flagLatencyBudget.evaluate(flag, user, Boolean.TRUE, this::fail));
+    assertFalse(flagLatencyBudget.evaluate(flag, user, Boolean.FALSE, () -> Boolean.FALSE));
+  }
+
+  @Test
+  public void localWritesInvalidateStaleValues() {
+    String flag = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    fflpService.setValue(flag, Boolean.TRUE);
+    assertTrue(fflpService.getValue(flag, user, Boolean.FALSE));
+    fflpService.setValue(flag, Boolean.FALSE);
+    assertFalse(flagLatencyBudget.evaluate(flag, user, Boolean.FALSE, this::fail));
+
+    fflpService.setValue(flag, user, Boolean.TRUE);
+    assertTrue(fflpService.getValue(flag, user, Boolean.FALSE));
+    fflpService.clearValue(flag, user);
+    assertFalse(flagLatencyBudget.evaluate(flag, user, Boolean.FALSE, this::fail));
+  }
+
+  private Boolean fail() {
+    throw new IllegalStateException();
+  }
+
+  private static Boolean await(CountDownLatch latch) {
+    try {
+      return latch.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return Boolean.FALSE;
+    }
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+@ExtendWith(SpringExtension.class)
+@DataJpaTest
+@Import(FeatureFlagLocalPersistenceTestConfiguration.class)
+@TestPropertySource(
+    properties = {
+      "io.service84.library.featureflaglocalpersistence.cache.enabled=true",
+      "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+          + "io.service84.library.featureflaglocalpersistence.services.FlagStatementInspector"
+    })
+public class FlagMetricsTests {
+  public static class RecordingFlagMetrics implements FlagMetrics {
+    private final Map<String, LongAdder> counts = new ConcurrentHashMap<>();
+
+    @Override
+    public void recordLatency(String operation, long nanos) {
+      count("latency." + operation, 1);
+    }
+
+    @Override
+    public void recordStatements(String operation, long statements) {
+      count("statements." + operation, statements);
+    }
+
+    @Override
+    public void recordCacheHit(String cache) {
+      count("hit." + cache, 1);
+    }
+
+    @Override
+    public void recordCacheMiss(String cache) {
+      count("miss." + cache, 1);
+    }
+
+    private void count(String name, long amount) {
+      counts.computeIfAbsent(name, key -> new LongAdder()).add(amount);
+    }
+
+    private long get(String name) {
+      LongAdder count = counts.get(name);
+      return count == null ? 0 : count.sum();
+    }
+  }
+
+  @TestConfiguration
+  public static class Configuration {
+    @Bean
+    public RecordingFlagMetrics getFlagMetrics() {
+      return new RecordingFlagMetrics();
+    }
+  }
+
+  // Test Subject
+  @Autowired private FeatureFlagLocalPersistence fflpService;
+  @Autowired private RecordingFlagMetrics flagMetrics;
+
+  @Test
+  public void operationsAreRecorded() {
+    String flag = UUID.randomUUID().toString();
+    long getValues = flagMetrics.get("latency.getValue");
+    long setValues = flagMetrics.get("latency.setValue");
+    long setStatements = flagMetrics.get("statements.setValue");
+    fflpService.setValue(flag, Boolean.FALSE);
+    assertFalse(fflpService.getValue(flag, UUID.randomUUID().toString()));
+    fflpService.getFlags(null, 10);
+    assertEquals(getValues + 1, flagMetrics.get("latency.getValue"));
+    assertEquals(setValues + 1, flagMetrics.get("latency.setValue"));
+    assertTrue(flagMetrics.get("latency.getFlags") > 0);
+    assertTrue(flagMetrics.get("statements.setValue") > setStatements);
+  }
+
+  @Test
+  public void cacheLookupsAreRecorded() {
+    String flag = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    String cache = FlagMetrics.FLAG_STATE_CACHE;
+    long misses = flagMetrics.get("miss." + cache);
+    assertTrue(fflpService.getValue(flag, user));
+    assertEquals(misses + 1, flagMetrics.get("miss." + cache));
+    long hits = flagMetrics.get("hit." + cache);
+    assertTrue(fflpService.getValue(flag, user));
+    assertTrue(fflpService.handle(flag).isEnabled(user));
+    assertEquals(hits + 2, flagMetrics.get("hit." + cache));
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+@ExtendWith(SpringExtension.class)
+@DataJpaTest
+@Import(FeatureFlagLocalPersistenceTestConfiguration.class)
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@TestPropertySource(
+    properties = {
+      "spring.jpa.hibernate.ddl-auto=create-drop",
+      "io.service84.library.featureflaglocalpersistence.routing.enabled=true",
+      "io.service84.library.featureflaglocalpersistence.routing.replica-lag=200"
+    })
+public class FlagReadRoutingTests {
+  /*
+   * The replica is the primary database, every connection taken from it is counted
+   */
+  public static class CountingDataSource extends DelegatingDataSource {
+    private final AtomicInteger connections = new AtomicInteger();
+
+    public CountingDataSource(DataSource target) {
+      super(target);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+      connections.incrementAndGet();
+      return super.getConnection();
+    }
+  }
+
+  private static final CountingDataSource replica =
+      new CountingDataSource(
+          new EmbeddedDatabaseBuilder()
+              .setType(EmbeddedDatabaseType.H2)
+              .setName("routing")
+              .build());
+
+  @TestConfiguration
+  public static class Configuration {
+    @Bean
+    public DataSource getDataSource() {
+      return new FlagRoutingDataSource(replica.getTargetDataSource(), replica);
+    }
+  }
+
+  // Test Subject
+  @Autowired private FeatureFlagLocalPersistence fflpService;
+  @Autowired private FlagReadRouting flagReadRouting;
+
+  @Test
+  public void readsGoToReplicaOnceUnpinned() throws InterruptedException {
+    String flag = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    fflpService.setValue(flag, Boolean.FALSE);
+    assertTrue(flagReadRouting.isPinned());
+    int connections = replica.connections.get();
+    assertFalse(fflpService.getValue(flag, user));
+    assertEquals(connections, replica.connections.get());
+
+    Thread.sleep(300);
+    assertFalse(flagReadRouting.isPinned());
+    assertFalse(fflpService.getValue(flag, user));
+    assertEquals(connections + 1, replica.connections.get());
+    fflpService.getFlags(null, 10);
+    assertEquals(connections + 2, replica.connections.get());
+  }
+
+  @Test
+  public void unknownFlagsAreRegisteredOnPrimary() throws InterruptedException {
+    Thread.sleep(300);
+    String flag = UUID.randomUUID().toString();
+    assertTrue(fflpService.getValue(flag, UUID.randomUUID().toString()));
+    assertTrue(flagReadRouting.isPinned());
+    assertTrue(fflpService.getValues(flag, List.of("user")).get(0));
+  }
+}
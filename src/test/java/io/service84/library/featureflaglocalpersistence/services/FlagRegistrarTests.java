@@ -0,0 +1,90 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagRepository;
+
+@ExtendWith(SpringExtension.class)
+@DataJpaTest
+@Import(FeatureFlagLocalPersistenceTestConfiguration.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@TestPropertySource(
+    properties = {"io.service84.library.featureflaglocalpersistence.registrar.asynchronous=true"})
+public class FlagRegistrarTests {
+  // Test Subject
+  @Autowired private FeatureFlagLocalPersistence fflpService;
+  @Autowired private FlagRegistrar flagRegistrar;
+  @Autowired private FlagRepository flagRepository;
+
+  private void awaitRegistration(String flag) throws InterruptedException {
+    for (int attempt = 0; attempt < 100 && flagRegistrar.isPending(flag); attempt++) {
+      Thread.sleep(50);
+    }
+  }
+
+  @Test
+  public void getValueDefaultTrue() {
+    String flag = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    Boolean value = fflpService.getValue(flag, user, Boolean.TRUE);
+    assertTrue(value);
+  }
+
+  @Test
+  public void getValueDefaultFalse() {
+    String flag = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    Boolean value = fflpService.getValue(flag, user, Boolean.FALSE);
+    assertFalse(value);
+  }
+
+  @Test
+  public void getValueRegistersFlag() throws InterruptedException {
+    String flag = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    fflpService.getValue(flag, user);
+    awaitRegistration(flag);
+    assertTrue(flagRepository.getByName(flag).isPresent());
+  }
+
+  @Test
+  public void registerIsIdempotent() throws InterruptedException {
+    String flag = UUID.randomUUID().toString();
+
+    for (int attempt = 0; attempt < 10; attempt++) {
+      flagRegistrar.register(flag);
+    }
+
+    awaitRegistration(flag);
+    flagRegistrar.register(flag);
+    awaitRegistration(flag);
+    assertTrue(flagRepository.getByName(flag).isPresent());
+  }
+}
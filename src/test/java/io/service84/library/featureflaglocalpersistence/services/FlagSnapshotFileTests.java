@@ -0,0 +1,91 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import io.service84.library.featureflaglocalpersistence.services.FlagStateCache.FlagSnapshot;
+import io.service84.library.featureflaglocalpersistence.services.FlagStateCache.FlagState;
+
+@ExtendWith(SpringExtension.class)
+@DataJpaTest
+@Import(FeatureFlagLocalPersistenceTestConfiguration.class)
+@TestPropertySource(
+    properties = {
+      "io.service84.library.featureflaglocalpersistence.cache.enabled=true",
+      "io.service84.library.featureflaglocalpersistence.cache.refresh-interval=3600000",
+      "io.service84.library.featureflaglocalpersistence.snapshot-file.path="
+          + "${java.io.tmpdir}/featureflaglocalpersistence-snapshot-tests.bin",
+      "io.service84.library.featureflaglocalpersistence.snapshot-file.write-interval=0"
+    })
+public class FlagSnapshotFileTests {
+  // Test Subject
+  @Autowired private FlagSnapshotFile snapshotFile;
+  @Autowired private FlagStateCache flagStateCache;
+  @Autowired private FeatureFlagLocalPersistence fflpService;
+
+  @Value("${io.service84.library.featureflaglocalpersistence.snapshot-file.path}")
+  private String path;
+
+  @Test
+  public void savedSnapshotIsRead() {
+    String flagName = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    String otherFlagName = UUID.randomUUID().toString();
+    fflpService.setValue(flagName, Boolean.FALSE);
+    fflpService.setValue(flagName, user, Boolean.TRUE);
+    fflpService.createFlag(otherFlagName);
+    flagStateCache.refresh();
+    Optional<FlagSnapshot> saved = snapshotFile.read();
+    assertTrue(saved.isPresent());
+    FlagState flagState = saved.get().getFlagState(flagName);
+    assertEquals(Boolean.FALSE, flagState.getValue());
+    assertEquals(Boolean.TRUE, flagState.getUserValue(user));
+    assertTrue(flagState.isUserValuesComplete());
+    assertNull(saved.get().getFlagState(otherFlagName).getValue());
+    assertEquals(flagStateCache.getSnapshot().getFlagCount(), saved.get().getFlagCount());
+    assertEquals(flagStateCache.getSnapshot().getUserValueCount(), saved.get().getUserValueCount());
+  }
+
+  @Test
+  public void corruptSnapshotIsIgnored() throws IOException {
+    fflpService.setValue(UUID.randomUUID().toString(), Boolean.FALSE);
+    flagStateCache.refresh();
+    Path file = Paths.get(path);
+    byte[] bytes = Files.readAllBytes(file);
+    bytes[bytes.length - 1] ^= 1;
+    Files.write(file, bytes);
+    assertFalse(snapshotFile.read().isPresent());
+  }
+}
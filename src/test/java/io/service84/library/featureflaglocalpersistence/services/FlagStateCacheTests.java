@@ -0,0 +1,357 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import io.service84.library.featureflaglocalpersistence.persistence.models.Flag;
+import io.service84.library.featureflaglocalpersistence.persistence.models.FlagUserValue;
+import io.service84.library.featureflaglocalpersistence.persistence.models.FlagValue;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagRepository;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagUserValueRepository;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagValueRepository;
+import io.service84.library.featureflaglocalpersistence.services.FlagStateCache.FlagState;
+
+@ExtendWith(SpringExtension.class)
+@DataJpaTest
+@Import(FeatureFlagLocalPersistenceTestConfiguration.class)
+@TestPropertySource(
+    properties = {
+      "io.service84.library.featureflaglocalpersistence.cache.enabled=true",
+      "io.service84.library.featureflaglocalpersistence.cache.max-user-values-per-flag=2",
+      "io.service84.library.featureflaglocalpersistence.change-log.enabled=true",
+      "io.service84.library.featureflaglocalpersistence.change-log.poll-interval=3600000"
+    })
+public class FlagStateCacheTests {
+  // Test Subject
+  @Autowired private FlagStateCache flagStateCache;
+  @Autowired private FeatureFlagLocalPersistence fflpService;
+  @Autowired private FlagRegistrar flagRegistrar;
+  @Autowired private FlagRepository flagRepository;
+  @Autowired private FlagValueRepository fvRepository;
+  @Autowired private FlagUserValueRepository fuvRepository;
+
+  @Test
+  public void snapshotLoaded() {
+    assertTrue(flagStateCache.isEnabled());
+    assertNotNull(flagStateCache.getSnapshot());
+  }
+
+  @Test
+  public void getValueDefault() {
+    String flag = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    assertTrue(fflpService.getValue(flag, user, Boolean.TRUE));
+    assertFalse(fflpService.getValue(flag, user, Boolean.FALSE));
+    assertNotNull(flagStateCache.getFlagState(flag));
+  }
+
+  @Test
+  public void registeredFlagIsCached() throws InterruptedException {
+    String flag = UUID.randomUUID().toString();
+    flagRegistrar.register(flag);
+
+    for (int attempt = 0; attempt < 100 && flagRegistrar.isPending(flag); attempt++) {
+      Thread.sleep(50);
+    }
+
+    assertTrue(flagRepository.getByName(flag).isPresent());
+    assertNotNull(flagStateCache.getFlagState(flag));
+  }
+
+  @Test
+  public void setValueReadYourWrites() {
+    String flag = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    fflpService.setValue(flag, Boolean.FALSE);
+    assertEquals(Boolean.FALSE, flagStateCache.getFlagState(flag).getValue());
+    assertFalse(fflpService.getValue(flag, user, Boolean.TRUE));
+  }
+
+  @Test
+  public void userOverride() {
+    String flag = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    fflpService.setValue(flag, Boolean.TRUE);
+    fflpService.setValue(flag, user, Boolean.FALSE);
+    assertFalse(fflpService.getValue(flag, user));
+    fflpService.clearValue(flag, user);
+    assertTrue(fflpService.getValue(flag, user));
+  }
+
+  @Test
+  public void clearValue() {
+    String flag = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    fflpService.setValue(flag, Boolean.FALSE);
+    fflpService.clearValue(flag);
+    assertNull(flagStateCache.getFlagState(flag).getValue());
+    assertTrue(fflpService.getValue(flag, user, Boolean.TRUE));
+  }
+
+  @Test
+  public void evictedUserValuesFallBackToRepository() {
+    String flag = UUID.randomUUID().toString();
+    String userA = UUID.randomUUID().toString();
+    String userB = UUID.randomUUID().toString();
+    String userC = UUID.randomUUID().toString();
+    fflpService.setValue(flag, Boolean.TRUE);
+    fflpService.setValue(flag, userA, Boolean.FALSE);
+    fflpService.setValue(flag, userB, Boolean.FALSE);
+    assertTrue(flagStateCache.getFlagState(flag).isUserValuesComplete());
+    fflpService.setValue(flag, userC, Boolean.FALSE);
+    FlagState flagState = flagStateCache.getFlagState(flag);
+    assertFalse(flagState.isUserValuesComplete());
+    assertEquals(0, flagState.getUserValueCount());
+    assertFalse(fflpService.getValue(flag, userA));
+    assertFalse(fflpService.getValue(flag, userB));
+    assertFalse(fflpService.getValue(flag, userC));
+    assertTrue(fflpService.getValue(flag, UUID.randomUUID().toString()));
+  }
+
+  @Test
+  public void evictedUserValuesAreFiltered() {
+    String flag = UUID.randomUUID().toString();
+    List<String> users =
+        List.of(
+            UUID.randomUUID().toString(),
+            UUID.randomUUID().toString(),
+            UUID.randomUUID().toString());
+    users.forEach(user -> fflpService.setValue(flag, user, Boolean.FALSE));
+    assertUserValuesFiltered(flagStateCache.getFlagState(flag), users);
+    flagStateCache.refresh();
+    assertUserValuesFiltered(flagStateCache.getFlagState(flag), users);
+    String user = UUID.randomUUID().toString();
+    fflpService.setValue(flag, user, Boolean.TRUE);
+    assertTrue(fflpService.getValue(flag, user, Boolean.FALSE));
+  }
+
+  @Test
+  public void unchangedUserFiltersAreKept() {
+    String flag = UUID.randomUUID().toString();
+
+    for (int user = 0; user < 3; user++) {
+      fflpService.setValue(flag, UUID.randomUUID().toString(), Boolean.FALSE);
+    }
+
+    flagStateCache.refresh();
+    UserBloomFilter userFilter = flagStateCache.getFlagState(flag).getUserFilter();
+    assertNotNull(userFilter);
+    flagStateCache.refresh();
+    assertSame(userFilter, flagStateCache.getFlagState(flag).getUserFilter());
+
+    fflpService.setValue(flag, UUID.randomUUID().toString(), Boolean.FALSE);
+    flagStateCache.refresh();
+    assertNotSame(userFilter, flagStateCache.getFlagState(flag).getUserFilter());
+
+    userFilter = flagStateCache.getFlagState(flag).getUserFilter();
+    flagStateCache.invalidateUserFilters();
+    flagStateCache.refresh();
+    assertNotSame(userFilter, flagStateCache.getFlagState(flag).getUserFilter());
+  }
+
+  private void assertUserValuesFiltered(FlagState flagState, List<String> users) {
+    assertFalse(flagState.isUserValuesComplete());
+    users.forEach(user -> assertTrue(flagState.isUserValueUnknown(user)));
+    int unknown = 0;
+
+    for (int index = 0; index < 1000; index++) {
+      unknown += flagState.isUserValueUnknown(UUID.randomUUID().toString()) ? 1 : 0;
+    }
+
+    assertTrue(unknown < 100);
+  }
+
+  @Test
+  public void handleEvaluatesCachedState() {
+    String flag = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    FlagHandle flagHandle = fflpService.handle(flag, Boolean.FALSE);
+    assertFalse(flagHandle.isEnabled(user));
+    assertNotNull(flagStateCache.getFlagState(flag));
+    fflpService.setValue(flag, Boolean.TRUE);
+    assertTrue(flagHandle.isEnabled(user));
+    fflpService.setValue(flag, user, Boolean.FALSE);
+    assertFalse(flagHandle.isEnabled(user));
+    assertTrue(flagHandle.isEnabled(UUID.randomUUID().toString()));
+  }
+
+  @Test
+  public void bulkUserValuesReadYourWrites() {
+    String flag = UUID.randomUUID().toString();
+    String userA = UUID.randomUUID().toString();
+    String userB = UUID.randomUUID().toString();
+    Map<String, Boolean> userValues = new HashMap<>();
+    userValues.put(userA, Boolean.FALSE);
+    userValues.put(userB, Boolean.FALSE);
+    fflpService.setValues(Collections.singletonMap(flag, Boolean.TRUE));
+    fflpService.setValues(flag, userValues);
+    FlagState flagState = flagStateCache.getFlagState(flag);
+    assertEquals(Boolean.TRUE, flagState.getValue());
+    assertEquals(Boolean.FALSE, flagState.getUserValue(userA));
+    assertEquals(Boolean.FALSE, flagState.getUserValue(userB));
+    fflpService.clearValues(flag, Collections.singleton(userA));
+    assertNull(flagStateCache.getFlagState(flag).getUserValue(userA));
+    assertTrue(fflpService.getValue(flag, userA));
+    assertFalse(fflpService.getValue(flag, userB));
+  }
+
+  @Test
+  public void getValuesEvictedUserValues() {
+    String flag = UUID.randomUUID().toString();
+    List<String> users = new ArrayList<>();
+
+    for (int user = 0; user < 4; user++) {
+      users.add(UUID.randomUUID().toString());
+    }
+
+    fflpService.setValue(flag, Boolean.FALSE);
+    fflpService.setValue(flag, users.get(0), Boolean.TRUE);
+    assertEquals(1, fflpService.getValues(flag, users).cardinality());
+    fflpService.setValue(flag, users.get(1), Boolean.TRUE);
+    fflpService.setValue(flag, users.get(2), Boolean.TRUE);
+    assertFalse(flagStateCache.getFlagState(flag).isUserValuesComplete());
+    BitSet values = fflpService.getValues(flag, users);
+    assertTrue(values.get(0));
+    assertTrue(values.get(1));
+    assertTrue(values.get(2));
+    assertFalse(values.get(3));
+  }
+
+  @Test
+  public void getAllValuesEvictedUserValues() {
+    String flagA = UUID.randomUUID().toString();
+    String flagB = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    fflpService.setValue(flagA, Boolean.TRUE);
+    fflpService.setValue(flagB, Boolean.TRUE);
+    fflpService.setValue(flagA, user, Boolean.FALSE);
+
+    for (int other = 0; other < 3; other++) {
+      fflpService.setValue(flagB, UUID.randomUUID().toString(), Boolean.TRUE);
+    }
+
+    fflpService.setValue(flagB, user, Boolean.FALSE);
+    assertFalse(flagStateCache.getFlagState(flagB).isUserValuesComplete());
+    Map<String, Boolean> values = fflpService.getAllValues(user);
+    assertEquals(Boolean.FALSE, values.get(flagA));
+    assertEquals(Boolean.FALSE, values.get(flagB));
+  }
+
+  @Test
+  public void clearAllUserValues() {
+    String flag = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    fflpService.setValue(flag, Boolean.TRUE);
+    fflpService.setValue(flag, user, Boolean.FALSE);
+    fflpService.clearAllUserValues(flag);
+    FlagState flagState = flagStateCache.getFlagState(flag);
+    assertTrue(flagState.isUserValuesComplete());
+    assertEquals(0, flagState.getUserValueCount());
+    assertTrue(fflpService.getValue(flag, user));
+  }
+
+  @Test
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
+  public void refreshLoadsRepositoryState() {
+    String flagName = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    Flag flag = flagRepository.saveAndFlush(new Flag(flagName));
+    fvRepository.saveAndFlush(new FlagValue(flag, Boolean.FALSE));
+    fuvRepository.saveAndFlush(new FlagUserValue(flag, user, Boolean.TRUE));
+    flagStateCache.refresh();
+    FlagState flagState = flagStateCache.getFlagState(flagName);
+    assertEquals(Boolean.FALSE, flagState.getValue());
+    assertEquals(Boolean.TRUE, flagState.getUserValue(user));
+    assertTrue(fflpService.getValue(flagName, user));
+    assertFalse(fflpService.getValue(flagName, UUID.randomUUID().toString()));
+  }
+
+  @Test
+  public void rolloutIsCached() {
+    String flag = UUID.randomUUID().toString();
+    String included = userInRollout(flag, 25.0, true);
+    String excluded = userInRollout(flag, 25.0, false);
+    fflpService.setValue(flag, Boolean.FALSE);
+    fflpService.setRollout(flag, 25.0);
+    assertTrue(flagStateCache.getFlagState(flag).isRolledOut(included));
+    assertTrue(fflpService.getValue(flag, included));
+    assertFalse(fflpService.getValue(flag, excluded));
+    assertTrue(fflpService.handle(flag).isEnabled(included));
+    assertFalse(fflpService.handle(flag).isEnabled(excluded));
+    assertTrue(fflpService.getAllValues(included).get(flag));
+    fflpService.clearRollout(flag);
+    assertFalse(flagStateCache.getFlagState(flag).isRolledOut(included));
+    assertFalse(fflpService.getValue(flag, included));
+  }
+
+  private static String userInRollout(String salt, double percentage, boolean included) {
+    RolloutRule rollout = RolloutRule.of(percentage, salt);
+
+    while (true) {
+      String user = UUID.randomUUID().toString();
+
+      if (rollout.includes(user) == included) {
+        return user;
+      }
+    }
+  }
+
+  @Test
+  public void segmentIsCached() {
+    String flag = UUID.randomUUID().toString();
+    String segment = UUID.randomUUID().toString();
+    String member = UUID.randomUUID().toString();
+    String outsider = UUID.randomUUID().toString();
+    fflpService.setValue(flag, Boolean.FALSE);
+    fflpService.addSegmentMembers(segment, List.of(member));
+    fflpService.setSegmentValue(flag, segment, Boolean.TRUE);
+    FlagState flagState = flagStateCache.getFlagState(flag);
+    assertEquals(Boolean.TRUE, flagStateCache.getSnapshot().getSegmentValue(flagState, member));
+    assertNull(flagStateCache.getSnapshot().getSegmentValue(flagState, outsider));
+    assertTrue(fflpService.getValue(flag, member));
+    assertFalse(fflpService.getValue(flag, outsider));
+    assertTrue(fflpService.handle(flag).isEnabled(member));
+    assertFalse(fflpService.handle(flag).isEnabled(outsider));
+    assertTrue(fflpService.getValues(flag, List.of(member, outsider)).get(0));
+    assertTrue(fflpService.getAllValues(member).get(flag));
+    fflpService.removeSegmentMembers(segment, List.of(member));
+    assertFalse(fflpService.getValue(flag, member));
+  }
+}
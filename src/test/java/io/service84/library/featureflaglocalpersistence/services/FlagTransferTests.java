@@ -0,0 +1,154 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+@ExtendWith(SpringExtension.class)
+@DataJpaTest
+@Import(FeatureFlagLocalPersistenceTestConfiguration.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@TestPropertySource(
+    properties = {"io.service84.library.featureflaglocalpersistence.transfer.batch-size=2"})
+public class FlagTransferTests {
+  @TestConfiguration
+  public static class Configuration {
+    @Bean
+    public FlagTransfer getFlagTransfer() {
+      return new FlagTransfer();
+    }
+  }
+
+  // Test Subject
+  @Autowired private FlagTransfer flagTransfer;
+  @Autowired private FeatureFlagLocalPersistence fflpService;
+
+  @Test
+  public void ndjsonRoundTrip() throws Exception {
+    roundTrip(FlagTransfer.Format.NDJSON);
+  }
+
+  @Test
+  public void binaryRoundTrip() throws Exception {
+    roundTrip(FlagTransfer.Format.BINARY);
+  }
+
+  @Test
+  public void progressIsReported() throws Exception {
+    seed();
+    List<Long> progress = new ArrayList<>();
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    FlagTransfer.Result result =
+        flagTransfer.exportTo(output, FlagTransfer.Format.NDJSON, progress::add);
+    assertEquals(result.getRecords(), progress.get(progress.size() - 1));
+    assertTrue(progress.size() > 1);
+    assertEquals(lines(output).size(), result.getRecords().intValue());
+  }
+
+  @Test
+  public void importClearsValuesAndRolloutsTheInputLacks() throws Exception {
+    String flag = UUID.randomUUID().toString();
+    fflpService.createFlag(flag);
+    ByteArrayOutputStream export = new ByteArrayOutputStream();
+    flagTransfer.exportTo(export, FlagTransfer.Format.BINARY);
+
+    fflpService.setValue(flag, Boolean.TRUE);
+    fflpService.setRollout(flag, 100.0, "salt");
+    flagTransfer.importFrom(
+        new ByteArrayInputStream(export.toByteArray()), FlagTransfer.Format.BINARY);
+    assertFalse(fflpService.getValue(flag, UUID.randomUUID().toString(), Boolean.FALSE));
+    assertTrue(fflpService.getValue(flag, UUID.randomUUID().toString(), Boolean.TRUE));
+  }
+
+  @Test
+  public void unknownInputIsRejected() {
+    byte[] input = "not an export".getBytes(StandardCharsets.UTF_8);
+    assertThrows(
+        IOException.class,
+        () -> flagTransfer.importFrom(new ByteArrayInputStream(input), FlagTransfer.Format.BINARY));
+    assertThrows(
+        IOException.class,
+        () -> flagTransfer.importFrom(new ByteArrayInputStream(input), FlagTransfer.Format.NDJSON));
+  }
+
+  private void roundTrip(FlagTransfer.Format format) throws Exception {
+    String flag = seed();
+    ByteArrayOutputStream before = new ByteArrayOutputStream();
+    flagTransfer.exportTo(before, FlagTransfer.Format.NDJSON);
+    ByteArrayOutputStream export = new ByteArrayOutputStream();
+    FlagTransfer.Result exported = flagTransfer.exportTo(export, format);
+
+    // The import restores every value changed after the export
+    fflpService.setValue(flag, Boolean.FALSE);
+    fflpService.setValue(flag, "user-0", Boolean.FALSE);
+    fflpService.setRollout(flag, 50.0, "other");
+    fflpService.setSegmentValue(flag, flag + "-segment", Boolean.TRUE);
+    FlagTransfer.Result imported =
+        flagTransfer.importFrom(new ByteArrayInputStream(export.toByteArray()), format);
+    assertEquals(exported.getRecords(), imported.getRecords());
+    assertEquals(exported.getUserValues(), imported.getUserValues());
+
+    ByteArrayOutputStream after = new ByteArrayOutputStream();
+    flagTransfer.exportTo(after, FlagTransfer.Format.NDJSON);
+    assertEquals(lines(before), lines(after));
+  }
+
+  private String seed() {
+    String flag = UUID.randomUUID().toString();
+    String segment = flag + "-segment";
+    fflpService.createFlag(flag + "-empty");
+    fflpService.setValue(flag, Boolean.TRUE);
+    fflpService.setRollout(flag, 25.0, "salt");
+
+    for (int user = 0; user < 5; user++) {
+      fflpService.setValue(flag, "user-" + user, user % 2 == 0);
+    }
+
+    fflpService.addSegmentMembers(segment, Arrays.asList("member-0", "member-1", "member-2"));
+    fflpService.setSegmentValue(flag, segment, Boolean.FALSE);
+    return flag;
+  }
+
+  private static Set<String> lines(ByteArrayOutputStream output) {
+    return new HashSet<>(
+        Arrays.asList(new String(output.toByteArray(), StandardCharsets.UTF_8).split("\n")));
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagUserValueRepository;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagValueRepository;
+
+@ExtendWith(SpringExtension.class)
+@DataJpaTest
+@Import(FeatureFlagLocalPersistenceTestConfiguration.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@TestPropertySource(
+    properties = {
+      "io.service84.library.featureflaglocalpersistence.write-behind.enabled=true",
+      "io.service84.library.featureflaglocalpersistence.write-behind.interval=600000",
+      "io.service84.library.featureflaglocalpersistence.write-behind.max-pending=4",
+      "io.service84.library.featureflaglocalpersistence.cache.enabled=true",
+      "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+          + "io.service84.library.featureflaglocalpersistence.services.FlagStatementInspector"
+    })
+public class FlagWriteBehindTests {
+  // Test Subject
+  @Autowired private FlagWriteBehind flagWriteBehind;
+  @Autowired private FeatureFlagLocalPersistence fflpService;
+  @Autowired private FlagValueRepository fvRepository;
+  @Autowired private FlagUserValueRepository fuvRepository;
+
+  @Test
+  public void queuedWritesAreReadAndFlushed() {
+    String flag = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    String other = UUID.randomUUID().toString();
+    fflpService.setValue(flag, Boolean.FALSE);
+    fflpService.setValue(flag, user, Boolean.TRUE);
+    assertTrue(fvRepository.findValueByFlagName(flag).isEmpty());
+    assertTrue(fflpService.getValue(flag, user));
+    assertFalse(fflpService.getValue(flag, other));
+    assertTrue(fflpService.handle(flag).isEnabled(user));
+    assertFalse(fflpService.handle(flag).isEnabled(other));
+    assertEquals(1, fflpService.getValues(flag, List.of(user, other)).cardinality());
+    assertFalse(fflpService.getAllValues(other).get(flag));
+    flagWriteBehind.flush();
+    assertTrue(flagWriteBehind.isEmpty());
+    assertEquals(Boolean.FALSE, fvRepository.findValueByFlagName(flag).get());
+    assertTrue(fuvRepository.getByFlagNameAndUserIdentity(flag, user).get().getValue());
+    assertTrue(fflpService.getValue(flag, user));
+    assertFalse(fflpService.getValue(flag, other));
+  }
+
+  @Test
+  public void queuedWritesAreOverlaidOnTheSnapshot() {
+    String flag = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    String stored = UUID.randomUUID().toString();
+    String other = UUID.randomUUID().toString();
+    fflpService.createFlag(flag);
+    fflpService.setValues(flag, Map.of(stored, Boolean.TRUE));
+    fflpService.setValue(flag, user, Boolean.TRUE);
+    fflpService.setValue(flag, Boolean.FALSE);
+    long statements = FlagStatementInspector.getStatementCount();
+    assertFalse(fflpService.getValue(flag, other));
+    assertTrue(fflpService.getValue(flag, stored));
+    assertTrue(fflpService.getValue(flag, user));
+    assertFalse(fflpService.handle(flag).isEnabled(other));
+    assertEquals(2, fflpService.getValues(flag, List.of(user, stored, other)).cardinality());
+    assertFalse(fflpService.getAllValues(other).get(flag));
+    assertEquals(statements, FlagStatementInspector.getStatementCount());
+    fflpService.clearValue(flag, stored);
+    assertFalse(fflpService.getValue(flag, stored));
+    flagWriteBehind.flush();
+  }
+
+  @Test
+  public void lastQueuedWriteWins() {
+    String flag = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    fflpService.setValue(flag, Boolean.TRUE);
+    fflpService.setValue(flag, user, Boolean.FALSE);
+    flagWriteBehind.flush();
+    fflpService.setValue(flag, user, Boolean.TRUE);
+    fflpService.clearValue(flag, user);
+    fflpService.setValue(flag, Boolean.TRUE);
+    fflpService.setValue(flag, Boolean.FALSE);
+    assertFalse(fflpService.getValue(flag, user));
+    fflpService.clearValue(flag);
+    assertTrue(fflpService.getValue(flag, user, Boolean.TRUE));
+    flagWriteBehind.flush();
+    assertTrue(fvRepository.findValueByFlagName(flag).isEmpty());
+    assertTrue(fuvRepository.getByFlagNameAndUserIdentity(flag, user).isEmpty());
+    assertFalse(fflpService.getValue(flag, user, Boolean.FALSE));
+  }
+
+  @Test
+  public void directWritesReplaceQueuedWrites() {
+    String flag = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    fflpService.setValue(flag, user, Boolean.TRUE);
+    fflpService.setValues(flag, Map.of(user, Boolean.FALSE));
+    assertTrue(flagWriteBehind.isEmpty());
+    assertFalse(fflpService.getValue(flag, user));
+    flagWriteBehind.flush();
+    assertFalse(fuvRepository.getByFlagNameAndUserIdentity(flag, user).get().getValue());
+  }
+
+  @Test
+  public void writesBeyondMaxPendingAreWrittenThrough() {
+    String flag = UUID.randomUUID().toString();
+    fflpService.createFlag(flag);
+
+    // Holds off the flush that a full queue schedules
+    flagWriteBehind.writeThrough(
+        () -> {},
+        () -> {
+          for (int user = 0; user < 4; user++) {
+            fflpService.setValue(flag, "user-" + user, Boolean.TRUE);
+          }
+
+          assertTrue(fuvRepository.getByFlagNameAndUserIdentity(flag, "user-3").isEmpty());
+          fflpService.setValue(flag, "user-0", Boolean.FALSE);
+          assertTrue(fuvRepository.getByFlagNameAndUserIdentity(flag, "user-0").isEmpty());
+          fflpService.setValue(flag, "user-4", Boolean.TRUE);
+          assertTrue(fuvRepository.getByFlagNameAndUserIdentity(flag, "user-4").isPresent());
+          return null;
+        });
+    flagWriteBehind.flush();
+    assertFalse(fuvRepository.getByFlagNameAndUserIdentity(flag, "user-0").get().getValue());
+  }
+
+  @Test
+  public void badWritesAreDroppedAndTheRestFlushed() {
+    String flag = UUID.randomUUID().toString();
+    String badFlag = UUID.randomUUID().toString();
+    fflpService.createFlag(badFlag);
+
+    // Longer than the user identity column
+    String badUser = "user-".repeat(200);
+    fflpService.setValue(flag, Boolean.TRUE);
+    fflpService.setValue(badFlag, badUser, Boolean.TRUE);
+    flagWriteBehind.flush();
+    assertTrue(flagWriteBehind.isEmpty());
+    assertEquals(Boolean.TRUE, fvRepository.findValueByFlagName(flag).get());
+    assertTrue(fuvRepository.getByFlagNameAndUserIdentity(badFlag, badUser).isEmpty());
+  }
+}
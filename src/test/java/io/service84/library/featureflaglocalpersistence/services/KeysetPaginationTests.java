@@ -0,0 +1,129 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import io.service84.library.featureflag.model.FlagPage;
+import io.service84.library.featureflaglocalpersistence.persistence.models.Flag;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagRepository;
+
+@ExtendWith(SpringExtension.class)
+@DataJpaTest
+@Import(FeatureFlagLocalPersistenceTestConfiguration.class)
+@TestPropertySource(
+    properties = {"io.service84.library.featureflaglocalpersistence.pagination.keyset=true"})
+public class KeysetPaginationTests {
+  // Test Subject
+  @Autowired private FeatureFlagLocalPersistence fflpService;
+  @Autowired private FlagRepository flagRepository;
+  @Autowired private Translator translator;
+
+  @Test
+  public void getFlagsWalksEveryName() {
+    List<String> expected = new ArrayList<>();
+
+    for (int i = 0; i < 5; i++) {
+      String name = UUID.randomUUID().toString();
+      flagRepository.save(new Flag(name));
+      expected.add(name);
+    }
+
+    List<String> walked = new ArrayList<>();
+    String cursor = null;
+
+    do {
+      FlagPage page = fflpService.getFlags(cursor, 2);
+      assertEquals(cursor, page.getCursor());
+      assertTrue(page.getFlags().size() <= 2);
+      walked.addAll(page.getFlags());
+      cursor = page.getNextCursor();
+    } while (cursor != null);
+
+    List<String> sorted = new ArrayList<>(walked);
+    sorted.sort(null);
+    assertEquals(sorted, walked);
+    assertEquals(walked.size(), new HashSet<>(walked).size());
+    assertTrue(walked.containsAll(expected));
+  }
+
+  @Test
+  public void getFlagsLastPageHasNoNextCursor() {
+    flagRepository.save(new Flag(UUID.randomUUID().toString()));
+
+    FlagPage firstPage = fflpService.getFlags(null, 1);
+    assertNotNull(firstPage.getFlags());
+    assertEquals(1, firstPage.getFlags().size());
+
+    FlagPage fullPage = fflpService.getFlags(null, Integer.MAX_VALUE);
+    assertEquals(1, fullPage.getFlags().size());
+    assertNull(fullPage.getNextCursor());
+  }
+
+  @Test
+  public void getFlagsNullLimitMatchesOffsets() {
+    assertLimitHandledLikeOffsets(null);
+  }
+
+  @Test
+  public void getFlagsZeroLimitMatchesOffsets() {
+    assertLimitHandledLikeOffsets(0);
+  }
+
+  @Test
+  public void getFlagsNegativeLimitMatchesOffsets() {
+    assertLimitHandledLikeOffsets(-1);
+  }
+
+  @Test
+  public void getFlagsMalformedCursor() {
+    flagRepository.save(new Flag(UUID.randomUUID().toString()));
+    assertThrows(NumberFormatException.class, () -> fflpService.getFlags("not a cursor", 1));
+    assertThrows(NumberFormatException.class, () -> fflpService.getFlags("A", 1));
+  }
+
+  private void assertLimitHandledLikeOffsets(Integer limit) {
+    flagRepository.save(new Flag(UUID.randomUUID().toString()));
+    Pageable pageable;
+
+    try {
+      pageable = translator.getPageable(null, limit);
+    } catch (RuntimeException e) {
+      assertThrows(e.getClass(), () -> fflpService.getFlags(null, limit));
+      return;
+    }
+
+    FlagPage page = fflpService.getFlags(null, limit);
+    assertTrue(page.getFlags().size() <= pageable.getPageSize());
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+public class RolloutRuleTests {
+  @Test
+  public void bucketsAreStable() {
+    // Changing these moves users in and out of every rollout already in use
+    assertEquals(7991, RolloutRule.bucket("salt", "user-1"));
+    assertEquals(7871, RolloutRule.bucket("salt", "user-2"));
+    assertEquals(7787, RolloutRule.bucket("other", "user-1"));
+  }
+
+  @Test
+  public void rolloutIncludesItsPercentage() {
+    RolloutRule rollout = RolloutRule.of(10.0, UUID.randomUUID().toString());
+    int included = 0;
+
+    for (int index = 0; index < 100000; index++) {
+      included += rollout.includes(UUID.randomUUID().toString()) ? 1 : 0;
+    }
+
+    assertTrue(Math.abs(included - 10000) < 1000);
+  }
+
+  @Test
+  public void boundsIncludeNoneOrEveryone() {
+    String user = UUID.randomUUID().toString();
+    assertFalse(RolloutRule.of(0.0, "salt").includes(user));
+    assertTrue(RolloutRule.of(100.0, "salt").includes(user));
+    assertFalse(RolloutRule.includes(null, null, user));
+    assertNull(RolloutRule.of(null, null));
+  }
+}
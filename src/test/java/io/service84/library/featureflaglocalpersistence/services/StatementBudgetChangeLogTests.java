@@ -0,0 +1,102 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+import static io.service84.library.featureflaglocalpersistence.services.StatementBudgetTests.FEW;
+import static io.service84.library.featureflaglocalpersistence.services.StatementBudgetTests.MANY;
+import static io.service84.library.featureflaglocalpersistence.services.StatementBudgetTests.assertWithinBudget;
+import static io.service84.library.featureflaglocalpersistence.services.StatementBudgetTests.measure;
+import static io.service84.library.featureflaglocalpersistence.services.StatementBudgetTests.values;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/*
+ * The bulk budgets of StatementBudgetTests with the change log and the flag state cache
+ * enabled, so that change log entries written per row fail the build too
+ */
+@ExtendWith(SpringExtension.class)
+@DataJpaTest
+@Import(FeatureFlagLocalPersistenceTestConfiguration.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@TestPropertySource(
+    properties = {
+      "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+          + "io.service84.library.featureflaglocalpersistence.services.FlagStatementInspector",
+      "io.service84.library.featureflaglocalpersistence.batch.chunk-size="
+          + StatementBudgetTests.CHUNK_SIZE,
+      "io.service84.library.featureflaglocalpersistence.clear.chunk-size="
+          + StatementBudgetTests.CHUNK_SIZE,
+      "io.service84.library.featureflaglocalpersistence.cache.enabled=true",
+      "io.service84.library.featureflaglocalpersistence.cache.refresh-interval=3600000",
+      "io.service84.library.featureflaglocalpersistence.change-log.enabled=true",
+      "io.service84.library.featureflaglocalpersistence.change-log.poll-interval=3600000"
+    })
+public class StatementBudgetChangeLogTests {
+  // Budgets, in SQL statements per call
+  private static final long SET_VALUES = 10;
+  private static final long SET_USER_VALUES = 6;
+  private static final long CLEAR_USER_VALUES = 7;
+  private static final long CLEAR_ALL_USER_VALUES = 7;
+
+  // Budgets, in SQL statements per further chunk of a bulk call, change log entries included
+  private static final long SET_VALUES_CHUNK = 5;
+  private static final long SET_USER_VALUES_CHUNK = 3;
+  private static final long CLEAR_USER_VALUES_CHUNK = 4;
+  private static final long CLEAR_ALL_USER_VALUES_CHUNK = 5;
+
+  // Test Subject
+  @Autowired private FeatureFlagLocalPersistence fflpService;
+
+  @Test
+  public void bulkWritesGrowByChunk() {
+    String flag = UUID.randomUUID().toString();
+    fflpService.createFlag(flag);
+    Map<String, Boolean> few = values(FEW);
+    Map<String, Boolean> many = values(MANY);
+    long setFew = assertWithinBudget(SET_USER_VALUES, () -> fflpService.setValues(flag, few));
+    long setMany = measure(() -> fflpService.setValues(flag, many));
+    assertEquals(setFew + 10 * SET_USER_VALUES_CHUNK, setMany);
+    long clearFew =
+        assertWithinBudget(CLEAR_USER_VALUES, () -> fflpService.clearValues(flag, few.keySet()));
+    long clearMany = measure(() -> fflpService.clearValues(flag, many.keySet()));
+    assertEquals(clearFew + 10 * CLEAR_USER_VALUES_CHUNK, clearMany);
+    long setFlagsFew = assertWithinBudget(SET_VALUES, () -> fflpService.setValues(values(FEW)));
+    long setFlagsMany = measure(() -> fflpService.setValues(values(MANY)));
+    assertEquals(setFlagsFew + 10 * SET_VALUES_CHUNK, setFlagsMany);
+  }
+
+  @Test
+  public void clearAllUserValuesGrowsByChunk() {
+    String flag = UUID.randomUUID().toString();
+    fflpService.setValues(flag, values(FEW));
+    long few =
+        assertWithinBudget(CLEAR_ALL_USER_VALUES, () -> fflpService.clearAllUserValues(flag));
+    fflpService.setValues(flag, values(MANY));
+    long many = measure(() -> fflpService.clearAllUserValues(flag));
+    assertEquals(few + 10 * CLEAR_ALL_USER_VALUES_CHUNK, many);
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/*
+ * Counts the SQL statements of each operation against a budget, so that a query derivation
+ * change, an N+1 or a write on a read path fails the build. Every operation commits on its
+ * own so that flushes and audit writes are counted. The chunks are small, so that bulk
+ * operations cross chunk boundaries and a chunk that grows with its rows fails too.
+ */
+@ExtendWith(SpringExtension.class)
+@DataJpaTest
+@Import(FeatureFlagLocalPersistenceTestConfiguration.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@TestPropertySource(
+    properties = {
+      "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+          + "io.service84.library.featureflaglocalpersistence.services.FlagStatementInspector",
+      "io.service84.library.featureflaglocalpersistence.batch.chunk-size="
+          + StatementBudgetTests.CHUNK_SIZE,
+      "io.service84.library.featureflaglocalpersistence.clear.chunk-size="
+          + StatementBudgetTests.CHUNK_SIZE
+    })
+public class StatementBudgetTests {
+  // Budgets, in SQL statements per call
+  private static final long GET_VALUE = 1;
+  private static final long GET_VALUES = 6;
+  private static final long GET_ALL_VALUES = 4;
+  private static final long GET_FLAGS = 2;
+  private static final long CREATE_FLAG = 4;
+  private static final long SET_VALUE = 6;
+  private static final long SET_VALUES = 8;
+  private static final long SET_USER_VALUES = 6;
+  private static final long CLEAR_VALUE = 6;
+  private static final long CLEAR_USER_VALUES = 6;
+  private static final long CLEAR_ALL_USER_VALUES = 6;
+
+  // Budgets, in SQL statements per further chunk of a bulk call
+  private static final long GET_VALUES_CHUNK = 2;
+  private static final long SET_VALUES_CHUNK = 3;
+  private static final long SET_USER_VALUES_CHUNK = 2;
+  private static final long CLEAR_USER_VALUES_CHUNK = 3;
+  private static final long CLEAR_ALL_USER_VALUES_CHUNK = 5;
+
+  static final int CHUNK_SIZE = 50;
+
+  // One partial chunk, and ten full chunks more
+  static final int FEW = CHUNK_SIZE / 2;
+  static final int MANY = 10 * CHUNK_SIZE + FEW;
+
+  // Test Subject
+  @Autowired private FeatureFlagLocalPersistence fflpService;
+
+  @Test
+  public void readsStayWithinBudget() {
+    String flag = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    fflpService.setValue(flag, Boolean.TRUE);
+    fflpService.setValue(flag, user, Boolean.FALSE);
+    assertWithinBudget(GET_VALUE, () -> fflpService.getValue(flag, user));
+    assertWithinBudget(GET_VALUE, () -> fflpService.getValue(flag, UUID.randomUUID().toString()));
+    long few = assertWithinBudget(GET_VALUES, () -> fflpService.getValues(flag, users(FEW)));
+    long many = measure(() -> fflpService.getValues(flag, users(MANY)));
+    assertEquals(few + 10 * GET_VALUES_CHUNK, many);
+    assertWithinBudget(GET_ALL_VALUES, () -> fflpService.getAllValues(user));
+    assertWithinBudget(GET_FLAGS, () -> fflpService.getFlags(null, 10));
+  }
+
+  @Test
+  public void readsOfUnknownFlagsOnlyRegisterThem() {
+    String flag = UUID.randomUUID().toString();
+    assertWithinBudget(GET_VALUE + CREATE_FLAG, () -> fflpService.getValue(flag, "user"));
+    assertWithinBudget(GET_VALUE, () -> fflpService.getValue(flag, "user"));
+  }
+
+  @Test
+  public void writesStayWithinBudget() {
+    String flag = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    assertWithinBudget(CREATE_FLAG, () -> fflpService.createFlag(flag));
+    assertWithinBudget(SET_VALUE, () -> fflpService.setValue(flag, Boolean.TRUE));
+    assertWithinBudget(SET_VALUE, () -> fflpService.setValue(flag, Boolean.FALSE));
+    assertWithinBudget(SET_VALUE, () -> fflpService.setValue(flag, user, Boolean.TRUE));
+    assertWithinBudget(SET_VALUE, () -> fflpService.setValue(flag, user, Boolean.FALSE));
+    assertWithinBudget(CLEAR_VALUE, () -> fflpService.clearValue(flag, user));
+    assertWithinBudget(CLEAR_VALUE, () -> fflpService.clearValue(flag));
+  }
+
+  @Test
+  public void bulkWritesGrowByChunk() {
+    String flag = UUID.randomUUID().toString();
+    fflpService.createFlag(flag);
+    Map<String, Boolean> few = values(FEW);
+    Map<String, Boolean> many = values(MANY);
+    long setFew = assertWithinBudget(SET_USER_VALUES, () -> fflpService.setValues(flag, few));
+    long setMany = measure(() -> fflpService.setValues(flag, many));
+    assertEquals(setFew + 10 * SET_USER_VALUES_CHUNK, setMany);
+    long clearFew =
+        assertWithinBudget(CLEAR_USER_VALUES, () -> fflpService.clearValues(flag, few.keySet()));
+    long clearMany = measure(() -> fflpService.clearValues(flag, many.keySet()));
+    assertEquals(clearFew + 10 * CLEAR_USER_VALUES_CHUNK, clearMany);
+    long setFlagsFew = assertWithinBudget(SET_VALUES, () -> fflpService.setValues(values(FEW)));
+    long setFlagsMany = measure(() -> fflpService.setValues(values(MANY)));
+    assertEquals(setFlagsFew + 10 * SET_VALUES_CHUNK, setFlagsMany);
+  }
+
+  @Test
+  public void clearAllUserValuesGrowsByChunk() {
+    String flag = UUID.randomUUID().toString();
+    fflpService.setValues(flag, values(FEW));
+    long few =
+        assertWithinBudget(CLEAR_ALL_USER_VALUES, () -> fflpService.clearAllUserValues(flag));
+    fflpService.setValues(flag, values(MANY));
+    long many = measure(() -> fflpService.clearAllUserValues(flag));
+    assertEquals(few + 10 * CLEAR_ALL_USER_VALUES_CHUNK, many);
+  }
+
+  static long assertWithinBudget(long budget, Runnable operation) {
+    long statements = measure(operation);
+    assertTrue(
+        statements <= budget, "Expected at most " + budget + " statements but was " + statements);
+    return statements;
+  }
+
+  static long measure(Runnable operation) {
+    long before = FlagStatementInspector.getStatementCount();
+    operation.run();
+    return FlagStatementInspector.getStatementCount() - before;
+  }
+
+  static List<String> users(int count) {
+    List<String> users = new ArrayList<>();
+
+    for (int index = 0; index < count; index++) {
+      users.add(UUID.randomUUID().toString());
+    }
+
+    return users;
+  }
+
+  static Map<String, Boolean> values(int count) {
+    Map<String, Boolean> values = new HashMap<>();
+
+    for (String user : users(count)) {
+      values.put(user, Boolean.TRUE);
+    }
+
+    return values;
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import io.service84.library.featureflaglocalpersistence.persistence.models.Flag;
+import io.service84.library.featureflaglocalpersistence.persistence.models.FlagUserValue;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagRepository;
+import io.service84.library.featureflaglocalpersistence.persistence.repositories.FlagUserValueRepository;
+
+@ExtendWith(SpringExtension.class)
+@DataJpaTest
+@Import(FeatureFlagLocalPersistenceTestConfiguration.class)
+@TestPropertySource(
+    properties = {
+      "io.service84.library.featureflaglocalpersistence.user-cache.enabled=true",
+      "io.service84.library.featureflaglocalpersistence.user-cache.max-users=2",
+      "io.service84.library.featureflaglocalpersistence.user-cache.time-to-live=60000"
+    })
+public class UserValueCacheTests {
+  // Test Subject
+  @Autowired private UserValueCache userValueCache;
+  @Autowired private FeatureFlagLocalPersistence fflpService;
+  @Autowired private FlagRepository flagRepository;
+  @Autowired private FlagUserValueRepository fuvRepository;
+
+  @Test
+  public void repeatUserServedFromCache() {
+    String flagName = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    fflpService.setValue(flagName, Boolean.TRUE);
+    Map<String, Boolean> userValues = userValueCache.getUserValues(user);
+    assertEquals(Boolean.TRUE, fflpService.getAllValues(user).get(flagName));
+    Flag flag = flagRepository.getByName(flagName).get();
+    fuvRepository.saveAndFlush(new FlagUserValue(flag, user, Boolean.FALSE));
+    assertSame(userValues, userValueCache.getUserValues(user));
+    assertEquals(Boolean.TRUE, fflpService.getAllValues(user).get(flagName));
+  }
+
+  @Test
+  public void setValueInvalidatesUser() {
+    String flag = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    fflpService.setValue(flag, Boolean.TRUE);
+    assertEquals(Boolean.TRUE, fflpService.getAllValues(user).get(flag));
+    fflpService.setValue(flag, user, Boolean.FALSE);
+    assertEquals(Boolean.FALSE, fflpService.getAllValues(user).get(flag));
+    fflpService.clearAllUserValues(flag);
+    assertEquals(Boolean.TRUE, fflpService.getAllValues(user).get(flag));
+  }
+
+  @Test
+  public void setValueInvalidatesFlagValues() {
+    String flag = UUID.randomUUID().toString();
+    String user = UUID.randomUUID().toString();
+    fflpService.setValue(flag, Boolean.TRUE);
+    assertEquals(Boolean.TRUE, fflpService.getAllValues(user).get(flag));
+    fflpService.setValue(flag, Boolean.FALSE);
+    assertEquals(Boolean.FALSE, fflpService.getAllValues(user).get(flag));
+    fflpService.clearValue(flag);
+    assertEquals(Boolean.FALSE, fflpService.getAllValues(user, Boolean.FALSE).get(flag));
+  }
+
+  @Test
+  public void leastRecentUserEvicted() {
+    String userA = UUID.randomUUID().toString();
+    String userB = UUID.randomUUID().toString();
+    String userC = UUID.randomUUID().toString();
+    Map<String, Boolean> userValuesA = userValueCache.getUserValues(userA);
+    Map<String, Boolean> userValuesB = userValueCache.getUserValues(userB);
+    assertSame(userValuesA, userValueCache.getUserValues(userA));
+    userValueCache.getUserValues(userC);
+    assertSame(userValuesA, userValueCache.getUserValues(userA));
+    assertEquals(userValuesB, userValueCache.getUserValues(userB));
+  }
+}
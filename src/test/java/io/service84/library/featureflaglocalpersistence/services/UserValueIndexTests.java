@@ -0,0 +1,126 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.service84.library.featureflaglocalpersistence.services;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+public class UserValueIndexTests {
+  @Test
+  public void getReturnsEveryValue() {
+    Map<String, Boolean> userValues = new HashMap<>();
+
+    for (int index = 0; index < 10000; index++) {
+      userValues.put(UUID.randomUUID().toString(), index % 3 == 0);
+    }
+
+    UserValueIndex userValueIndex = UserValueIndex.of(userValues);
+    assertEquals(userValues.size(), userValueIndex.size());
+    userValues.forEach((user, value) -> assertEquals(value, userValueIndex.get(user)));
+    assertNull(userValueIndex.get(UUID.randomUUID().toString()));
+    assertTrue(userValueIndex.getFootprint() > 0);
+  }
+
+  @Test
+  public void getMatchesWholeIdentity() {
+    String wide = "\u7528\u6237-" + UUID.randomUUID();
+    Map<String, Boolean> userValues = new HashMap<>();
+    userValues.put("user", Boolean.TRUE);
+    userValues.put("user\u00e9", Boolean.FALSE);
+    userValues.put(wide, Boolean.TRUE);
+    userValues.put("", Boolean.FALSE);
+    UserValueIndex userValueIndex = UserValueIndex.of(userValues);
+
+    assertEquals(Boolean.TRUE, userValueIndex.get("user"));
+    assertEquals(Boolean.FALSE, userValueIndex.get("user\u00e9"));
+    assertEquals(Boolean.TRUE, userValueIndex.get(wide));
+    assertEquals(Boolean.FALSE, userValueIndex.get(""));
+    assertNull(userValueIndex.get("use"));
+    assertNull(userValueIndex.get("users"));
+    assertNull(userValueIndex.get(wide.substring(1)));
+
+    Map<String, Boolean> visited = new HashMap<>();
+    userValueIndex.forEach(visited::put);
+    assertEquals(userValues, visited);
+  }
+
+  @Test
+  public void withReplacesAndRemoves() {
+    UserValueIndex userValueIndex =
+        UserValueIndex.of(Map.of("a", Boolean.TRUE, "b", Boolean.TRUE, "c", Boolean.TRUE));
+    UserValueIndex changed =
+        userValueIndex.with(Map.of("a", Boolean.FALSE, "d", Boolean.FALSE), List.of("b", "e"));
+
+    assertEquals(3, changed.size());
+    assertEquals(Boolean.FALSE, changed.get("a"));
+    assertNull(changed.get("b"));
+    assertEquals(Boolean.TRUE, changed.get("c"));
+    assertEquals(Boolean.FALSE, changed.get("d"));
+    assertEquals(Boolean.TRUE, userValueIndex.get("b"));
+    assertEquals(0, changed.with(Collections.emptyMap(), List.of("a", "c", "d")).size());
+  }
+
+  @Test
+  public void singleWritesMatchAMap() {
+    Map<String, Boolean> expected = new HashMap<>();
+    List<String> users = new ArrayList<>();
+
+    for (int index = 0; index < 1000; index++) {
+      String user = UUID.randomUUID().toString();
+      expected.put(user, Boolean.TRUE);
+      users.add(user);
+    }
+
+    UserValueIndex userValueIndex = UserValueIndex.of(expected);
+
+    // Enough writes to fold the overlay into new arrays several times
+    for (int index = 0; index < 2000; index++) {
+      String user = index % 4 == 0 ? UUID.randomUUID().toString() : users.get(index % 1000);
+
+      if (index % 3 == 0) {
+        expected.remove(user);
+        userValueIndex = userValueIndex.with(Collections.emptyMap(), List.of(user));
+      } else {
+        expected.put(user, index % 2 == 0);
+        userValueIndex = userValueIndex.with(Map.of(user, index % 2 == 0), List.of());
+      }
+
+      assertEquals(expected.size(), userValueIndex.size());
+      assertEquals(expected.get(user), userValueIndex.get(user));
+    }
+
+    Map<String, Boolean> visited = new HashMap<>();
+    userValueIndex.forEach(visited::put);
+    assertEquals(expected, visited);
+  }
+
+  @Test
+  public void buildKeepsLastPutOfUser() {
+    UserValueIndex userValueIndex =
+        new UserValueIndex.Builder(2).put("a", Boolean.TRUE).put("a", Boolean.FALSE).build();
+    assertEquals(1, userValueIndex.size());
+    assertEquals(Boolean.FALSE, userValueIndex.get("a"));
+  }
+}